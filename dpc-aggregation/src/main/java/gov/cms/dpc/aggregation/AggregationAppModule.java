@@ -8,11 +8,19 @@ import com.hubspot.dropwizard.guicier.DropwizardAwareModule;
 import com.typesafe.config.Config;
 import gov.cms.dpc.aggregation.engine.AggregationEngine;
 import gov.cms.dpc.aggregation.engine.OperationsConfig;
+import gov.cms.dpc.bluebutton.client.BlueButtonClient;
 import gov.cms.dpc.common.annotations.ExportPath;
 import gov.cms.dpc.fhir.hapi.ContextUtils;
+import gov.cms.dpc.queue.IJobQueue;
+import gov.cms.dpc.queue.annotations.AggregatorID;
 import gov.cms.dpc.queue.models.JobQueueBatch;
 
 import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class AggregationAppModule extends DropwizardAwareModule<DPCAggregationConfiguration> {
 
@@ -22,7 +30,6 @@ public class AggregationAppModule extends DropwizardAwareModule<DPCAggregationCo
 
     @Override
     public void configure(Binder binder) {
-        binder.bind(AggregationEngine.class);
         binder.bind(AggregationManager.class).asEagerSingleton();
 
         // Healthchecks
@@ -48,6 +55,18 @@ public class AggregationAppModule extends DropwizardAwareModule<DPCAggregationCo
         return getEnvironment().metrics();
     }
 
+    /**
+     * Build the pool of {@link AggregationEngine}s which work the queue independently.
+     * Each engine gets its own aggregator ID, derived from the aggregator ID of this service.
+     */
+    @Provides
+    @Singleton
+    List<AggregationEngine> provideAggregationEngines(@AggregatorID UUID aggregatorID, BlueButtonClient bbclient, IJobQueue queue, FhirContext fhirContext, MetricRegistry metricRegistry, OperationsConfig operationsConfig) {
+        return IntStream.range(0, operationsConfig.getWorkerCount())
+                .mapToObj(worker -> new AggregationEngine(formWorkerID(aggregatorID, worker), bbclient, queue, fhirContext, metricRegistry, operationsConfig))
+                .collect(Collectors.toList());
+    }
+
     @Provides
     public Config provideConfig() {
         return getConfiguration().getConfig();
@@ -63,11 +82,27 @@ public class AggregationAppModule extends DropwizardAwareModule<DPCAggregationCo
     OperationsConfig provideOperationsConfig() {
         final var config = getConfiguration();
 
-        return new OperationsConfig(
-                config.getResourcesPerFileCount(),
-                config.getExportPath(),
-                config.getRetryCount(),
-                config.getPollingFrequency()
-        );
+        return new OperationsConfig.Builder(config.getResourcesPerFileCount(), config.getExportPath(), config.getPollingFrequency())
+                .retryCount(config.getRetryCount())
+                .patientConcurrency(config.getPatientConcurrency())
+                .workerCount(config.getWorkerCount())
+                .queueNotifications(config.isQueueNotifications())
+                .fallbackPollingFrequency(config.getFallbackPollingFrequency())
+                .checkpointPatientCount(config.getCheckpointPatientCount())
+                .checkpointInterval(config.getCheckpointInterval())
+                .batchPrefetch(config.getBatchPrefetch())
+                .compressOutput(config.isCompressOutput())
+                .build();
+    }
+
+    /**
+     * Derive a stable aggregator ID for a worker from the aggregator ID of the service
+     *
+     * @param aggregatorID - {@link UUID} aggregator ID of the service
+     * @param worker       - index of the worker
+     * @return - {@link UUID} aggregator ID of the worker
+     */
+    static UUID formWorkerID(UUID aggregatorID, int worker) {
+        return UUID.nameUUIDFromBytes(String.format("%s/%d", aggregatorID, worker).getBytes(StandardCharsets.UTF_8));
     }
 }
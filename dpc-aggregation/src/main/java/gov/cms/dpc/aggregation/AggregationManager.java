@@ -1,35 +1,81 @@
 package gov.cms.dpc.aggregation;
 
+import com.codahale.metrics.MetricRegistry;
 import gov.cms.dpc.aggregation.engine.AggregationEngine;
+import gov.cms.dpc.common.utils.MetricMaker;
+import gov.cms.dpc.queue.IJobQueue;
+import gov.cms.dpc.queue.models.JobQueueBatch;
 import io.dropwizard.lifecycle.Managed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Manages the pool of {@link AggregationEngine}s. Each engine independently claims and processes batches from the queue.
+ * <p>
+ * The manager also runs the sweeper which returns the batches of dead aggregators to the queue, once their leases have expired.
+ */
 public class AggregationManager implements Managed {
 
     private static final Logger logger = LoggerFactory.getLogger(AggregationManager.class);
+    // How long to wait for the engines to pause their in-flight batches on shutdown
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    // Sweep a few times per lease, so an expired lease is reclaimed soon after it expires
+    private static final long SWEEP_INTERVAL_MILLIS = JobQueueBatch.LEASE_DURATION.dividedBy(3).toMillis();
 
-    private final Thread thread;
-    private final AggregationEngine engine;
+    private final List<AggregationEngine> engines;
+    private final IJobQueue queue;
+    private final ScheduledExecutorService sweeper;
 
     @Inject
-    public AggregationManager(AggregationEngine engine) {
-        logger.info("Instantiating Aggregation Manager");
-        this.engine = engine;
-        thread = new Thread(this.engine);
+    public AggregationManager(List<AggregationEngine> engines, IJobQueue queue, MetricRegistry metricRegistry) {
+        logger.info("Instantiating Aggregation Manager with {} engines", engines.size());
+        this.engines = engines;
+        this.queue = queue;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "batch-lease-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final var metricMaker = new MetricMaker(metricRegistry, AggregationManager.class);
+        metricMaker.registerCachedGauge("runningEngines", () -> this.engines.stream().filter(AggregationEngine::isRunning).count());
     }
 
     @Override
     public void start() {
-        logger.debug("Starting Aggregation thread");
-        thread.start();
+        logger.debug("Starting Aggregation engines");
+        this.engines.forEach(AggregationEngine::run);
+        this.sweeper.scheduleWithFixedDelay(this::reclaimExpiredBatches, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
-    public void stop() {
-        logger.debug("Stopping Aggregation thread");
-        this.engine.stop();
+    public void stop() throws InterruptedException {
+        logger.debug("Stopping Aggregation engines");
+        this.sweeper.shutdownNow();
+        // Stop all the engines first, so that they drain at the same time
+        this.engines.forEach(AggregationEngine::stop);
+        for (final AggregationEngine engine : this.engines) {
+            if (!engine.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Aggregation engine did not finish its batch before shutting down");
+            }
+        }
+    }
+
+    private void reclaimExpiredBatches() {
+        try {
+            final int reclaimed = this.queue.reclaimExpiredBatches();
+            if (reclaimed > 0) {
+                logger.info("Reclaimed {} batches with expired leases", reclaimed);
+            }
+        } catch (Exception e) {
+            // Keep sweeping, an exception would cancel the schedule
+            logger.error("Unable to reclaim batches with expired leases", e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -50,6 +50,42 @@ public class DPCAggregationConfiguration extends TypesafeConfiguration implement
     @Min(50)
     private int pollingFrequency = 500;
 
+    // The number of batches written to the queue in each transaction when submitting a job
+    @Min(1)
+    private int queueSubmitChunkSize = 50;
+
+    // The number of patients in a batch that can be fetched from Blue Button at the same time
+    @Min(1)
+    @Max(100)
+    private int patientConcurrency = 1;
+
+    // The number of aggregation engines that claim and process batches independently within this service
+    @Min(1)
+    @Max(64)
+    private int workerCount = 1;
+
+    // Wait for notifications of submitted batches from the queue, instead of polling it every pollingFrequency
+    private boolean queueNotifications = false;
+
+    // How often in milliseconds to check the queue for new batches when waiting for notifications, in case one is missed
+    @Min(50)
+    private int fallbackPollingFrequency = 30000;
+
+    // The progress of a batch is checkpointed once this many patients have been written since the last checkpoint...
+    @Min(1)
+    private int checkpointPatientCount = 100;
+
+    // ...or once this many milliseconds have passed since the last checkpoint, whichever comes first
+    @Min(0)
+    private int checkpointInterval = 10000;
+
+    // The number of batches each worker claims from the queue at once. The unstarted batches wait in the worker until it is free
+    @Min(1)
+    private int batchPrefetch = 1;
+
+    // Also write a gzip compressed copy of each export file, which is served to clients that accept gzip
+    private boolean compressOutput = false;
+
     @Override
     public DataSourceFactory getDatabase() {
         return this.database;
@@ -80,13 +116,49 @@ public class DPCAggregationConfiguration extends TypesafeConfiguration implement
         return resourcesPerFileCount;
     }
 
+    public int getPatientConcurrency() {
+        return patientConcurrency;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public boolean isQueueNotifications() {
+        return queueNotifications;
+    }
+
+    public int getFallbackPollingFrequency() {
+        return fallbackPollingFrequency;
+    }
+
+    public int getCheckpointPatientCount() {
+        return checkpointPatientCount;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public int getBatchPrefetch() {
+        return batchPrefetch;
+    }
+
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
     @Override
     public BBClientConfiguration getBlueButtonConfiguration() {
         return this.clientConfiguration;
     }
 
-    @Override
     public int getPollingFrequency() {
         return pollingFrequency;
     }
+
+    @Override
+    public int getQueueSubmitChunkSize() {
+        return queueSubmitChunkSize;
+    }
 }
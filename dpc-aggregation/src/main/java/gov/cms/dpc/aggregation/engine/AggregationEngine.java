@@ -12,10 +12,11 @@ import gov.cms.dpc.queue.models.JobQueueBatch;
 import gov.cms.dpc.queue.models.JobQueueBatchFile;
 import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.exceptions.UndeliverableException;
 import io.reactivex.plugins.RxJavaPlugins;
-import org.bouncycastle.jcajce.provider.digest.SHA256;
+import io.reactivex.schedulers.Schedulers;
 import org.hl7.fhir.dstu3.model.Resource;
 import org.hl7.fhir.dstu3.model.ResourceType;
 import org.reactivestreams.Publisher;
@@ -23,12 +24,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -39,12 +45,26 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * Implementation Notes:
  * - There is a single flow that does the work for a job
+ * - Several batches may be claimed at once, the ones that are not started straight away wait in the engine until it is free
  * - It starts with an iteration of resource types in a job and produces a series of JobQueueBatchFile for that resource type
- * - Partial job batches are saved out and written along the way
+ * - Several patients of a batch may be fetched concurrently, but they are written and checkpointed in order
+ * - Resources are fetched and written a BlueButton page at a time, so a patient with many claims is never held in memory as a whole
+ * - Partial job batches are checkpointed along the way, every few patients
+ * - The engine holds a lease on the batch it works, renewed by heartbeat. If the engine dies, the batch is reclaimed once the lease expires
  * - When the aggregator shuts down, a batch is paused and another aggregator can claim the batch to continue processing
  */
 public class AggregationEngine implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(AggregationEngine.class);
+    // Marks the end of the pages of a patient in the flow of a batch. Compared by identity.
+    private static final List<Resource> PATIENT_COMPLETED = Collections.unmodifiableList(new ArrayList<>());
+    // Number of pages of each in-flight patient that may be fetched ahead of the writer
+    private static final int PAGE_PREFETCH = 2;
+    // Renews the leases of the batches being worked by the engines, the heartbeats are short so they share a thread
+    private static final ScheduledExecutorService HEARTBEAT_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "batch-lease-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final UUID aggregatorID;
     private final IJobQueue queue;
@@ -53,8 +73,18 @@ public class AggregationEngine implements Runnable {
     private final FhirContext fhirContext;
     private final Meter resourceMeter;
     private final Meter operationalOutcomeMeter;
-    private Disposable subscribe;
+    private final Meter completedBatchMeter;
+    private final Meter pausedBatchMeter;
+    private final Meter failedBatchMeter;
+    private final Meter lostBatchMeter;
+    private volatile Disposable subscribe;
+    private ScheduledThreadPoolExecutor executor;
+    private volatile Thread waitingThread;
     private AtomicBoolean queueRunning = new AtomicBoolean(false);
+    // Batches claimed along with the batch being worked, which have not been started yet
+    private final Deque<JobQueueBatch> prefetchedBatches = new ConcurrentLinkedDeque<>();
+    // Whether the last attempt to take a batch came back empty, so the engine should wait before trying again
+    private volatile boolean idle;
 
     /**
      * Create an engine.
@@ -78,6 +108,12 @@ public class AggregationEngine implements Runnable {
         final var metricFactory = new MetricMaker(metricRegistry, AggregationEngine.class);
         resourceMeter = metricFactory.registerMeter("resourceFetched");
         operationalOutcomeMeter = metricFactory.registerMeter("operationalOutcomes");
+
+        // Per-worker metrics, keyed by the aggregator ID that is recorded on the claimed batches
+        completedBatchMeter = metricFactory.registerMeter(String.format("worker.%s.completedBatches", aggregatorID));
+        pausedBatchMeter = metricFactory.registerMeter(String.format("worker.%s.pausedBatches", aggregatorID));
+        failedBatchMeter = metricFactory.registerMeter(String.format("worker.%s.failedBatches", aggregatorID));
+        lostBatchMeter = metricFactory.registerMeter(String.format("worker.%s.lostBatches", aggregatorID));
     }
 
     /**
@@ -86,7 +122,8 @@ public class AggregationEngine implements Runnable {
     @Override
     public void run() {
         // Run loop
-        logger.info("Starting aggregation engine with exportPath:\"{}\" resourcesPerFile:{} ",
+        logger.info("Starting aggregation engine {} with exportPath:\"{}\" resourcesPerFile:{} ",
+                aggregatorID,
                 operationsConfig.getExportPath(),
                 operationsConfig.getResourcesPerFileCount());
         setGlobalErrorHandler();
@@ -94,12 +131,39 @@ public class AggregationEngine implements Runnable {
     }
 
     /**
-     * Stop the engine.
+     * Stop the engine. The batch currently being processed is paused after its in-flight patients are written,
+     * and the prefetched batches are released back to the queue.
      */
     public void stop() {
-        logger.info("Shutting down aggregation engine");
-        this.subscribe.dispose();
+        logger.info("Shutting down aggregation engine {}", aggregatorID);
+        // Dispose the flow before the executor is shut down, so no more work or timers are scheduled on it
+        final Disposable subscription = this.subscribe;
+        if (subscription != null) {
+            subscription.dispose();
+        }
         queueRunning.set(false);
+        releasePrefetchedBatches();
+        // Wake up the engine if it is idle waiting for a batch
+        final Thread waiting = waitingThread;
+        if (waiting != null) {
+            waiting.interrupt();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Wait for the engine to finish with the batch it was working on, after being stopped.
+     * Polling timers which were still pending when the engine was stopped are dropped, rather than run.
+     *
+     * @param timeout - the maximum time to wait
+     * @param unit    - the {@link TimeUnit} of the timeout
+     * @return - {@code true} the engine has drained. {@code false} the timeout elapsed first.
+     * @throws InterruptedException - if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor == null || executor.awaitTermination(timeout, unit);
     }
 
     public Boolean isRunning() {
@@ -107,19 +171,33 @@ public class AggregationEngine implements Runnable {
     }
 
     /**
-     * The main run-loop of the engine.
+     * The main run-loop of the engine. Each engine claims and processes its batches on its own thread.
      */
     protected void pollQueue() {
         queueRunning.set(true);
-        subscribe = Observable.fromCallable(() -> this.queue.claimBatch(aggregatorID))
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> new Thread(runnable, String.format("aggregation-engine-%s", aggregatorID)));
+        // The polling timers are scheduled on the executor itself, so shutting it down cancels them instead of rejecting them when they fire
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        final Scheduler scheduler = Schedulers.from(executor);
+        subscribe = Observable.fromCallable(this::nextBatch)
+                .subscribeOn(scheduler)
                 .doOnNext(job -> logger.trace("Polling queue for job"))
                 .doOnError(error -> logger.error("Unable to complete job.", error))
                 .onErrorResumeNext(Observable.empty()) // Keep the queue running on error
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .repeatWhen(completed -> {
-                    logger.debug(String.format("No job, polling again in %d milliseconds", operationsConfig.getPollingFrequency()));
-                    return completed.delay(operationsConfig.getPollingFrequency(), TimeUnit.MILLISECONDS);
+                    if (operationsConfig.isQueueNotifications()) {
+                        return completed.doOnNext(tick -> awaitBatch());
+                    }
+                    // Go straight on to the next batch while there is work
+                    return completed.concatMap(tick -> {
+                        if (!idle) {
+                            return Observable.just(tick);
+                        }
+                        logger.debug(String.format("No job, polling again in %d milliseconds", operationsConfig.getPollingFrequency()));
+                        return Observable.timer(operationsConfig.getPollingFrequency(), TimeUnit.MILLISECONDS, scheduler);
+                    });
                 })
                 .subscribe(this::processJobBatch, error -> {
                     logger.error("Fatal error processing the queue! Queue processing is stopping!", error);
@@ -128,7 +206,76 @@ public class AggregationEngine implements Runnable {
     }
 
     /**
-     * Loops over the partials of a job batch and handles completed, error, and paused job scenarios
+     * Take the next batch to work. The prefetched batches are worked first. Once they are used up,
+     * up to {@link OperationsConfig#getBatchPrefetch()} batches are claimed from the queue at once.
+     *
+     * @return - the batch to work, if present
+     */
+    protected Optional<JobQueueBatch> nextBatch() {
+        // Until a batch is found, including when the claim fails
+        idle = true;
+        JobQueueBatch prefetched;
+        while ((prefetched = prefetchedBatches.poll()) != null) {
+            // The leases of prefetched batches are renewed by the heartbeat of the batch being worked, but may have run out between batches
+            if (this.queue.renewLease(prefetched, aggregatorID)) {
+                idle = false;
+                return Optional.of(prefetched);
+            }
+            logger.warn("Prefetched job {} batch {} has been reclaimed", prefetched.getJobID(), prefetched.getBatchID());
+        }
+
+        final List<JobQueueBatch> claimed = this.queue.claimBatches(aggregatorID, operationsConfig.getBatchPrefetch());
+        if (claimed.isEmpty()) {
+            return Optional.empty();
+        }
+        prefetchedBatches.addAll(claimed.subList(1, claimed.size()));
+        if (!queueRunning.get()) {
+            // Stopped while claiming, so the batches were not there to be released
+            releasePrefetchedBatches();
+        }
+        idle = false;
+        return Optional.of(claimed.get(0));
+    }
+
+    /**
+     * Return the prefetched batches which have not been started to the queue, so that other aggregators can work them.
+     */
+    private void releasePrefetchedBatches() {
+        JobQueueBatch prefetched;
+        while ((prefetched = prefetchedBatches.poll()) != null) {
+            try {
+                logger.debug("Releasing prefetched job {} batch {}", prefetched.getJobID(), prefetched.getBatchID());
+                this.queue.pauseBatch(prefetched, aggregatorID);
+            } catch (Exception e) {
+                // The batch is reclaimed once its lease expires
+                logger.error("Unable to release prefetched job {} batch {}", prefetched.getJobID(), prefetched.getBatchID(), e);
+            }
+        }
+    }
+
+    /**
+     * Block the engine thread until the queue signals a submitted batch, or until the fallback polling interval elapses.
+     * Only waits when the last claim came back empty, completing a batch does not signal the queue.
+     */
+    private void awaitBatch() {
+        waitingThread = Thread.currentThread();
+        try {
+            if (queueRunning.get() && idle) {
+                logger.trace("No job, waiting up to {} milliseconds for a notification", operationsConfig.getFallbackPollingFrequency());
+                this.queue.awaitBatch(operationsConfig.getFallbackPollingFrequency(), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            // Interrupted by stop, the disposed subscription ends the loop
+            logger.debug("Stopped waiting for a batch");
+        } finally {
+            waitingThread = null;
+        }
+    }
+
+    /**
+     * Loops over the partials of a job batch and handles completed, error, and paused job scenarios.
+     * Up to {@link OperationsConfig#getPatientConcurrency()} patients are fetched at the same time, but their resources
+     * are written and checkpointed in patient order, so the patient index always reflects fully written patients.
      *
      * @param job - the job to process
      */
@@ -138,97 +285,130 @@ public class AggregationEngine implements Runnable {
             logger.info("Processing job {} batch {}, exporting to: {}.", job.getJobID(), job.getBatchID(), this.operationsConfig.getExportPath());
             logger.debug("Has {} attributed beneficiaries", job.getPatients().size());
 
-            Optional<String> nextPatientID = job.fetchNextPatient(aggregatorID);
-
-            // Stop processing when no patients or early shutdown
-            boolean queueRunning = true;
-            while (nextPatientID.isPresent()) {
-                this.processJobBatchPartial(job, nextPatientID.get());
+            final List<String> patients = job.getPatients();
+            final int startIndex = job.getPatientIndex().orElse(-1) + 1;
+            final int concurrency = operationsConfig.getPatientConcurrency();
 
-                // Check if the subscriber is still running before getting the next part of the batch
-                queueRunning = !this.subscribe.isDisposed();
-                nextPatientID = queueRunning ? job.fetchNextPatient(aggregatorID) : Optional.empty();
-            }
+            // Hash the MBIs of the remaining patients in the background, ahead of fetching them
+            bbclient.prehashMbis(patients.subList(startIndex, patients.size()));
 
-            // Finish processing the batch
-            if (queueRunning) {
-                logger.info("COMPLETED job {} batch {}", job.getJobID(), job.getBatchID());
-                // Calculate metadata for the file (length and checksum)
-                calculateFileMetadata(job);
-                this.queue.completeBatch(job, aggregatorID);
-            } else {
-                logger.info("PAUSED job {} batch {}", job.getJobID(), job.getBatchID());
-                this.queue.pauseBatch(job, aggregatorID);
+            // Renew the lease on the batch while it is worked, so it is not reclaimed from this aggregator
+            try (final var lease = new BatchLease(queue, aggregatorID, job, prefetchedBatches, HEARTBEAT_EXECUTOR)) {
+                // Keep the output files of the batch open until the batch is done or paused
+                try (final var session = new ResourceWriterSession(fhirContext, operationsConfig.getExportPath(), job.getBatchID(), operationsConfig.isCompressOutput())) {
+                    final var checkpointer = new BatchCheckpointer(queue, aggregatorID, job, session, operationsConfig);
+                    try {
+                        Flowable.range(startIndex, Math.max(patients.size() - startIndex, 0))
+                                // Stop handing out patients on early shutdown or a lost lease, but always make progress on at least one
+                                .takeWhile(index -> index == startIndex || !(this.subscribe.isDisposed() || lease.isLost()))
+                                .map(patients::get)
+                                .concatMapEager(patientID -> fetchJobBatchPartial(job, patientID), concurrency, PAGE_PREFETCH)
+                                // Once the lease is lost another aggregator owns the files of the batch, so the pages still in flight are dropped unwritten
+                                .takeWhile(page -> !lease.isLost())
+                                .blockingForEach(page -> this.processJobBatchPartial(job, session, checkpointer, page));
+                    } finally {
+                        if (lease.isLost()) {
+                            // Nor is anything written since the last checkpoint flushed to them
+                            session.abandon();
+                        }
+                    }
+                }
+
+                if (lease.isLost()) {
+                    // Another aggregator continues the batch from its last checkpoint
+                    logger.warn("LOST job {} batch {}", job.getJobID(), job.getBatchID());
+                    lostBatchMeter.mark();
+                    return;
+                }
+
+                // Finish processing the batch
+                final boolean batchFinished = job.getPatientIndex().orElse(-1) + 1 >= patients.size();
+                if (batchFinished) {
+                    logger.info("COMPLETED job {} batch {}", job.getJobID(), job.getBatchID());
+                    // Calculate metadata for the file (length and checksum)
+                    calculateFileMetadata(job);
+                    this.queue.completeBatch(job, aggregatorID);
+                    completedBatchMeter.mark();
+                } else {
+                    logger.info("PAUSED job {} batch {}", job.getJobID(), job.getBatchID());
+                    this.queue.pauseBatch(job, aggregatorID);
+                    pausedBatchMeter.mark();
+                }
             }
         } catch (Exception error) {
             logger.error("FAILED job {} batch {}", job.getJobID(), job.getBatchID(), error);
             this.queue.failBatch(job, aggregatorID);
+            failedBatchMeter.mark();
         }
     }
 
-    private void calculateFileMetadata(JobQueueBatch job) {
-        job.getJobQueueBatchFiles()
-                .forEach(batchFile -> {
-                    final File file = new File(String.format("%s/%s.ndjson", this.operationsConfig.getExportPath(), batchFile.getFileName()));
-                    try {
-                        final byte[] checksum = generateChecksum(file);
-                        batchFile.setChecksum(checksum);
-                    } catch (IOException e) { // If we can't generate the checksum, that's a faulting error, just continue
-                        logger.error("Unable to generate checksum for file {}", batchFile.getFileName());
-                    }
-                    batchFile.setFileLength(file.length());
-                });
+    private void calculateFileMetadata(JobQueueBatch job) throws IOException {
+        // The length and digest state of each file are tracked while writing, so the file does not have to be read again.
+        // Files checkpointed before the digest state was tracked, and not written to since, are read once instead.
+        for (final JobQueueBatchFile batchFile : job.getJobQueueBatchFiles()) {
+            batchFile.setChecksum(ResourceWriterSession.formChecksum(operationsConfig.getExportPath(), batchFile));
+            batchFile.setCompressedChecksum(ResourceWriterSession.formCompressedChecksum(batchFile));
+        }
     }
 
     /**
-     * Processes a partial of a job batch. Marks the partial as completed upon processing
+     * Fetches the resources of a partial of a job batch as a flow of pages, ending with {@link #PATIENT_COMPLETED}.
+     * The fetch runs on the IO scheduler, so that several patients can be in flight at once and the next page is fetched while the previous one is written.
+     * The patient is resolved once and shared between the fetches of each resource type.
      *
      * @param job       - the job to process
-     * @param patientID - The current patient id processing
+     * @param patientID - The patient id to fetch resources for
+     * @return a flow with a list of resources (or a single {@link ResourceType#OperationOutcome}) for each page fetched for the patient
+     */
+    private Flowable<List<Resource>> fetchJobBatchPartial(JobQueueBatch job, String patientID) {
+        final var patientContext = new PatientResolutionContext(bbclient, job.getJobID(), job.getBatchID(), patientID, operationsConfig);
+        return Flowable.fromIterable(job.getResourceTypes())
+                .concatMap(resourceType -> new ResourceFetcher(bbclient, job.getJobID(), job.getBatchID(), resourceType, job.getSince(), operationsConfig).fetchResources(patientContext))
+                .concatWith(Flowable.just(PATIENT_COMPLETED))
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Processes a page of a partial of a job batch. Writes the fetched resources of the page, or
+     * marks the partial as completed once all the pages of the patient have been written.
+     *
+     * @param job          - the job to process
+     * @param session      - the {@link ResourceWriterSession} of the batch
+     * @param checkpointer - the {@link BatchCheckpointer} of the batch
+     * @param page         - The fetched resources of a page of the next patient in the batch, or {@link #PATIENT_COMPLETED}
      */
-    private List<JobQueueBatchFile> processJobBatchPartial(JobQueueBatch job, String patientID) {
-        final var results = Flowable.fromIterable(job.getResourceTypes())
-                .flatMap(resourceType -> completeResource(job, patientID, resourceType))
-                .toList()
-                .blockingGet(); // Wait on the main thread until completion
-        this.queue.completePartialBatch(job, aggregatorID);
-        return results;
+    private void processJobBatchPartial(JobQueueBatch job, ResourceWriterSession session, BatchCheckpointer checkpointer, List<Resource> page) {
+        if (page == PATIENT_COMPLETED) {
+            checkpointer.patientCompleted();
+            return;
+        }
+        if (page.isEmpty()) {
+            return;
+        }
+        completeResource(job, session, page, page.get(0).getResourceType())
+                .ignoreElements()
+                .blockingAwait(); // Wait on the main thread until completion
     }
 
     /**
-     * Fetch and write a specific resource type
+     * Write the resources of a specific resource type
      *
      * @param job          context
+     * @param session      holding the open files of the batch
+     * @param resources    fetched for the patient
      * @param resourceType to process
      */
-    private Flowable<JobQueueBatchFile> completeResource(JobQueueBatch job, String patientID, ResourceType resourceType) {
-        // Make this flow hot (ie. only called once) when multiple subscribers attach
-        final var fetcher = new ResourceFetcher(bbclient, job.getJobID(), job.getBatchID(), resourceType, operationsConfig);
-        final Flowable<Resource> mixedFlow = fetcher.fetchResources(patientID);
-        final var connectableMixedFlow = mixedFlow.publish().autoConnect(2);
-
-        // Batch the non-error resources into files
+    private Flowable<JobQueueBatchFile> completeResource(JobQueueBatch job, ResourceWriterSession session, List<Resource> resources, ResourceType resourceType) {
+        // Batch the resources into files, continuing the latest file of the batch
         final var resourceCount = new AtomicInteger();
         final var sequenceCount = new AtomicInteger();
         job.getJobQueueFileLatest(resourceType).ifPresent(file -> {
             resourceCount.set(file.getCount());
             sequenceCount.set(file.getSequence());
         });
-        final var writer = new ResourceWriter(fhirContext, job, resourceType, operationsConfig);
-        final Flowable<JobQueueBatchFile> resourceFlow = connectableMixedFlow.compose((upstream) -> bufferAndWrite(upstream, writer, resourceCount, sequenceCount, resourceMeter));
-
-        // Batch the error resources into files
-        final var errorResourceCount = new AtomicInteger();
-        final var errorSequenceCount = new AtomicInteger();
-        job.getJobQueueFileLatest(ResourceType.OperationOutcome).ifPresent(file -> {
-            errorResourceCount.set(file.getCount());
-            errorSequenceCount.set(file.getSequence());
-        });
-        final var errorWriter = new ResourceWriter(fhirContext, job, ResourceType.OperationOutcome, operationsConfig);
-        final Flowable<JobQueueBatchFile> outcomeFlow = connectableMixedFlow.compose((upstream) -> bufferAndWrite(upstream, errorWriter, errorResourceCount, errorSequenceCount, operationalOutcomeMeter));
-
-        // Merge the resultant flows
-        return resourceFlow.mergeWith(outcomeFlow);
+        final var writer = new ResourceWriter(session, job, resourceType);
+        final var meter = resourceType == ResourceType.OperationOutcome ? operationalOutcomeMeter : resourceMeter;
+        return Flowable.fromIterable(resources).compose((upstream) -> bufferAndWrite(upstream, writer, resourceCount, sequenceCount, meter));
     }
 
     /**
@@ -318,10 +498,4 @@ public class AggregationEngine implements Runnable {
     protected void setSubscribe(Disposable subscribe) {
         this.subscribe = subscribe;
     }
-
-    static byte[] generateChecksum(File file) throws IOException {
-        try (FileInputStream fileInputStream = new FileInputStream(file)) {
-            return new SHA256.Digest().digest(fileInputStream.readAllBytes());
-        }
-    }
 }
@@ -0,0 +1,72 @@
+package gov.cms.dpc.aggregation.engine;
+
+import gov.cms.dpc.queue.IJobQueue;
+import gov.cms.dpc.queue.exceptions.JobQueueFailure;
+import gov.cms.dpc.queue.models.JobQueueBatch;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the checkpoints of a batch. The progress is checkpointed once {@link OperationsConfig#getCheckpointPatientCount()} patients
+ * have been written since the last checkpoint, or once {@link OperationsConfig#getCheckpointInterval()} has passed, whichever comes first.
+ * <p>
+ * Patients written after the last checkpoint are not lost if the aggregator dies, they are written again by the aggregator that resumes the batch,
+ * since the output files are truncated back to their checkpointed length.
+ */
+class BatchCheckpointer {
+
+    private final IJobQueue queue;
+    private final UUID aggregatorID;
+    private final JobQueueBatch job;
+    private final ResourceWriterSession session;
+    private final int patientCount;
+    private final long intervalNanos;
+    private int pendingPatients;
+    private long lastCheckpoint;
+
+    /**
+     * Create a checkpointer for a batch
+     *
+     * @param queue            - the {@link IJobQueue} to checkpoint to
+     * @param aggregatorID     - the aggregator working the batch
+     * @param job              - the batch to checkpoint
+     * @param session          - the {@link ResourceWriterSession} of the batch, flushed before each checkpoint
+     * @param operationsConfig - the {@link OperationsConfig} holding the checkpoint settings
+     */
+    BatchCheckpointer(IJobQueue queue, UUID aggregatorID, JobQueueBatch job, ResourceWriterSession session, OperationsConfig operationsConfig) {
+        this.queue = queue;
+        this.aggregatorID = aggregatorID;
+        this.job = job;
+        this.session = session;
+        this.patientCount = operationsConfig.getCheckpointPatientCount();
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(operationsConfig.getCheckpointInterval());
+        this.pendingPatients = 0;
+        this.lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Record that the next patient of the batch has been written, and checkpoint if one is due.
+     */
+    void patientCompleted() {
+        // Patient index should be set to the last successfully written patient
+        job.fetchNextPatient(aggregatorID);
+        pendingPatients++;
+        if (pendingPatients >= patientCount || System.nanoTime() - lastCheckpoint >= intervalNanos) {
+            checkpoint();
+        }
+    }
+
+    private void checkpoint() {
+        // The written resources must be on disk before they are checkpointed
+        try {
+            session.flush();
+        } catch (IOException e) {
+            throw new JobQueueFailure(job.getJobID(), job.getBatchID(), "IO error flushing resources", e);
+        }
+        queue.completePartialBatch(job, aggregatorID);
+        pendingPatients = 0;
+        lastCheckpoint = System.nanoTime();
+    }
+}
@@ -0,0 +1,91 @@
+package gov.cms.dpc.aggregation.engine;
+
+import gov.cms.dpc.queue.IJobQueue;
+import gov.cms.dpc.queue.models.JobQueueBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the lease of an aggregator on a batch alive while the batch is worked, by renewing it a few times per {@link JobQueueBatch#LEASE_DURATION}.
+ * The heartbeat runs on its own thread, so the lease is renewed even while a single patient takes a long time to fetch.
+ * <p>
+ * If the renewal finds the batch is no longer owned by the aggregator (e.g. it missed its heartbeats and the batch was reclaimed),
+ * the lease is marked as lost and the aggregator must stop working the batch.
+ * <p>
+ * The leases of the batches the aggregator has claimed, but not started yet, are renewed along with it.
+ * Those which are found to be reclaimed are dropped, so the aggregator does not start them.
+ */
+class BatchLease implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchLease.class);
+    private static final long HEARTBEAT_INTERVAL_MILLIS = JobQueueBatch.LEASE_DURATION.dividedBy(3).toMillis();
+
+    private final IJobQueue queue;
+    private final UUID aggregatorID;
+    private final JobQueueBatch job;
+    private final Collection<JobQueueBatch> heldBatches;
+    private final ScheduledFuture<?> heartbeat;
+    private volatile boolean lost;
+
+    /**
+     * Start the heartbeat for a claimed batch
+     *
+     * @param queue        - the {@link IJobQueue} holding the lease
+     * @param aggregatorID - the aggregator working the batch
+     * @param job          - the claimed batch
+     * @param heldBatches  - the other claimed batches, which are waiting to be started. Must be safe to modify from the heartbeat thread.
+     * @param scheduler    - the {@link ScheduledExecutorService} to run the heartbeat on
+     */
+    BatchLease(IJobQueue queue, UUID aggregatorID, JobQueueBatch job, Collection<JobQueueBatch> heldBatches, ScheduledExecutorService scheduler) {
+        this.queue = queue;
+        this.aggregatorID = aggregatorID;
+        this.job = job;
+        this.heldBatches = heldBatches;
+        this.lost = false;
+        this.heartbeat = scheduler.scheduleWithFixedDelay(this::renew, HEARTBEAT_INTERVAL_MILLIS, HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Has the batch been reclaimed from the aggregator
+     *
+     * @return - {@code true} the aggregator no longer owns the batch
+     */
+    boolean isLost() {
+        return lost;
+    }
+
+    @Override
+    public void close() {
+        heartbeat.cancel(false);
+    }
+
+    private void renew() {
+        try {
+            if (!queue.renewLease(job, aggregatorID)) {
+                logger.warn("Lost the lease on job {} batch {}", job.getJobID(), job.getBatchID());
+                lost = true;
+                heartbeat.cancel(false);
+                return;
+            }
+        } catch (Exception e) {
+            // Try again on the next heartbeat, an exception would cancel the schedule
+            logger.error("Unable to renew the lease on job {} batch {}", job.getJobID(), job.getBatchID(), e);
+        }
+        for (final JobQueueBatch held : heldBatches) {
+            try {
+                if (!queue.renewLease(held, aggregatorID)) {
+                    logger.warn("Lost the lease on prefetched job {} batch {}", held.getJobID(), held.getBatchID());
+                    heldBatches.remove(held);
+                }
+            } catch (Exception e) {
+                logger.error("Unable to renew the lease on prefetched job {} batch {}", held.getJobID(), held.getBatchID(), e);
+            }
+        }
+    }
+}
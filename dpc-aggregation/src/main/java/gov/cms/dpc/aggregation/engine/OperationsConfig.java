@@ -9,28 +9,28 @@ public class OperationsConfig {
     private int resourcesPerFileCount;
     private String exportPath;
     private int pollingFrequency;
+    private int patientConcurrency;
+    private int workerCount;
+    private boolean queueNotifications;
+    private int fallbackPollingFrequency;
+    private int checkpointPatientCount;
+    private int checkpointInterval;
+    private int batchPrefetch;
+    private boolean compressOutput;
 
-    public OperationsConfig(
-            int resourcesPerFileCount,
-            String exportPath,
-            int retryCount,
-            int pollingFrequency
-    ) {
-        this.retryCount = retryCount;
-        this.resourcesPerFileCount = resourcesPerFileCount;
-        this.exportPath = exportPath;
-        this.pollingFrequency = pollingFrequency;
-    }
-
-    public OperationsConfig(
-            int resourcesPerFileCount,
-            String exportPath,
-            int pollingFrequency
-    ) {
-        this.retryCount = 3;
-        this.resourcesPerFileCount = resourcesPerFileCount;
-        this.exportPath = exportPath;
-        this.pollingFrequency = pollingFrequency;
+    private OperationsConfig(Builder builder) {
+        this.retryCount = builder.retryCount;
+        this.resourcesPerFileCount = builder.resourcesPerFileCount;
+        this.exportPath = builder.exportPath;
+        this.pollingFrequency = builder.pollingFrequency;
+        this.patientConcurrency = builder.patientConcurrency;
+        this.workerCount = builder.workerCount;
+        this.queueNotifications = builder.queueNotifications;
+        this.fallbackPollingFrequency = builder.fallbackPollingFrequency == null ? builder.pollingFrequency : builder.fallbackPollingFrequency;
+        this.checkpointPatientCount = builder.checkpointPatientCount;
+        this.checkpointInterval = builder.checkpointInterval;
+        this.batchPrefetch = builder.batchPrefetch;
+        this.compressOutput = builder.compressOutput;
     }
 
     public int getRetryCount() {
@@ -48,4 +48,116 @@ public class OperationsConfig {
     public int getPollingFrequency() {
         return pollingFrequency;
     }
+
+    public int getPatientConcurrency() {
+        return patientConcurrency;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public boolean isQueueNotifications() {
+        return queueNotifications;
+    }
+
+    public int getFallbackPollingFrequency() {
+        return fallbackPollingFrequency;
+    }
+
+    public int getCheckpointPatientCount() {
+        return checkpointPatientCount;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public int getBatchPrefetch() {
+        return batchPrefetch;
+    }
+
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
+    /**
+     * Builds an {@link OperationsConfig}. Settings which are not given keep their defaults:
+     * 3 retries, a single patient and worker at a time, polling without notifications, a checkpoint after every patient,
+     * a single batch claimed at a time and no compressed output.
+     */
+    public static class Builder {
+
+        private final int resourcesPerFileCount;
+        private final String exportPath;
+        private final int pollingFrequency;
+        private int retryCount = 3;
+        private int patientConcurrency = 1;
+        private int workerCount = 1;
+        private boolean queueNotifications = false;
+        private Integer fallbackPollingFrequency;
+        private int checkpointPatientCount = 1;
+        private int checkpointInterval = 0;
+        private int batchPrefetch = 1;
+        private boolean compressOutput = false;
+
+        public Builder(int resourcesPerFileCount, String exportPath, int pollingFrequency) {
+            this.resourcesPerFileCount = resourcesPerFileCount;
+            this.exportPath = exportPath;
+            this.pollingFrequency = pollingFrequency;
+        }
+
+        public Builder retryCount(int retryCount) {
+            this.retryCount = retryCount;
+            return this;
+        }
+
+        public Builder patientConcurrency(int patientConcurrency) {
+            this.patientConcurrency = patientConcurrency;
+            return this;
+        }
+
+        public Builder workerCount(int workerCount) {
+            this.workerCount = workerCount;
+            return this;
+        }
+
+        public Builder queueNotifications(boolean queueNotifications) {
+            this.queueNotifications = queueNotifications;
+            return this;
+        }
+
+        /**
+         * @param fallbackPollingFrequency - how long to wait for a notification, defaults to the polling frequency
+         * @return - this {@link Builder}
+         */
+        public Builder fallbackPollingFrequency(int fallbackPollingFrequency) {
+            this.fallbackPollingFrequency = fallbackPollingFrequency;
+            return this;
+        }
+
+        public Builder checkpointPatientCount(int checkpointPatientCount) {
+            this.checkpointPatientCount = checkpointPatientCount;
+            return this;
+        }
+
+        public Builder checkpointInterval(int checkpointInterval) {
+            this.checkpointInterval = checkpointInterval;
+            return this;
+        }
+
+        public Builder batchPrefetch(int batchPrefetch) {
+            this.batchPrefetch = batchPrefetch;
+            return this;
+        }
+
+        public Builder compressOutput(boolean compressOutput) {
+            this.compressOutput = compressOutput;
+            return this;
+        }
+
+        public OperationsConfig build() {
+            return new OperationsConfig(this);
+        }
+    }
 }
@@ -0,0 +1,91 @@
+package gov.cms.dpc.aggregation.engine;
+
+import gov.cms.dpc.bluebutton.client.BlueButtonClient;
+import gov.cms.dpc.queue.exceptions.JobQueueFailure;
+import io.github.resilience4j.core.IntervalFunction;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.transformer.RetryTransformer;
+import io.reactivex.Single;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.util.UUID;
+
+/**
+ * Resolves the BlueButton {@link Patient} of a single MBI. The lookup is done (and retried) at most once per patient,
+ * and its result, or its failure, is shared by the {@link ResourceFetcher}s of every resource type of the patient.
+ */
+class PatientResolutionContext {
+    private static final Logger logger = LoggerFactory.getLogger(PatientResolutionContext.class);
+
+    private final BlueButtonClient blueButtonClient;
+    private final UUID jobID;
+    private final UUID batchID;
+    private final String mbi;
+    private final Single<Patient> patient;
+
+    /**
+     * Create a context for resolving a patient
+     * @param blueButtonClient - client to BlueButton to use
+     * @param jobID - the jobID for logging and reporting
+     * @param batchID - the batchID for logging and reporting
+     * @param mbi - the MBI of the patient to resolve
+     * @param config - config to use for retries
+     */
+    PatientResolutionContext(BlueButtonClient blueButtonClient,
+                             UUID jobID,
+                             UUID batchID,
+                             String mbi,
+                             OperationsConfig config) {
+        this.blueButtonClient = blueButtonClient;
+        this.jobID = jobID;
+        this.batchID = batchID;
+        this.mbi = mbi;
+
+        // Back off the same way as the resource requests, so that a struggling BlueButton is not hit with immediate retries
+        final Retry retry = Retry.of("bb-patient-resolver", RetryConfig.custom()
+                .maxAttempts(config.getRetryCount())
+                .intervalFunction(IntervalFunction.ofExponentialRandomBackoff(ResourceFetcher.RETRY_INITIAL_WAIT, ResourceFetcher.RETRY_MULTIPLIER, ResourceFetcher.RETRY_JITTER))
+                .build());
+        // Cache the result, so that subsequent subscribers share the single lookup
+        this.patient = Single.fromCallable(this::fetchPatient)
+                .compose(RetryTransformer.of(retry))
+                .cache();
+    }
+
+    /**
+     * @return the MBI of the patient
+     */
+    String getMBI() {
+        return mbi;
+    }
+
+    /**
+     * The resolved patient. The lookup is made on the first subscription.
+     *
+     * @return a {@link Single} of the {@link Patient} matching the MBI, or the error encountered while resolving it
+     */
+    Single<Patient> getPatient() {
+        return patient;
+    }
+
+    private Patient fetchPatient() {
+        logger.debug("Resolving patient from BlueButton for job {} batch {}", jobID, batchID);
+        Bundle patients = null;
+        try {
+            patients = blueButtonClient.requestPatientFromServerByMbi(mbi);
+        } catch (GeneralSecurityException e) {
+            throw new JobQueueFailure(jobID, batchID, "Failed to retrieve Patient");
+        }
+
+        if (patients.getTotal() == 1) {
+            return (Patient) patients.getEntryFirstRep().getResource();
+        }
+
+        throw new JobQueueFailure(jobID, batchID, String.format("Expected 1 Patient to match MBI but found %d", patients.getTotal()));
+    }
+}
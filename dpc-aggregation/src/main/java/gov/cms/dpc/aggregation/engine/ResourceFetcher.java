@@ -1,35 +1,45 @@
 package gov.cms.dpc.aggregation.engine;
 
 import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import gov.cms.dpc.bluebutton.client.BlueButtonClient;
 import gov.cms.dpc.fhir.DPCIdentifierSystem;
 import gov.cms.dpc.queue.exceptions.JobQueueFailure;
+import io.github.resilience4j.core.IntervalFunction;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
-import io.github.resilience4j.retry.transformer.RetryTransformer;
+import io.reactivex.Emitter;
 import io.reactivex.Flowable;
 import org.hl7.fhir.dstu3.model.*;
 import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.GeneralSecurityException;
+import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A resource fetcher will fetch resources of particular type from passed {@link BlueButtonClient}
  */
 class ResourceFetcher {
     private static final Logger logger = LoggerFactory.getLogger(ResourceFetcher.class);
+    // Retries back off exponentially from the initial wait, with jitter so that workers don't retry in lockstep
+    static final long RETRY_INITIAL_WAIT = 500; // ms
+    static final double RETRY_MULTIPLIER = 2.0;
+    static final double RETRY_JITTER = 0.5;
     private BlueButtonClient blueButtonClient;
     private RetryConfig retryConfig;
     private UUID jobID;
     private UUID batchID;
     private ResourceType resourceType;
+    private DateRangeParam lastUpdated;
 
     /**
      * Create a context for fetching FHIR resources
@@ -37,68 +47,76 @@ class ResourceFetcher {
      * @param jobID - the jobID for logging and reporting
      * @param batchID - the batchID for logging and reporting
      * @param resourceType - the resource type to fetch
+     * @param since - only fetch resources last updated at or after this time, if present
      *
      */
     ResourceFetcher(BlueButtonClient blueButtonClient,
                            UUID jobID,
                            UUID batchID,
                            ResourceType resourceType,
+                    Optional<OffsetDateTime> since,
                     OperationsConfig config) {
         this.blueButtonClient = blueButtonClient;
         this.retryConfig = RetryConfig.custom()
                 .maxAttempts(config.getRetryCount())
+                .intervalFunction(IntervalFunction.ofExponentialRandomBackoff(RETRY_INITIAL_WAIT, RETRY_MULTIPLIER, RETRY_JITTER))
                 .build();
         this.jobID = jobID;
         this.batchID = batchID;
         this.resourceType = resourceType;
+        this.lastUpdated = since.map(time -> new DateRangeParam(Date.from(time.toInstant()), null)).orElse(null);
     }
 
     /**
-     * Fetch all the resources for a specific patient. If errors are encountered from BlueButton,
-     * a OperationalOutcome resource is used.
+     * Fetch all the resources for a specific patient, one BlueButton page at a time. The next page is only requested
+     * once the downstream asks for it, so at most a few pages of resources are held in memory. Each request is retried on its own.
+     * If errors are encountered from BlueButton, a OperationalOutcome resource is used. This includes errors resolving the patient itself.
+     * When a later page fails, the resources of the earlier pages have already been emitted and are followed by the OperationalOutcome.
      *
-     * @param mbi to use
-     * @return a flow with all the resources for specific patient
+     * @param patientContext - the {@link PatientResolutionContext} of the patient to use
+     * @return a flow with a list of resources for each page of the specific patient
      */
-    Flowable<Resource> fetchResources(String mbi) {
+    Flowable<List<Resource>> fetchResources(PatientResolutionContext patientContext) {
         Retry retry = Retry.of("bb-resource-fetcher", this.retryConfig);
-        return Flowable.fromCallable(() -> {
-            String fetchId = UUID.randomUUID().toString();
-            logger.debug("Fetching first {} from BlueButton for {}", resourceType.toString(), fetchId);
-            final Resource firstFetched = fetchFirst(mbi);
-            if (ResourceType.Coverage.equals(resourceType) || ResourceType.ExplanationOfBenefit.equals(resourceType)) {
-                return fetchAllBundles((Bundle)firstFetched, fetchId);
-            } else {
-                logger.debug("Done fetching {} for {}", resourceType.toString(), fetchId);
-                return List.of(firstFetched);
-            }
-        })
-                .compose(RetryTransformer.of(retry))
-                .onErrorResumeNext((Throwable error) -> handleError(mbi, error))
-                .flatMap(Flowable::fromIterable);
+        return patientContext.getPatient()
+                .toFlowable()
+                .concatMap(patient -> fetchPages(patient, retry))
+                .onErrorResumeNext((Throwable error) -> handleError(patientContext.getMBI(), error));
     }
 
     /**
-     * Given a bundle, return a list of resources in the passed in bundle and all
-     * the resources from the next bundles.
+     * Generate the pages of resources of a patient. The first page comes from the resource request and each subsequent page
+     * follows the next link of the previous bundle.
      *
-     * @param firstBundle of resources. Included in the result list
-     * @return a list of all the resources in the first bundle and all next bundles
+     * @param patient - the resolved patient to fetch resources for
+     * @param retry - the {@link Retry} to apply to each request
+     * @return a flow with the list of resources of each page
      */
-    private List<Resource> fetchAllBundles(Bundle firstBundle, String fetchId) {
-        final var resources = new ArrayList<Resource>();
-        addResources(resources, firstBundle);
-
-        // Loop until no more next bundles
-        var bundle = firstBundle;
-        while (bundle.getLink(Bundle.LINK_NEXT) != null) {
-            logger.debug("Fetching next bundle {} from BlueButton for {}", resourceType.toString(), fetchId);
-            bundle = blueButtonClient.requestNextBundleFromServer(bundle);
-            addResources(resources, bundle);
-        }
-
-        logger.debug("Done fetching bundles {} for {}", resourceType.toString(), fetchId);
-        return resources;
+    private Flowable<List<Resource>> fetchPages(Patient patient, Retry retry) {
+        final String fetchId = UUID.randomUUID().toString();
+        return Flowable.generate(AtomicReference<Bundle>::new, (AtomicReference<Bundle> lastBundle, Emitter<List<Resource>> emitter) -> {
+            final Bundle previous = lastBundle.get();
+            if (previous == null) {
+                logger.debug("Fetching first {} from BlueButton for {}", resourceType.toString(), fetchId);
+                final Resource firstFetched = Retry.decorateSupplier(retry, () -> fetchFirst(patient)).get();
+                if (ResourceType.Coverage.equals(resourceType) || ResourceType.ExplanationOfBenefit.equals(resourceType)) {
+                    lastBundle.set((Bundle) firstFetched);
+                    emitter.onNext(extractResources((Bundle) firstFetched));
+                } else {
+                    logger.debug("Done fetching {} for {}", resourceType.toString(), fetchId);
+                    emitter.onNext(List.of(firstFetched));
+                    emitter.onComplete();
+                }
+            } else if (previous.getLink(Bundle.LINK_NEXT) != null) {
+                logger.debug("Fetching next bundle {} from BlueButton for {}", resourceType.toString(), fetchId);
+                final Bundle next = Retry.decorateSupplier(retry, () -> blueButtonClient.requestNextBundleFromServer(previous)).get();
+                lastBundle.set(next);
+                emitter.onNext(extractResources(next));
+            } else {
+                logger.debug("Done fetching bundles {} for {}", resourceType.toString(), fetchId);
+                emitter.onComplete();
+            }
+        });
     }
 
     /**
@@ -121,41 +139,27 @@ class ResourceFetcher {
 
     /**
      * Based on resourceType, fetch a resource or a bundle of resources.
+     * Claims and coverage are restricted to the ones last updated since the time of the job, if it has one.
+     * The patient itself is always returned, since it is needed to look up the rest.
      *
-     * @param mbi of the resource to fetch
+     * @param patient - the resolved patient of the resource to fetch
      * @return either a single resource or the first bundle of resources
      */
-    private Resource fetchFirst(String mbi) {
-        Patient patient = fetchPatient(mbi);
+    private Resource fetchFirst(Patient patient) {
         switch (resourceType) {
             case Patient:
                 return patient;
             case ExplanationOfBenefit:
                 String beneId = getBeneIdFromPatient(patient);
-                return blueButtonClient.requestEOBFromServer(beneId);
+                return lastUpdated == null ? blueButtonClient.requestEOBFromServer(beneId) : blueButtonClient.requestEOBFromServer(beneId, lastUpdated);
             case Coverage:
                 beneId = getBeneIdFromPatient(patient);
-                return blueButtonClient.requestCoverageFromServer(beneId);
+                return lastUpdated == null ? blueButtonClient.requestCoverageFromServer(beneId) : blueButtonClient.requestCoverageFromServer(beneId, lastUpdated);
             default:
                 throw new JobQueueFailure(jobID, batchID, "Unexpected resource type: " + resourceType.toString());
         }
     }
 
-    private Patient fetchPatient(String mbi) {
-        Bundle patients = null;
-        try {
-            patients = blueButtonClient.requestPatientFromServerByMbi(mbi);
-        } catch (GeneralSecurityException e) {
-            throw new JobQueueFailure(jobID, batchID, "Failed to retrieve Patient");
-        }
-
-        if (patients.getTotal() == 1) {
-            return (Patient) patients.getEntryFirstRep().getResource();
-        }
-
-        throw new JobQueueFailure(jobID, batchID, String.format("Expected 1 Patient to match MBI but found %d", patients.getTotal()));
-    }
-
     private String getBeneIdFromPatient(Patient patient) {
         return patient.getIdentifier().stream()
                 .filter(id -> DPCIdentifierSystem.BENE_ID.getSystem().equals(id.getSystem()))
@@ -165,12 +169,13 @@ class ResourceFetcher {
     }
 
     /**
-     * Add resources in a bundle to a list
+     * Extract the resources in a bundle to a list
      *
-     * @param resources - the list to add resources to
      * @param bundle - the bundle to extract resources from
+     * @return the list of resources in the bundle
      */
-    private void addResources(ArrayList<Resource> resources, Bundle bundle) {
+    private List<Resource> extractResources(Bundle bundle) {
+        final var resources = new ArrayList<Resource>(bundle.getEntry().size());
         bundle.getEntry().forEach((entry) -> {
             final var resource = entry.getResource();
             if (resource.getResourceType() != resourceType) {
@@ -178,6 +183,7 @@ class ResourceFetcher {
             }
             resources.add(resource);
         });
+        return resources;
     }
 
     /**
@@ -1,6 +1,5 @@
 package gov.cms.dpc.aggregation.engine;
 
-import ca.uhn.fhir.context.FhirContext;
 import gov.cms.dpc.queue.exceptions.JobQueueFailure;
 import gov.cms.dpc.queue.models.JobQueueBatch;
 import gov.cms.dpc.queue.models.JobQueueBatchFile;
@@ -9,11 +8,7 @@ import org.hl7.fhir.dstu3.model.ResourceType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -23,10 +18,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 class ResourceWriter {
     private static final Logger logger = LoggerFactory.getLogger(ResourceWriter.class);
-    private static final char DELIM = '\n';
 
-    private FhirContext fhirContext;
-    private OperationsConfig config;
+    private ResourceWriterSession session;
     private JobQueueBatch job;
     private ResourceType resourceType;
 
@@ -41,19 +34,27 @@ class ResourceWriter {
         return String.format("%s/%s.ndjson", exportPath, JobQueueBatchFile.formOutputFileName(batchID, resourceType, sequence));
     }
 
+    /**
+     * Form the full file name of the gzip compressed copy of an output file
+     * @param batchID      - {@link UUID} ID of the batch job
+     * @param resourceType - {@link ResourceType} to append to filename
+     * @param sequence     - batch sequence number
+     * @return return the path
+     */
+    static String formCompressedOutputFilePath(String exportPath, UUID batchID, ResourceType resourceType, int sequence) {
+        return formOutputFilePath(exportPath, batchID, resourceType, sequence) + ".gz";
+    }
+
     /**
      * Create a context for fetching FHIR resources
-     * @param fhirContext - the single context for the engine
-     * @param config - config to use for the engine
+     * @param session - the {@link ResourceWriterSession} holding the open files of the batch
      * @param job - the context for logging and reporting
      * @param resourceType - the resource type to fetch
      */
-    ResourceWriter(FhirContext fhirContext,
+    ResourceWriter(ResourceWriterSession session,
                     JobQueueBatch job,
-                    ResourceType resourceType,
-                    OperationsConfig config) {
-        this.fhirContext = fhirContext;
-        this.config = config;
+                    ResourceType resourceType) {
+        this.session = session;
         this.job = job;
         this.resourceType = resourceType;
     }
@@ -74,26 +75,17 @@ class ResourceWriter {
      */
     JobQueueBatchFile writeBatch(AtomicInteger counter, List<Resource> batch) {
         try {
-            final var byteStream = new ByteArrayOutputStream();
             final var sequence = counter.getAndIncrement();
-            final var jsonParser = fhirContext.newJsonParser();
-            OutputStream writer = byteStream;
-            String outputPath = formOutputFilePath(config.getExportPath(), job.getBatchID(), resourceType, sequence);
             JobQueueBatchFile file = job.addJobQueueFile(resourceType, sequence, batch.size());
 
             boolean isStartOfFile = batch.size() == file.getCount();
-            Boolean shouldAppendToFile = !isStartOfFile;
+            boolean shouldAppendToFile = !isStartOfFile;
 
-            logger.debug("Start writing to {}", outputPath);
+            logger.debug("Start writing {} {} resources of batch {}", batch.size(), resourceType, job.getBatchID());
             for (var resource: batch) {
-                final String str = jsonParser.encodeResourceToString(resource);
-                writer.write(str.getBytes(StandardCharsets.UTF_8));
-                writer.write(DELIM);
+                session.write(file, shouldAppendToFile, resource);
             }
-            writer.flush();
-            writer.close();
-            writeToFile(byteStream.toByteArray(), outputPath, shouldAppendToFile);
-            logger.debug("Finished writing to '{}'", outputPath);
+            logger.debug("Finished writing {} resources of batch {}", resourceType, job.getBatchID());
 
             return file;
         } catch(IOException ex) {
@@ -104,22 +96,4 @@ class ResourceWriter {
             throw new JobQueueFailure(job.getJobID(), job.getBatchID(), "General failure consuming a resource", ex);
         }
     }
-
-    /**
-     * Write a array of bytes to a file. Name the file according to the supplied name
-     *
-     * @param bytes - Bytes to write
-     * @param fileName - The fileName to write too
-     * @param append - If the
-     * @throws IOException - If the write fails
-     */
-    private void writeToFile(byte[] bytes, String fileName, Boolean append) throws IOException {
-        if (bytes.length == 0) {
-            return;
-        }
-        try (final var outputFile = new FileOutputStream(fileName, append)) {
-            outputFile.write(bytes);
-            outputFile.flush();
-        }
-    }
 }
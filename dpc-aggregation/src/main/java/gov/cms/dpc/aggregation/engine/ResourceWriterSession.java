@@ -0,0 +1,389 @@
+package gov.cms.dpc.aggregation.engine;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import gov.cms.dpc.queue.models.JobQueueBatchFile;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.hl7.fhir.dstu3.model.Resource;
+import org.hl7.fhir.dstu3.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Holds the output files of a batch open while the batch is being processed.
+ * <p>
+ * Each (resource type, sequence) file of the batch is opened once, on its first write, and stays open until the next sequence
+ * of the resource type is started or the session is closed. Resources are encoded straight into the buffered UTF-8 writer of the file,
+ * so the same buffers are reused for every resource of the batch.
+ * <p>
+ * The SHA-256 digest and the length of each file are tracked as the bytes are written. The state of the digest is stored in the
+ * {@link JobQueueBatchFile} on every flush, so it is checkpointed with the batch and a paused batch can continue the digest where it left off.
+ * <p>
+ * When compression is enabled, a gzip compressed copy of each file is written alongside it, with its own digest and length.
+ * Every flush ends the current gzip member, so the compressed copy is a complete gzip file as of each checkpoint, and a paused batch
+ * continues the copy by appending new members to it (concatenated members decompress to the concatenated content).
+ * <p>
+ * A session is not thread safe, it must only be used by the thread processing the batch.
+ */
+class ResourceWriterSession implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ResourceWriterSession.class);
+    private static final char DELIM = '\n';
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final IParser jsonParser;
+    private final String exportPath;
+    private final UUID batchID;
+    private final boolean compress;
+    private final Map<ResourceType, OpenFile> openFiles = new EnumMap<>(ResourceType.class);
+
+    /**
+     * Create a session for writing the output files of a batch
+     * @param fhirContext - the single context for the engine
+     * @param exportPath - the directory to write the files to
+     * @param batchID - the batch the files belong to
+     * @param compress - write a gzip compressed copy of each file
+     */
+    ResourceWriterSession(FhirContext fhirContext, String exportPath, UUID batchID, boolean compress) {
+        this.jsonParser = fhirContext.newJsonParser();
+        this.exportPath = exportPath;
+        this.batchID = batchID;
+        this.compress = compress;
+    }
+
+    /**
+     * Compute the checksum of an output file from the digest state stored in it.
+     * Files checkpointed without a digest state are read from disk instead, which also sets their length.
+     *
+     * @param exportPath - the directory the files are written to
+     * @param file - the {@link JobQueueBatchFile} to compute the checksum of
+     * @return the SHA-256 checksum of the file
+     * @throws IOException - if a file without a digest state cannot be read
+     */
+    static byte[] formChecksum(String exportPath, JobQueueBatchFile file) throws IOException {
+        if (file.getDigestState() != null) {
+            return formChecksum(file.getDigestState());
+        }
+        final var outputPath = Path.of(ResourceWriter.formOutputFilePath(exportPath, file.getBatchID(), file.getResourceType(), file.getSequence()));
+        final var digest = new SHA256Digest();
+        try (final var channel = FileChannel.open(outputPath, StandardOpenOption.READ)) {
+            file.setFileLength(digestContent(channel, digest));
+        }
+        return formChecksum(digest);
+    }
+
+    /**
+     * Compute the checksum of the compressed copy of an output file from the digest state stored in it
+     *
+     * @param file - the {@link JobQueueBatchFile} to compute the checksum of
+     * @return the SHA-256 checksum of the compressed copy, or null if the file has no compressed copy
+     */
+    static byte[] formCompressedChecksum(JobQueueBatchFile file) {
+        return file.getCompressedDigestState() == null ? null : formChecksum(file.getCompressedDigestState());
+    }
+
+    private static byte[] formChecksum(byte[] digestState) {
+        return formChecksum(new SHA256Digest(digestState));
+    }
+
+    private static byte[] formChecksum(SHA256Digest digest) {
+        final var checksum = new byte[digest.getDigestSize()];
+        digest.doFinal(checksum, 0);
+        return checksum;
+    }
+
+    /**
+     * Write a resource as a line of a output file
+     *
+     * @param file - the {@link JobQueueBatchFile} to write to
+     * @param append - if the file has content from an earlier session that should be kept
+     * @param resource - the resource to write
+     * @throws IOException - if the write fails
+     */
+    void write(JobQueueBatchFile file, boolean append, Resource resource) throws IOException {
+        final Writer writer = writerFor(file, append);
+        jsonParser.encodeResourceToWriter(resource, writer);
+        writer.write(DELIM);
+    }
+
+    /**
+     * Flush everything written so far to the output files and record the digest state and length of each file.
+     * Must be called before the written resources are checkpointed.
+     *
+     * @throws IOException - if the flush fails
+     */
+    void flush() throws IOException {
+        for (final OpenFile file : openFiles.values()) {
+            file.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeFiles(true);
+    }
+
+    /**
+     * Close the output files, dropping everything written since the last {@link #flush()}.
+     * Used once the batch has been reclaimed by another aggregator, which continues the files from the last checkpoint,
+     * so nothing more may be written to them.
+     *
+     * @throws IOException - if a file cannot be closed
+     */
+    void abandon() throws IOException {
+        closeFiles(false);
+    }
+
+    private void closeFiles(boolean flush) throws IOException {
+        IOException failure = null;
+        for (final OpenFile file : openFiles.values()) {
+            try {
+                if (flush) {
+                    file.close();
+                } else {
+                    file.abandon();
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        openFiles.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Writer writerFor(JobQueueBatchFile file, boolean append) throws IOException {
+        final var resourceType = file.getResourceType();
+        final OpenFile current = openFiles.get(resourceType);
+        if (current != null && current.file.getSequence() == file.getSequence()) {
+            return current.writer;
+        }
+        if (current != null) {
+            // Files are filled in sequence order, so the previous file of the resource type is done
+            current.close();
+            openFiles.remove(resourceType);
+        }
+
+        final var outputPath = Path.of(ResourceWriter.formOutputFilePath(exportPath, batchID, resourceType, file.getSequence()));
+        final var output = openOutput(outputPath, append, file.getDigestState(), file.getFileLength());
+        TrackingOutputStream compressedOutput = null;
+        // A file started without a compressed copy stays without one, the copy would be missing the start of the file
+        if (compress && (!append || file.getCompressedDigestState() != null)) {
+            final var compressedPath = Path.of(ResourceWriter.formCompressedOutputFilePath(exportPath, batchID, resourceType, file.getSequence()));
+            try {
+                compressedOutput = openOutput(compressedPath, append, file.getCompressedDigestState(), file.getCompressedFileLength());
+            } catch (IOException e) {
+                output.close();
+                throw e;
+            }
+        }
+        final var openFile = new OpenFile(file, output, compressedOutput);
+        openFiles.put(resourceType, openFile);
+        return openFile.writer;
+    }
+
+    private static TrackingOutputStream openOutput(Path outputPath, boolean append, byte[] digestState, long checkpointLength) throws IOException {
+        logger.debug("Opening {} for writing", outputPath);
+        final var channel = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        final SHA256Digest digest;
+        final long length;
+        try {
+            if (!append) {
+                digest = new SHA256Digest();
+                length = 0;
+            } else if (digestState != null) {
+                // Drop anything written after the last checkpoint, so the file matches its digest
+                digest = new SHA256Digest(digestState);
+                length = checkpointLength;
+            } else {
+                // Files checkpointed without a digest state have to be read once to continue the digest
+                digest = new SHA256Digest();
+                length = digestContent(channel, digest);
+            }
+            channel.truncate(length);
+            channel.position(length);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new TrackingOutputStream(channel, digest, length);
+    }
+
+    private static long digestContent(FileChannel channel, SHA256Digest digest) throws IOException {
+        final var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long length = 0;
+        int read;
+        while ((read = channel.read(buffer, length)) > 0) {
+            digest.update(buffer.array(), 0, read);
+            length += read;
+            buffer.clear();
+        }
+        return length;
+    }
+
+    /**
+     * Stream to an output file, which tracks the digest and length of everything written to the file
+     */
+    private static class TrackingOutputStream extends FilterOutputStream {
+        private final SHA256Digest digest;
+        private long length;
+
+        private TrackingOutputStream(FileChannel channel, SHA256Digest digest, long length) {
+            super(Channels.newOutputStream(channel));
+            this.digest = digest;
+            this.length = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            digest.update((byte) b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            digest.update(b, off, len);
+            length += len;
+        }
+    }
+
+    /**
+     * A single gzip member of a compressed copy
+     */
+    private static class GzipMember extends GZIPOutputStream {
+
+        private GzipMember(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+        }
+
+        /**
+         * Write the trailer of the member and release the deflater, without closing the file the member is written to
+         *
+         * @throws IOException - if the write fails
+         */
+        private void end() throws IOException {
+            finish();
+            def.end();
+        }
+
+        /**
+         * Release the deflater without writing the rest of the member
+         */
+        private void discard() {
+            def.end();
+        }
+    }
+
+    /**
+     * An output file of the session, along with its compressed copy (if any)
+     */
+    private static class OpenFile {
+        private final JobQueueBatchFile file;
+        private final TrackingOutputStream output;
+        private final TrackingOutputStream compressedOutput;
+        private final Writer writer;
+        private GzipMember member;
+
+        private OpenFile(JobQueueBatchFile file, TrackingOutputStream output, TrackingOutputStream compressedOutput) {
+            this.file = file;
+            this.output = output;
+            this.compressedOutput = compressedOutput;
+            final var fanOutStream = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    output.write(b);
+                    if (compressedOutput != null) {
+                        currentMember().write(b);
+                    }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    output.write(b, off, len);
+                    if (compressedOutput != null) {
+                        currentMember().write(b, off, len);
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        output.close();
+                    } finally {
+                        if (compressedOutput != null) {
+                            compressedOutput.close();
+                        }
+                    }
+                }
+            };
+            this.writer = new OutputStreamWriter(new BufferedOutputStream(fanOutStream, BUFFER_SIZE), StandardCharsets.UTF_8);
+        }
+
+        private GzipMember currentMember() throws IOException {
+            if (member == null) {
+                member = new GzipMember(compressedOutput);
+            }
+            return member;
+        }
+
+        private void flush() throws IOException {
+            writer.flush();
+            file.setDigestState(output.digest.getEncodedState());
+            file.setFileLength(output.length);
+            if (compressedOutput == null) {
+                file.setCompressedDigestState(null);
+                file.setCompressedFileLength(0);
+                return;
+            }
+            if (member != null) {
+                member.end();
+                member = null;
+            }
+            file.setCompressedDigestState(compressedOutput.digest.getEncodedState());
+            file.setCompressedFileLength(compressedOutput.length);
+        }
+
+        private void close() throws IOException {
+            flush();
+            writer.close();
+        }
+
+        private void abandon() throws IOException {
+            // Close the files underneath the writer, so the buffered content is never written
+            if (member != null) {
+                member.discard();
+                member = null;
+            }
+            try {
+                output.close();
+            } finally {
+                if (compressedOutput != null) {
+                    compressedOutput.close();
+                }
+            }
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package gov.cms.dpc.aggregation;
 
+import com.codahale.metrics.MetricRegistry;
 import gov.cms.dpc.aggregation.engine.AggregationEngine;
+import gov.cms.dpc.queue.MemoryBatchQueue;
 import gov.cms.dpc.testing.BufferedLoggerHandler;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -14,16 +24,39 @@ import static org.mockito.Mockito.verify;
 class AggregationManagerTest {
 
     private AggregationEngine engine;
+    private AggregationEngine secondEngine;
 
     @BeforeEach
     void setup() {
         engine = mock(AggregationEngine.class);
-        Mockito.reset(engine);
+        secondEngine = mock(AggregationEngine.class);
+        Mockito.reset(engine, secondEngine);
     }
 
     @Test
-    void testShutdown() {
-        new AggregationManager(engine).stop();
+    void testShutdown() throws InterruptedException {
+        new AggregationManager(List.of(engine), new MemoryBatchQueue(), new MetricRegistry()).stop();
         verify(engine).stop();
     }
+
+    @Test
+    void testMultipleEngines() throws InterruptedException {
+        final var manager = new AggregationManager(List.of(engine, secondEngine), new MemoryBatchQueue(), new MetricRegistry());
+        manager.start();
+        verify(engine).run();
+        verify(secondEngine).run();
+
+        manager.stop();
+        verify(engine).stop();
+        verify(secondEngine).stop();
+        verify(engine).awaitTermination(anyLong(), eq(TimeUnit.SECONDS));
+        verify(secondEngine).awaitTermination(anyLong(), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testWorkerIDs() {
+        final var aggregatorID = UUID.randomUUID();
+        assertEquals(AggregationAppModule.formWorkerID(aggregatorID, 0), AggregationAppModule.formWorkerID(aggregatorID, 0), "Worker IDs should be stable");
+        assertNotEquals(AggregationAppModule.formWorkerID(aggregatorID, 0), AggregationAppModule.formWorkerID(aggregatorID, 1), "Worker IDs should be unique");
+    }
 }
@@ -28,6 +28,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -58,7 +59,7 @@ class AggregationEngineTest {
     void setupEach() {
         queue = Mockito.spy(new MemoryBatchQueue(10));
         bbclient = Mockito.spy(new MockBlueButtonClient(fhirContext));
-        var operationalConfig = new OperationsConfig(1000, exportPath, 500);
+        var operationalConfig = new OperationsConfig.Builder(1000, exportPath, 500).build();
         engine = new AggregationEngine(aggregatorID, bbclient, queue, fhirContext, metricRegistry, operationalConfig);
         AggregationEngine.setGlobalErrorHandler();
         subscribe = Mockito.mock(Disposable.class);
@@ -82,11 +83,11 @@ class AggregationEngineTest {
     void claimBatchException() throws InterruptedException {
         // Throw a failure on the first poll, then be successful
         JobQueueFailure ex = new JobQueueFailure("Any failure");
-        when(queue.claimBatch(any(UUID.class)))
+        when(queue.claimBatches(any(UUID.class), anyInt()))
                 .thenThrow(ex)
                 .thenAnswer(invocationOnMock -> {
                     engine.stop();
-                    return Optional.empty();
+                    return List.of();
                 });
 
         engine.pollQueue();
@@ -96,7 +97,74 @@ class AggregationEngineTest {
             Thread.sleep(100);
         }
 
-        verify(queue, Mockito.times(2)).claimBatch(any(UUID.class));
+        verify(queue, Mockito.times(2)).claimBatches(any(UUID.class), anyInt());
+    }
+
+    /**
+     * Verify that an engine waiting on its polling timer shuts down cleanly, and does not poll again
+     */
+    @Test
+    void stopWhilePolling() throws InterruptedException {
+        engine.pollQueue();
+        // Wait for the empty claim, after which the engine waits on its polling timer
+        verify(queue, timeout(5000)).claimBatches(any(UUID.class), anyInt());
+
+        engine.stop();
+        assertTrue(engine.awaitTermination(5, TimeUnit.SECONDS), "Should shut down without waiting for the polling timer");
+
+        // Give the cancelled polling timer the chance to fire
+        Thread.sleep(1000);
+        verify(queue, Mockito.times(1)).claimBatches(any(UUID.class), anyInt());
+        assertFalse(engine.isRunning(), "Should not be running");
+    }
+
+    /**
+     * Verify that an engine waiting on notifications works the batches of a job back-to-back, without waiting for another notification
+     */
+    @Test
+    void notifiedBatchesBackToBack() throws InterruptedException {
+        final var batchQueue = Mockito.spy(new MemoryBatchQueue(1));
+        final var notifiedEngine = new AggregationEngine(aggregatorID, bbclient, batchQueue, fhirContext, metricRegistry, new OperationsConfig.Builder(1000, exportPath, 500).queueNotifications(true).fallbackPollingFrequency(60000).build());
+        notifiedEngine.pollQueue();
+        try {
+            // Wait for the empty claims, after which the engine waits for a notification
+            verify(batchQueue, timeout(5000).atLeast(2)).claimBatches(any(UUID.class), anyInt());
+
+            // A single submission, so a single notification, for two batches
+            final var jobID = batchQueue.createJob(UUID.randomUUID(), TEST_PROVIDER_ID, MockBlueButtonClient.TEST_PATIENT_MBIS, Collections.singletonList(ResourceType.Patient));
+            assertEquals(2, batchQueue.getJobBatches(jobID).size(), "Should have a batch per patient");
+
+            verify(batchQueue, timeout(10000).times(2)).completeBatch(any(JobQueueBatch.class), eq(aggregatorID));
+            batchQueue.getJobBatches(jobID).forEach(batch -> assertEquals(JobStatus.COMPLETED, batch.getStatus(), "Should have completed both batches"));
+        } finally {
+            notifiedEngine.stop();
+            notifiedEngine.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Verify that batches are claimed together, and that the unstarted ones are released when the engine stops
+     */
+    @Test
+    void prefetchBatches() {
+        final var prefetchEngine = new AggregationEngine(aggregatorID, bbclient, queue, fhirContext, metricRegistry, new OperationsConfig.Builder(1000, exportPath, 500).batchPrefetch(3).build());
+        prefetchEngine.setSubscribe(subscribe);
+        for (int i = 0; i < 3; i++) {
+            queue.createJob(UUID.randomUUID(), TEST_PROVIDER_ID, Collections.singletonList(MockBlueButtonClient.TEST_PATIENT_MBIS.get(0)), Collections.singletonList(ResourceType.Patient));
+        }
+
+        final var first = prefetchEngine.nextBatch().orElseThrow();
+        verify(queue).claimBatches(aggregatorID, 3);
+        assertEquals(0, queue.queueSize(), "Should have claimed all the batches at once");
+
+        final var second = prefetchEngine.nextBatch().orElseThrow();
+        assertNotEquals(first.getBatchID(), second.getBatchID(), "Should take the next prefetched batch");
+        verify(queue, Mockito.times(1)).claimBatches(any(UUID.class), anyInt());
+
+        prefetchEngine.stop();
+        assertAll(() -> assertEquals(1, queue.queueSize(), "Should have released the unstarted batch"),
+                () -> assertEquals(JobStatus.RUNNING, first.getStatus(), "Should not release the started batches"),
+                () -> assertEquals(JobStatus.RUNNING, second.getStatus(), "Should not release the started batches"));
     }
 
     /**
@@ -156,6 +224,61 @@ class AggregationEngineTest {
         });
     }
 
+    /**
+     * Test if the engine can fetch multiple patients at the same time and still write all of their resources
+     */
+    @Test
+    void concurrentPatientJobTest() {
+        final var orgID = UUID.randomUUID();
+        final var concurrentEngine = new AggregationEngine(aggregatorID, bbclient, queue, fhirContext, metricRegistry, new OperationsConfig.Builder(1000, exportPath, 500).patientConcurrency(3).build());
+        concurrentEngine.setSubscribe(subscribe);
+
+        // Mix good and bad patients, so that errors and resources are interleaved
+        final var jobID = queue.createJob(
+                orgID,
+                TEST_PROVIDER_ID,
+                MockBlueButtonClient.TEST_PATIENT_WITH_BAD_IDS,
+                Collections.singletonList(ResourceType.Patient)
+        );
+
+        // Work the batch
+        queue.claimBatch(concurrentEngine.getAggregatorID())
+                .ifPresent(concurrentEngine::processJobBatch);
+
+        // Look at the result
+        final var completeJob = queue.getJobBatches(jobID).stream().findFirst().orElseThrow();
+        assertAll(() -> assertEquals(JobStatus.COMPLETED, completeJob.getStatus()),
+                () -> assertEquals(2, completeJob.getJobQueueFile(ResourceType.Patient).orElseThrow().getCount(), "expected both good patients"),
+                () -> assertEquals(3, completeJob.getJobQueueFile(ResourceType.OperationOutcome).orElseThrow().getCount(), "expected an error for each bad patient"));
+    }
+
+    /**
+     * Test if the engine keeps the pages already written when a later page of a patient fails
+     */
+    @Test
+    void failedNextPageJobTest() {
+        final var orgID = UUID.randomUUID();
+        Mockito.doThrow(BaseServerResponseException.newInstance(500, "Sorry, can't do it")).when(bbclient).requestNextBundleFromServer(Mockito.any());
+
+        final var jobID = queue.createJob(
+                orgID,
+                TEST_PROVIDER_ID,
+                Collections.singletonList(MockBlueButtonClient.TEST_PATIENT_MBIS.get(0)),
+                Collections.singletonList(ResourceType.ExplanationOfBenefit)
+        );
+
+        // Work the batch
+        queue.claimBatch(engine.getAggregatorID())
+                .ifPresent(engine::processJobBatch);
+
+        // Look at the result. The first page should be written, followed by an error for the failed page.
+        final var completeJob = queue.getJobBatches(jobID).stream().findFirst().orElseThrow();
+        assertAll(() -> assertEquals(JobStatus.COMPLETED, completeJob.getStatus()),
+                () -> assertTrue(completeJob.getJobQueueFile(ResourceType.ExplanationOfBenefit).orElseThrow().getCount() > 0, "expected the first page of resources"),
+                () -> assertEquals(1, completeJob.getJobQueueFile(ResourceType.OperationOutcome).orElseThrow().getCount(), "expected an error for the failed page"));
+        Mockito.verify(bbclient, times(3)).requestNextBundleFromServer(Mockito.any());
+    }
+
     /**
      * Test if the engine can split a job into multiple batches
      */
@@ -328,14 +451,17 @@ class AggregationEngineTest {
         assertAll(() -> assertTrue(queue.getJobBatches(jobID).stream().findFirst().isPresent()),
                 () -> assertEquals(JobStatus.COMPLETED, queue.getJobBatches(jobID).stream().findFirst().get().getStatus()));
 
-        // Check that the bad ID was called 3 times
+        // Check that the bad ID was only resolved once (with 3 retries), even though there are 2 resource types
         ArgumentCaptor<String> idCaptor = ArgumentCaptor.forClass(String.class);
         Mockito.verify(bbclient, atLeastOnce()).requestPatientFromServerByMbi(idCaptor.capture());
         Mockito.verify(bbclient, atLeastOnce()).requestEOBFromServer(idCaptor.capture());
         var values = idCaptor.getAllValues();
-        assertEquals(6,
+        assertEquals(3,
                 values.stream().filter(value -> value.equals("-1")).count(),
-                "Should be 6 invalid ids, 3 retries per method x 2 method calls x 1 bad-id");
+                "Should be 3 invalid ids, 3 retries x 1 patient resolution x 1 bad-id");
+        assertEquals(1,
+                values.stream().filter(value -> value.equals(MockBlueButtonClient.TEST_PATIENT_MBIS.get(0))).count(),
+                "Should resolve each good patient once, even though there are 2 resource types");
 
         // Look at the result. It should have one error, but be successful otherwise.
         assertTrue(queue.getJobBatches(jobID).stream().findFirst().isPresent());
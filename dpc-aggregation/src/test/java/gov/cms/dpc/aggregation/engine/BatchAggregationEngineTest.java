@@ -21,13 +21,17 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.doReturn;
@@ -50,7 +54,7 @@ class BatchAggregationEngineTest {
         fhirContext.setPerformanceOptions(PerformanceOptionsEnum.DEFERRED_MODEL_SCANNING);
         final var config = ConfigFactory.load("testing.conf").getConfig("dpc.aggregation");
         exportPath = config.getString("exportPath");
-        operationsConfig = new OperationsConfig(10, exportPath, 3);
+        operationsConfig = new OperationsConfig.Builder(10, exportPath, 3).build();
         AggregationEngine.setGlobalErrorHandler();
         ContextUtils.prefetchResourceModels(fhirContext, JobQueueBatch.validResourceTypes);
     }
@@ -126,7 +130,7 @@ class BatchAggregationEngineTest {
                     final var outputFilePath = String.format("%s/%s.ndjson", exportPath, batchFile.getFileName());
                     final File file = new File(Path.of(outputFilePath).toString());
                     assertAll(() -> assertNotNull(file, "Should have input file"),
-                            () -> assertArrayEquals(AggregationEngine.generateChecksum(file), batchFile.getChecksum(), "Should have checksum"),
+                            () -> assertArrayEquals(generateChecksum(file), batchFile.getChecksum(), "Should have checksum"),
                             () -> assertEquals(file.length(), batchFile.getFileLength(), "Should have matching file length"));
                 });
 
@@ -134,6 +138,117 @@ class BatchAggregationEngineTest {
         assertFalse(Files.exists(Path.of(errorFilePath)), "expect no error file");
     }
 
+    /**
+     * Test if the checksum of a file written across a pause matches the file
+     */
+    @Test
+    void pausedJobChecksumTest() {
+        final var orgID = UUID.randomUUID();
+        final var jobID = queue.createJob(
+                orgID,
+                TEST_PROVIDER_ID,
+                MockBlueButtonClient.TEST_PATIENT_MBIS,
+                Collections.singletonList(ResourceType.ExplanationOfBenefit)
+        );
+
+        // Pause after the first patient, then finish the batch
+        doReturn(true).when(subscribe).isDisposed();
+        queue.claimBatch(engine.getAggregatorID())
+                .ifPresent(engine::processJobBatch);
+        assertEquals(JobStatus.QUEUED, queue.getJobBatches(jobID).stream().findFirst().orElseThrow().getStatus());
+        doReturn(false).when(subscribe).isDisposed();
+        queue.claimBatch(engine.getAggregatorID())
+                .ifPresent(engine::processJobBatch);
+
+        // Look at the output files
+        final var completeJob = queue.getJobBatches(jobID).stream().findFirst().orElseThrow();
+        assertEquals(JobStatus.COMPLETED, completeJob.getStatus());
+        completeJob.getJobQueueBatchFiles()
+                .forEach(batchFile -> {
+                    final File file = new File(String.format("%s/%s.ndjson", exportPath, batchFile.getFileName()));
+                    assertAll(() -> assertArrayEquals(generateChecksum(file), batchFile.getChecksum(), "Should have checksum"),
+                            () -> assertEquals(file.length(), batchFile.getFileLength(), "Should have matching file length"));
+                });
+    }
+
+    /**
+     * Test if the compressed copy of a file written across a pause matches the file
+     */
+    @Test
+    void compressedJobTest() throws IOException {
+        final var compressEngine = new AggregationEngine(aggregatorID, new MockBlueButtonClient(fhirContext), queue, fhirContext, metricRegistry,
+                new OperationsConfig.Builder(10, exportPath, 3).compressOutput(true).build());
+        compressEngine.setSubscribe(subscribe);
+        final var orgID = UUID.randomUUID();
+        final var jobID = queue.createJob(
+                orgID,
+                TEST_PROVIDER_ID,
+                MockBlueButtonClient.TEST_PATIENT_MBIS,
+                Collections.singletonList(ResourceType.ExplanationOfBenefit)
+        );
+
+        // Pause after the first patient, then finish the batch
+        doReturn(true).when(subscribe).isDisposed();
+        queue.claimBatch(compressEngine.getAggregatorID())
+                .ifPresent(compressEngine::processJobBatch);
+        doReturn(false).when(subscribe).isDisposed();
+        queue.claimBatch(compressEngine.getAggregatorID())
+                .ifPresent(compressEngine::processJobBatch);
+
+        final var completeJob = queue.getJobBatches(jobID).stream().findFirst().orElseThrow();
+        assertEquals(JobStatus.COMPLETED, completeJob.getStatus());
+        for (final var batchFile : completeJob.getJobQueueBatchFiles()) {
+            final File file = new File(String.format("%s/%s.ndjson", exportPath, batchFile.getFileName()));
+            final File compressedFile = new File(String.format("%s/%s.ndjson.gz", exportPath, batchFile.getFileName()));
+            final byte[] decompressed;
+            try (final var is = new GZIPInputStream(Files.newInputStream(compressedFile.toPath()))) {
+                decompressed = is.readAllBytes();
+            }
+            assertAll(() -> assertArrayEquals(Files.readAllBytes(file.toPath()), decompressed, "Should decompress to the file"),
+                    () -> assertArrayEquals(generateChecksum(compressedFile), batchFile.getCompressedChecksum(), "Should have compressed checksum"),
+                    () -> assertEquals(compressedFile.length(), batchFile.getCompressedFileLength(), "Should have matching compressed length"),
+                    () -> assertTrue(compressedFile.length() < file.length(), "Should be smaller than the file"));
+        }
+    }
+
+    /**
+     * Test if the checksum and length of files checkpointed without a digest state are computed from the files on disk
+     */
+    @Test
+    void legacyCheckpointChecksumTest() {
+        final var orgID = UUID.randomUUID();
+        final var jobID = queue.createJob(
+                orgID,
+                TEST_PROVIDER_ID,
+                MockBlueButtonClient.TEST_PATIENT_MBIS,
+                Collections.singletonList(ResourceType.ExplanationOfBenefit)
+        );
+
+        // Pause after the first patient, then drop the digest state, as if the files were checkpointed before it was tracked
+        doReturn(true).when(subscribe).isDisposed();
+        queue.claimBatch(engine.getAggregatorID())
+                .ifPresent(engine::processJobBatch);
+        final var pausedJob = queue.getJobBatches(jobID).stream().findFirst().orElseThrow();
+        assertTrue(pausedJob.getJobQueueBatchFiles().size() > 1, "Should have files which are not written to again");
+        pausedJob.getJobQueueBatchFiles().forEach(batchFile -> {
+            batchFile.setDigestState(null);
+            batchFile.setFileLength(0);
+        });
+
+        doReturn(false).when(subscribe).isDisposed();
+        queue.claimBatch(engine.getAggregatorID())
+                .ifPresent(engine::processJobBatch);
+
+        final var completeJob = queue.getJobBatches(jobID).stream().findFirst().orElseThrow();
+        assertEquals(JobStatus.COMPLETED, completeJob.getStatus());
+        completeJob.getJobQueueBatchFiles()
+                .forEach(batchFile -> {
+                    final File file = new File(String.format("%s/%s.ndjson", exportPath, batchFile.getFileName()));
+                    assertAll(() -> assertArrayEquals(generateChecksum(file), batchFile.getChecksum(), "Should have checksum"),
+                            () -> assertEquals(file.length(), batchFile.getFileLength(), "Should have matching file length"));
+                });
+    }
+
     /**
      * Test if a engine can handle a simple job with one resource type, one test provider, and one patient.
      */
@@ -166,4 +281,8 @@ class BatchAggregationEngineTest {
         final var errorFilePath = ResourceWriter.formOutputFilePath(exportPath, completeJob.getBatchID(), ResourceType.OperationOutcome, 0);
         assertTrue(Files.exists(Path.of(errorFilePath)), "expect no error file");
     }
+
+    private static byte[] generateChecksum(File file) throws IOException, GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file.toPath()));
+    }
 }
@@ -8,15 +8,17 @@ import gov.cms.dpc.common.hibernate.attribution.IDPCDatabase;
 import gov.cms.dpc.common.hibernate.queue.IDPCQueueDatabase;
 import gov.cms.dpc.fhir.configuration.DPCFHIRConfiguration;
 import gov.cms.dpc.fhir.configuration.IDPCFHIRConfiguration;
+import gov.cms.dpc.queue.DPCQueueConfig;
 import io.dropwizard.client.JerseyClientConfiguration;
 import io.dropwizard.db.DataSourceFactory;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
-public class DPCAPIConfiguration extends TypesafeConfiguration implements IDPCDatabase, IDPCQueueDatabase, IDPCAuthDatabase, IDPCFHIRConfiguration {
+public class DPCAPIConfiguration extends TypesafeConfiguration implements IDPCDatabase, IDPCQueueDatabase, IDPCAuthDatabase, IDPCFHIRConfiguration, DPCQueueConfig {
 
     @NotEmpty
     private String exportPath;
@@ -62,6 +64,10 @@ public class DPCAPIConfiguration extends TypesafeConfiguration implements IDPCDa
     @NotEmpty
     private String keyPairLocation;
 
+    // The number of batches written to the queue in each transaction when submitting a job
+    @Min(1)
+    private int queueSubmitChunkSize = 50;
+
     public TokenPolicy getTokenPolicy() {
         return tokenPolicy;
     }
@@ -151,6 +157,11 @@ public class DPCAPIConfiguration extends TypesafeConfiguration implements IDPCDa
         this.fhirConfig = config;
     }
 
+    @Override
+    public int getQueueSubmitChunkSize() {
+        return queueSubmitChunkSize;
+    }
+
     public SwaggerBundleConfiguration getSwaggerBundleConfiguration() {
         return swaggerBundleConfiguration;
     }
@@ -12,6 +12,7 @@ import gov.cms.dpc.api.auth.jwt.IJTICache;
 import gov.cms.dpc.api.converters.ChecksumConverterProvider;
 import gov.cms.dpc.api.converters.HttpRangeHeaderParamConverterProvider;
 import gov.cms.dpc.api.core.FileManager;
+import gov.cms.dpc.api.core.RosterMBIClient;
 import gov.cms.dpc.api.jdbi.PublicKeyDAO;
 import gov.cms.dpc.api.jdbi.TokenDAO;
 import gov.cms.dpc.api.resources.v1.*;
@@ -32,6 +33,7 @@ import gov.cms.dpc.macaroons.annotations.PublicURL;
 import gov.cms.dpc.macaroons.config.TokenPolicy;
 import gov.cms.dpc.macaroons.thirdparty.IThirdPartyKeyStore;
 import gov.cms.dpc.macaroons.thirdparty.MemoryThirdPartyKeyStore;
+import io.dropwizard.client.JerseyClientBuilder;
 import io.dropwizard.hibernate.UnitOfWorkAwareProxyFactory;
 import io.jsonwebtoken.SigningKeyResolverAdapter;
 import org.hibernate.SessionFactory;
@@ -39,6 +41,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Singleton;
+import javax.ws.rs.client.Client;
 
 public class DPCAPIModule extends DropwizardAwareModule<DPCAPIConfiguration> {
 
@@ -180,4 +183,13 @@ public class DPCAPIModule extends DropwizardAwareModule<DPCAPIConfiguration> {
         ctx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
         return ctx.newRestfulGenericClient(getConfiguration().getAttributionURL());
     }
+
+    @Provides
+    @Singleton
+    public RosterMBIClient provideRosterMBIClient() {
+        final Client client = new JerseyClientBuilder(getEnvironment())
+                .using(getConfiguration().getHttpClient())
+                .build("attribution");
+        return new RosterMBIClient(client.target(getConfiguration().getAttributionURL()));
+    }
 }
@@ -1,7 +1,11 @@
 package gov.cms.dpc.api.core;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
 import gov.cms.dpc.common.annotations.ExportPath;
 import gov.cms.dpc.queue.IJobQueue;
+import gov.cms.dpc.queue.JobStatus;
 import gov.cms.dpc.queue.models.JobQueueBatch;
 import gov.cms.dpc.queue.models.JobQueueBatchFile;
 import org.bouncycastle.util.encoders.Hex;
@@ -9,43 +13,101 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 import java.io.File;
 import java.nio.file.Paths;
 import java.time.OffsetDateTime;
+import java.util.Optional;
 import java.util.UUID;
-
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the export files of an organization to their location on disk.
+ * <p>
+ * The files of a completed job never change, so the resolved {@link FilePointer}s are cached, as are the files that cannot be found.
+ * This way the many HEAD and range requests of a single download don't each go back to the queue.
+ */
+@Singleton
 public class FileManager {
 
     private static final Logger logger = LoggerFactory.getLogger(FileManager.class);
+    // Misses are only cached briefly, in case a job completes in the meantime
+    private static final long MISS_CACHE_SECONDS = 30;
 
     private final String fileLocation;
     private final IJobQueue jobQueue;
+    private final Cache<String, FilePointer> fileCache;
+    private final Cache<String, Boolean> missCache;
 
     @Inject
     FileManager(@ExportPath String fileLocation, IJobQueue jobQueue) {
+        this(fileLocation, jobQueue, Ticker.systemTicker());
+    }
+
+    FileManager(String fileLocation, IJobQueue jobQueue, Ticker ticker) {
         this.fileLocation = fileLocation;
         this.jobQueue = jobQueue;
+        this.fileCache = Caffeine.newBuilder()
+                .ticker(ticker)
+                .maximumSize(10_000)
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build();
+        this.missCache = Caffeine.newBuilder()
+                .ticker(ticker)
+                .maximumSize(10_000)
+                .expireAfterWrite(MISS_CACHE_SECONDS, TimeUnit.SECONDS)
+                .build();
     }
 
     public FilePointer getFile(UUID organizationID, String fileID) {
+        final String cacheKey = String.format("%s/%s", organizationID, fileID);
+        final FilePointer cached = this.fileCache.getIfPresent(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        if (this.missCache.getIfPresent(cacheKey) != null) {
+            throw new WebApplicationException("Cannot find file", Response.Status.NOT_FOUND);
+        }
 
         final JobQueueBatchFile batchFile = this.jobQueue.getJobBatchFile(organizationID, fileID)
-                .orElseThrow(() -> new WebApplicationException("Cannot find file", Response.Status.NOT_FOUND));
+                .orElseThrow(() -> {
+                    this.missCache.put(cacheKey, Boolean.TRUE);
+                    return new WebApplicationException("Cannot find file", Response.Status.NOT_FOUND);
+                });
 
         final JobQueueBatch jobQueueBatch = this.jobQueue.getBatch(batchFile.getBatchID())
                 .orElseThrow(() -> new WebApplicationException("Cannot export job for file", Response.Status.NOT_FOUND));
 
         final java.nio.file.Path path = Paths.get(String.format("%s/%s.ndjson", fileLocation, batchFile.getFileName()));
         logger.debug("Streaming file {}", path.toString());
-        return new FilePointer(Hex.toHexString(batchFile.getChecksum()),
+        final OffsetDateTime creationTime = jobQueueBatch.getStartTime().orElseThrow(() -> new IllegalStateException("Cannot find start time of completed job"));
+        FilePointer compressed = null;
+        if (batchFile.getCompressedChecksum() != null) {
+            compressed = new FilePointer(Hex.toHexString(batchFile.getCompressedChecksum()),
+                    batchFile.getCompressedFileLength(),
+                    batchFile.getJobID(),
+                    creationTime,
+                    new File(path.toString() + ".gz"));
+        }
+        final FilePointer filePointer = new FilePointer(Hex.toHexString(batchFile.getChecksum()),
                 batchFile.getFileLength(),
                 batchFile.getJobID(),
-                jobQueueBatch.getStartTime().orElseThrow(() -> new IllegalStateException("Cannot find start time of completed job")),
-                new File(path.toString()));
+                creationTime,
+                new File(path.toString()),
+                compressed);
+
+        // Only the files of completed batches are final
+        if (jobQueueBatch.getStatus() == JobStatus.COMPLETED) {
+            this.fileCache.put(cacheKey, filePointer);
+        }
+        return filePointer;
     }
 
+    /**
+     * Immutable pointer to an export file on disk, along with the metadata of the file.
+     */
     public static class FilePointer {
 
         private final String checksum;
@@ -53,13 +115,19 @@ public class FileManager {
         private final UUID jobID;
         private final OffsetDateTime creationTime;
         private final File file;
+        private final FilePointer compressed;
 
         public FilePointer(String checksum, long fileSize, UUID jobID, OffsetDateTime creationTime, File file) {
+            this(checksum, fileSize, jobID, creationTime, file, null);
+        }
+
+        public FilePointer(String checksum, long fileSize, UUID jobID, OffsetDateTime creationTime, File file, FilePointer compressed) {
             this.checksum = checksum;
             this.fileSize = fileSize;
             this.jobID = jobID;
             this.creationTime = creationTime;
             this.file = file;
+            this.compressed = compressed;
         }
 
         public String getChecksum() {
@@ -81,5 +149,14 @@ public class FileManager {
         public File getFile() {
             return file;
         }
+
+        /**
+         * The gzip compressed copy of the file, if the aggregation engine wrote one
+         *
+         * @return - {@link Optional} {@link FilePointer} to the compressed copy
+         */
+        public Optional<FilePointer> getCompressed() {
+            return Optional.ofNullable(compressed);
+        }
     }
 }
@@ -0,0 +1,137 @@
+package gov.cms.dpc.api.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Fetches the MBIs of the patients attributed to a roster from the attribution service.
+ * <p>
+ * Rather than going through the FHIR $patients operation, which builds, encodes and parses a Patient resource for every member,
+ * the MBIs are read as plain text, one per line, in pages of {@link RosterMBIClient#PAGE_SIZE}.
+ * Each page picks up after the last MBI of the previous one, so large rosters are never held in a single response.
+ */
+public class RosterMBIClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(RosterMBIClient.class);
+    static final int PAGE_SIZE = 10000;
+
+    private final WebTarget attributionTarget;
+
+    /**
+     * Create a client for the attribution service
+     *
+     * @param attributionTarget - {@link WebTarget} of the versioned attribution service base URL
+     */
+    public RosterMBIClient(WebTarget attributionTarget) {
+        this.attributionTarget = attributionTarget;
+    }
+
+    /**
+     * Iterate over the MBIs of the patients with an active attribution to the roster.
+     * The first page is fetched straight away, each following page is only fetched once the previous one has been read,
+     * so no more than a single page of MBIs is held at a time.
+     *
+     * @param organizationID - {@link UUID} of organization which manages the roster
+     * @param rosterID       - {@link String} ID of the roster
+     * @return - {@link Iterator} of {@link String} patient MBIs, in MBI order
+     * @throws WebApplicationException - if the roster does not exist for the organization, or the MBIs could not be fetched.
+     *                                 Also thrown while iterating, if a later page cannot be fetched.
+     */
+    public Iterator<String> iterateActiveMBIs(UUID organizationID, String rosterID) {
+        return new MBIPageIterator(organizationID, rosterID);
+    }
+
+    private List<String> fetchPage(UUID organizationID, String rosterID, String afterMBI) {
+        WebTarget target = this.attributionTarget
+                .path("Roster")
+                .path(rosterID)
+                .path("mbis")
+                .queryParam("organization", organizationID)
+                .queryParam("active", true)
+                .queryParam("_count", PAGE_SIZE);
+        if (afterMBI != null) {
+            target = target.queryParam("_after", afterMBI);
+        }
+
+        final List<String> page = new ArrayList<>();
+        try (final Response response = target.request(MediaType.TEXT_PLAIN_TYPE).get()) {
+            if (response.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                throw new WebApplicationException("Cannot find attribution roster", Response.Status.NOT_FOUND);
+            }
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                logger.error("Unable to fetch MBIs of roster {}. Attribution service returned {}", rosterID, response.getStatus());
+                throw new WebApplicationException("Unable to fetch attributed patients", Response.Status.INTERNAL_SERVER_ERROR);
+            }
+
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(response.readEntity(InputStream.class), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        page.add(line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Unable to read MBIs of roster {}", rosterID, e);
+            throw new WebApplicationException("Unable to fetch attributed patients", Response.Status.INTERNAL_SERVER_ERROR);
+        }
+        return page;
+    }
+
+    /**
+     * Reads the MBIs of a roster a page at a time, fetching the next page once the current one is used up.
+     */
+    private class MBIPageIterator implements Iterator<String> {
+
+        private final UUID organizationID;
+        private final String rosterID;
+        private Iterator<String> page;
+        private String lastMBI;
+        private boolean finalPage;
+
+        MBIPageIterator(UUID organizationID, String rosterID) {
+            this.organizationID = organizationID;
+            this.rosterID = rosterID;
+            nextPage();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !finalPage) {
+                nextPage();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastMBI = page.next();
+            return lastMBI;
+        }
+
+        private void nextPage() {
+            final List<String> mbis = fetchPage(organizationID, rosterID, lastMBI);
+            // A partial page is the final page
+            finalPage = mbis.size() < PAGE_SIZE;
+            page = mbis.iterator();
+        }
+    }
+}
@@ -8,9 +8,10 @@ import gov.cms.dpc.api.models.RangeHeader;
 import gov.cms.dpc.api.resources.AbstractDataResource;
 import io.dropwizard.auth.Auth;
 import io.swagger.annotations.*;
-import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpHeaders;
 import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.HttpConnection;
+import org.eclipse.jetty.server.HttpOutput;
 import org.hl7.fhir.dstu3.model.OperationOutcome;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,12 +21,22 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
+import java.util.Locale;
 import java.util.Optional;
 
 import static gov.cms.dpc.fhir.dropwizard.filters.StreamingContentSizeFilter.X_CONTENT_LENGTH;
@@ -40,6 +51,7 @@ public class DataResource extends AbstractDataResource {
     private static final Logger logger = LoggerFactory.getLogger(DataResource.class);
     private static final int CHUNK_SIZE = 1024 * 1024; // Return a maximum of 1MB chunks, but we can modify this later if we need to
     private static final String ACCEPTED_RANGE_VALUE = "bytes";
+    private static final String GZIP_ENCODING = "gzip";
 
     private final FileManager manager;
 
@@ -58,7 +70,8 @@ public class DataResource extends AbstractDataResource {
                     @ResponseHeader(name = HttpHeaders.ETAG, description = "SHA256 checksum of file"),
                     @ResponseHeader(name = HttpHeaders.CONTENT_LENGTH, description = "size of file (in bytes)"),
                     @ResponseHeader(name = HttpHeaders.LAST_MODIFIED, description = "creation timestamp of file (in miliseconds since Unix epoch)"),
-                    @ResponseHeader(name = HttpHeaders.ACCEPT_RANGES, description = "Accepted HTTP range request (bytes only)")
+                    @ResponseHeader(name = HttpHeaders.ACCEPT_RANGES, description = "Accepted HTTP range request (bytes only)"),
+                    @ResponseHeader(name = HttpHeaders.CONTENT_ENCODING, description = "`gzip` when the compressed copy of the file is returned")
             }),
             @ApiResponse(code = HttpStatus.NOT_MODIFIED_304, message = "No newer files available"),
             @ApiResponse(code = HttpStatus.UNAUTHORIZED_401, message = "Not authorized to download file"),
@@ -72,19 +85,24 @@ public class DataResource extends AbstractDataResource {
                                    @HeaderParam(HttpHeaders.IF_MODIFIED_SINCE)
                                    @ApiParam(value = "Download file only if provided timestamp (miliseconds since Unix Epoch) is older than file creation timestamp", example = "1575394136")
                                            Optional<String> modifiedHeader,
+                                   @HeaderParam(HttpHeaders.ACCEPT_ENCODING)
+                                   @ApiParam(value = "Return the gzip compressed copy of the file, if the client accepts `gzip`")
+                                           Optional<String> acceptEncoding,
                                    @PathParam("fileID")
                                    @ApiParam(required = true, value = "NDJSON file name", example = "728b270d-d7de-4143-82fe-d3ccd92cebe4-1-coverage.ndjson")
                                            String fileID) {
         final FileManager.FilePointer filePointer = this.manager.getFile(organizationPrincipal.getID(), fileID);
+        final Optional<FileManager.FilePointer> compressed = selectCompressed(filePointer, acceptEncoding);
+        final FileManager.FilePointer selected = compressed.orElse(filePointer);
 
-        if (returnCachedValue(filePointer, fileChecksum, modifiedHeader)) {
-            return Response.status(Response.Status.NOT_MODIFIED).build();
+        if (returnCachedValue(selected, fileChecksum, modifiedHeader)) {
+            return withEncoding(Response.status(Response.Status.NOT_MODIFIED), filePointer, compressed.isPresent()).build();
         }
 
-        return Response.ok()
-                .header(HttpHeaders.ETAG, filePointer.getChecksum())
-                .header(HttpHeaders.CONTENT_LENGTH, filePointer.getFileSize())
-                .header(HttpHeaders.LAST_MODIFIED, filePointer.getCreationTime().toInstant().toEpochMilli())
+        return withEncoding(Response.ok(), filePointer, compressed.isPresent())
+                .header(HttpHeaders.ETAG, selected.getChecksum())
+                .header(HttpHeaders.CONTENT_LENGTH, selected.getFileSize())
+                .header(HttpHeaders.LAST_MODIFIED, selected.getCreationTime().toInstant().toEpochMilli())
                 .header(HttpHeaders.ACCEPT_RANGES, ACCEPTED_RANGE_VALUE)
                 .build();
     }
@@ -102,7 +120,8 @@ public class DataResource extends AbstractDataResource {
             @ApiResponse(code = HttpStatus.OK_200, message = "File of newline-delimited JSON FHIR objects", responseHeaders = {
                     @ResponseHeader(name = HttpHeaders.ETAG, description = "SHA256 checksum of file"),
                     @ResponseHeader(name = HttpHeaders.CONTENT_LENGTH, description = "size of file (in bytes)"),
-                    @ResponseHeader(name = HttpHeaders.LAST_MODIFIED, description = "creation timestamp of file (in miliseconds since Unix epoch)")
+                    @ResponseHeader(name = HttpHeaders.LAST_MODIFIED, description = "creation timestamp of file (in miliseconds since Unix epoch)"),
+                    @ResponseHeader(name = HttpHeaders.CONTENT_ENCODING, description = "`gzip` when the compressed copy of the file is returned")
             }),
             @ApiResponse(code = HttpStatus.PARTIAL_CONTENT_206, message = "Returning a partial byte range of file", responseHeaders = {
                     @ResponseHeader(name = HttpHeaders.ACCEPT_RANGES, description = "Accepted HTTP range request (bytes only)"),
@@ -123,25 +142,31 @@ public class DataResource extends AbstractDataResource {
                                        @HeaderParam(HttpHeaders.IF_MODIFIED_SINCE)
                                        @ApiParam(value = "Download file only if provided timestamp (miliseconds since Unix Epoch) is older than file creation timestamp", example = "1575394136")
                                                Optional<String> modifiedHeader,
+                                       @HeaderParam(HttpHeaders.ACCEPT_ENCODING)
+                                       @ApiParam(value = "Return the gzip compressed copy of the file, if the client accepts `gzip`")
+                                               Optional<String> acceptEncoding,
                                        @PathParam("fileID")
                                        @ApiParam(required = true, value = "NDJSON file name", example = "728b270d-d7de-4143-82fe-d3ccd92cebe4-1-coverage.ndjson")
                                                String fileID) {
 
         final FileManager.FilePointer filePointer = this.manager.getFile(organizationPrincipal.getID(), fileID);
+        // Serve the compressed copy as is, ranges then apply to the compressed bytes
+        final Optional<FileManager.FilePointer> compressed = selectCompressed(filePointer, acceptEncoding);
+        final FileManager.FilePointer selected = compressed.orElse(filePointer);
 
         // If we're provided a file checksum, verify it matches, if so, return a 304
-        if (returnCachedValue(filePointer, fileChecksum, modifiedHeader)) {
-            return Response.status(Response.Status.NOT_MODIFIED).build();
+        if (returnCachedValue(selected, fileChecksum, modifiedHeader)) {
+            return withEncoding(Response.status(Response.Status.NOT_MODIFIED), filePointer, compressed.isPresent()).build();
         }
 
         final Response response;
 
         // Process the range request and return a partial stream, but only if they request bytes, ignore everything else
         if (rangeHeader != null) {
-            response = buildRangedRequest(fileID, filePointer.getFile(), rangeHeader);
+            response = buildRangedRequest(fileID, selected.getFile(), rangeHeader);
         } else {
             // Return a non-ranged streamed response if the requester doesn't actually send the range header, or if we don't understand the range unit
-            response = buildDefaultResponse(fileID, filePointer);
+            response = buildDefaultResponse(fileID, selected);
         }
 
         // Set the cache control headers to make sure the file isn't retained in transit
@@ -149,21 +174,65 @@ public class DataResource extends AbstractDataResource {
         cacheControl.setNoCache(true);
         cacheControl.setNoStore(true);
 
-        return Response.fromResponse(response)
+        return withEncoding(Response.fromResponse(response), filePointer, compressed.isPresent())
                 .cacheControl(cacheControl)
                 .build();
     }
 
-    private Response buildDefaultResponse(String fileID, FileManager.FilePointer filePointer) {
-        final StreamingOutput fileStream = outputStream -> {
-            try (FileInputStream fileInputStream = new FileInputStream(filePointer.getFile())) {
-                // Use the IOUtils copy method, which internally buffers the files
-                IOUtils.copy(fileInputStream, outputStream);
-            } catch (FileNotFoundException e) {
-                throw new WebApplicationException(String.format("Unable to open file `%s`.`.", fileID), e, Response.Status.INTERNAL_SERVER_ERROR);
+    /**
+     * Select the gzip compressed copy of the file, if there is one and the client accepts gzip
+     *
+     * @param filePointer    - the {@link FileManager.FilePointer} to the requested file
+     * @param acceptEncoding - the value of the Accept-Encoding header
+     * @return - {@link Optional} {@link FileManager.FilePointer} to the compressed copy, empty if the file should be returned uncompressed
+     */
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    private static Optional<FileManager.FilePointer> selectCompressed(FileManager.FilePointer filePointer, Optional<String> acceptEncoding) {
+        if (acceptEncoding.isEmpty() || !acceptsGzip(acceptEncoding.get())) {
+            return Optional.empty();
+        }
+        return filePointer.getCompressed();
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parameters = coding.split(";");
+            final String name = parameters[0].trim().toLowerCase(Locale.ENGLISH);
+            if (!name.equals(GZIP_ENCODING) && !name.equals("x-gzip") && !name.equals("*")) {
+                continue;
             }
-            outputStream.flush();
-        };
+            // A coding with a quality of 0 is not acceptable
+            boolean rejected = false;
+            for (int i = 1; i < parameters.length; i++) {
+                final String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        rejected = Double.parseDouble(parameter.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        rejected = true;
+                    }
+                }
+            }
+            if (!rejected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Response.ResponseBuilder withEncoding(Response.ResponseBuilder builder, FileManager.FilePointer filePointer, boolean compressed) {
+        if (filePointer.getCompressed().isPresent()) {
+            // The representation returned depends on the Accept-Encoding header
+            builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (compressed) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+        }
+        return builder;
+    }
+
+    private Response buildDefaultResponse(String fileID, FileManager.FilePointer filePointer) {
+        final FileChannelStreamer fileStream = new FileChannelStreamer(fileID, filePointer.getFile(), 0, filePointer.getFile().length());
 
         return Response
                 .status(Response.Status.OK)
@@ -179,32 +248,33 @@ public class DataResource extends AbstractDataResource {
             throw new WebApplicationException("Only `bytes` are acceptable as ranges", Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE);
         }
         final long rangeStart = range.getStart() < 0 ? 0 : range.getStart();
-        final long rangeEnd = range.getEnd().orElse(rangeStart + CHUNK_SIZE);
-        final long len = rangeEnd - rangeStart;
+        // The last byte position is inclusive, an open ended range returns a single chunk
+        final long requestedEnd = range.getEnd().orElse(rangeStart + CHUNK_SIZE - 1);
 
         // If we have a negative range, throw an exception
-        if (len < 0) {
+        if (requestedEnd < rangeStart) {
             throw new WebApplicationException("Range end cannot be before begin", Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE);
         }
 
-        try {
-            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-            randomAccessFile.seek(rangeStart);
-
-            final PartialFileStreamer fileStreamer = new PartialFileStreamer((int) len, randomAccessFile);
-
-            final String responseRange = String.format("bytes %d-%d/%d", rangeStart, rangeEnd, file.length());
-            return Response
-                    .status(Response.Status.PARTIAL_CONTENT)
-                    .entity(fileStreamer)
-                    .header(HttpHeaders.ACCEPT_RANGES, ACCEPTED_RANGE_VALUE)
-                    .header(HttpHeaders.CONTENT_RANGE, responseRange)
-                    // Set the X-Content-Length header, so we can manually override what Jersey does
-                    .header(X_CONTENT_LENGTH, fileStreamer.getLength())
-                    .build();
-        } catch (IOException e) {
-            throw new WebApplicationException(String.format("Unable to open file `%s`.`.", fileID), e, Response.Status.INTERNAL_SERVER_ERROR);
+        final long fileLength = file.length();
+        if (rangeStart >= fileLength) {
+            throw new WebApplicationException("Range begin cannot be past the end of the file", Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE);
         }
+        // Never go past the end of the file
+        final long rangeEnd = Math.min(requestedEnd, fileLength - 1);
+        final long len = rangeEnd - rangeStart + 1;
+
+        final FileChannelStreamer fileStreamer = new FileChannelStreamer(fileID, file, rangeStart, len);
+
+        final String responseRange = String.format("bytes %d-%d/%d", rangeStart, rangeEnd, fileLength);
+        return Response
+                .status(Response.Status.PARTIAL_CONTENT)
+                .entity(fileStreamer)
+                .header(HttpHeaders.ACCEPT_RANGES, ACCEPTED_RANGE_VALUE)
+                .header(HttpHeaders.CONTENT_RANGE, responseRange)
+                // Set the X-Content-Length header, so we can manually override what Jersey does
+                .header(X_CONTENT_LENGTH, fileStreamer.getLength())
+                .build();
     }
 
     @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
@@ -229,33 +299,101 @@ public class DataResource extends AbstractDataResource {
         return false;
     }
 
-    private static class PartialFileStreamer implements StreamingOutput {
+    /**
+     * Streams a region of a file from its {@link FileChannel}.
+     * When served by Jetty, the region is handed to {@link HttpOutput#sendContent(ReadableByteChannel)}, which reads it into Jetty's pooled buffers and writes them to the socket,
+     * without copying the bytes through a heap array. Otherwise, e.g. in the in-memory test container, the region is transferred into the response stream.
+     */
+    private static class FileChannelStreamer implements StreamingOutput {
 
-        private int length;
-        private RandomAccessFile raf;
-        final byte[] buf = new byte[4096];
+        private final String fileID;
+        private final File file;
+        private final long position;
+        private final long length;
 
-        PartialFileStreamer(int length, RandomAccessFile raf) {
+        FileChannelStreamer(String fileID, File file, long position, long length) {
+            this.fileID = fileID;
+            this.file = file;
+            this.position = position;
             this.length = length;
-            this.raf = raf;
         }
 
         @Override
         public void write(OutputStream outputStream) throws IOException, WebApplicationException {
-            try {
-                while (length != 0) {
-                    int read = raf.read(buf, 0, Math.min(buf.length, length));
-                    outputStream.write(buf, 0, read);
-                    length -= read;
+            final HttpConnection connection = HttpConnection.getCurrentConnection();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (connection != null) {
+                    // Commit the status and headers set by Jersey, before writing the body to Jetty directly
+                    outputStream.flush();
+                    connection.getHttpChannel().getResponse().getHttpOutput().sendContent(new FileRegionChannel(channel, position, length));
+                    return;
                 }
-                outputStream.flush();
-            } finally {
-                raf.close();
+                transferRegion(channel, Channels.newChannel(outputStream));
+            } catch (NoSuchFileException e) {
+                throw new WebApplicationException(String.format("Unable to open file `%s`.`.", fileID), e, Response.Status.INTERNAL_SERVER_ERROR);
             }
+            outputStream.flush();
         }
 
-        int getLength() {
+        private void transferRegion(FileChannel channel, WritableByteChannel target) throws IOException {
+            long transferred = 0;
+            while (transferred < length) {
+                final long count = channel.transferTo(position + transferred, length - transferred, target);
+                if (count <= 0) {
+                    // The file is shorter than expected, nothing more to send
+                    break;
+                }
+                transferred += count;
+            }
+        }
+
+        long getLength() {
             return length;
         }
     }
+
+    /**
+     * Reads a region of a {@link FileChannel}, ending at the end of the region rather than the end of the file.
+     * The underlying channel is left open, it is closed by the {@link FileChannelStreamer}.
+     */
+    private static class FileRegionChannel implements ReadableByteChannel {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        FileRegionChannel(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            final long remaining = end - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            final ByteBuffer region = dst.remaining() > remaining ? dst.slice().limit((int) remaining) : dst;
+            final int read = channel.read(region, position);
+            if (read <= 0) {
+                return read;
+            }
+            if (region != dst) {
+                dst.position(dst.position() + read);
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // Closed with the underlying channel
+        }
+    }
 }
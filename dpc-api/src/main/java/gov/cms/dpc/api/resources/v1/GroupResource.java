@@ -1,11 +1,13 @@
 package gov.cms.dpc.api.resources.v1;
 
+import ca.uhn.fhir.parser.DataFormatException;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import com.codahale.metrics.annotation.ExceptionMetered;
 import com.codahale.metrics.annotation.Timed;
 import gov.cms.dpc.api.auth.OrganizationPrincipal;
 import gov.cms.dpc.api.auth.annotations.PathAuthorizer;
+import gov.cms.dpc.api.core.RosterMBIClient;
 import gov.cms.dpc.api.resources.AbstractGroupResource;
 import gov.cms.dpc.common.annotations.APIV1;
 import gov.cms.dpc.fhir.DPCIdentifierSystem;
@@ -29,6 +31,8 @@ import javax.validation.Valid;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
 import java.net.URI;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -48,12 +52,14 @@ public class GroupResource extends AbstractGroupResource {
 
     private final IJobQueue queue;
     private final IGenericClient client;
+    private final RosterMBIClient rosterClient;
     private final String baseURL;
 
     @Inject
-    public GroupResource(IJobQueue queue, IGenericClient client, @APIV1 String baseURL) {
+    public GroupResource(IJobQueue queue, IGenericClient client, RosterMBIClient rosterClient, @APIV1 String baseURL) {
         this.queue = queue;
         this.client = client;
+        this.rosterClient = rosterClient;
         this.baseURL = baseURL;
     }
 
@@ -250,22 +256,23 @@ public class GroupResource extends AbstractGroupResource {
                            @QueryParam("_type") String resourceTypes,
                            @ApiParam(value = "Output format of requested data", allowableValues = FHIR_NDJSON, defaultValue = FHIR_NDJSON)
                            @QueryParam("_outputFormat") String outputFormat,
-                           @ApiParam(value = "Request data that has been updated after the given point. (Not implemented yet)", hidden = true)
+                           @ApiParam(value = "Only export data that has been updated at or after the given FHIR instant")
                            @QueryParam("_since") String since) {
         logger.debug("Exporting data for provider: {}", rosterID);
 
         // Check the parameters
-        checkExportRequest(outputFormat, since);
+        checkExportRequest(outputFormat);
+        final OffsetDateTime sinceTime = handleSinceQueryParam(since);
 
         // Get the attributed patients
-        final List<String> attributedPatients = fetchPatientMBIs(rosterID);
+        final UUID orgID = FHIRExtractors.getEntityUUID(organizationPrincipal.getOrganization().getId());
+        final Iterator<String> attributedPatients = fetchPatientMBIs(orgID, rosterID);
 
         // Generate a job ID and submit it to the queue
-        final UUID orgID = FHIRExtractors.getEntityUUID(organizationPrincipal.getOrganization().getId());
 
         // Handle the _type query parameter
         final var resources = handleTypeQueryParam(resourceTypes);
-        final UUID jobID = this.queue.createJob(orgID, rosterID, attributedPatients, resources);
+        final UUID jobID = this.queue.createJob(orgID, rosterID, attributedPatients, resources, sinceTime);
 
         return Response.status(Response.Status.ACCEPTED)
                 .contentLocation(URI.create(this.baseURL + "/Jobs/" + jobID)).build();
@@ -308,39 +315,15 @@ public class GroupResource extends AbstractGroupResource {
         return resources;
     }
 
-    private List<String> fetchPatientMBIs(String groupID) {
-
-        final Group attributionRoster = this.client
-                .read()
-                .resource(Group.class)
-                .withId(new IdType("Group", groupID))
-                .encodedJson()
-                .execute();
+    private Iterator<String> fetchPatientMBIs(UUID orgID, String rosterID) {
+        // The MBIs are fetched a page at a time, as the queue builds the batches of the job
+        final Iterator<String> patientMBIs = this.rosterClient.iterateActiveMBIs(orgID, rosterID);
 
-        if (attributionRoster.getMember().isEmpty()) {
+        if (!patientMBIs.hasNext()) {
             throw new WebApplicationException("Cannot perform export with no beneficiaries", Response.Status.NOT_ACCEPTABLE);
         }
 
-        final Parameters parameters = new Parameters();
-        parameters.addParameter().setValue(new BooleanType(true)).setName("active");
-
-        // Get the patients, along with their MBIs
-        final Bundle patients = this.client
-                .operation()
-                .onInstance(new IdType(attributionRoster.getId()))
-                .named("patients")
-                .withParameters(parameters)
-                .returnResourceType(Bundle.class)
-                .useHttpGet()
-                .encodedJson()
-                .execute();
-
-        return patients
-                .getEntry()
-                .stream()
-                .map(entry -> (Patient) entry.getResource())
-                .map(FHIRExtractors::getPatientMBI)
-                .collect(Collectors.toList());
+        return patientMBIs;
     }
 
     /**
@@ -382,20 +365,39 @@ public class GroupResource extends AbstractGroupResource {
      * return an error response with an {@link OperationOutcome} in the body.
      *
      * @param outputFormat param to check
-     * @param since        param to check
      */
-    private static void checkExportRequest(String outputFormat, String since) {
-        // _since is unsupported
-        if (StringUtils.isNotEmpty(since)) {
-            throw new BadRequestException("'_since' is not supported");
-        }
-
+    private static void checkExportRequest(String outputFormat) {
         // _outputFormat only supports FHIR_NDJSON
         if (StringUtils.isNotEmpty(outputFormat) && !FHIR_NDJSON.equals(outputFormat)) {
             throw new BadRequestException("'_outputFormat' query parameter must be 'application/fhir+ndjson'");
         }
     }
 
+    /**
+     * Convert the '_since' {@link QueryParam} into the time to export updates from. Handle the empty case,
+     * by returning null, which exports the full history.
+     *
+     * @param since - {@link String} FHIR instant, with a time zone
+     * @return - the {@link OffsetDateTime} to export updates from, or null for all.
+     */
+    private static OffsetDateTime handleSinceQueryParam(String since) {
+        if (StringUtils.isEmpty(since)) {
+            return null;
+        }
+
+        final InstantType instant;
+        try {
+            instant = new InstantType(since);
+        } catch (DataFormatException e) {
+            throw new BadRequestException("'_since' query parameter must be a valid FHIR instant");
+        }
+        final OffsetDateTime sinceTime = instant.getValue().toInstant().atOffset(ZoneOffset.UTC);
+        if (sinceTime.isAfter(OffsetDateTime.now(ZoneOffset.UTC))) {
+            throw new BadRequestException("'_since' query parameter cannot be in the future");
+        }
+        return sinceTime;
+    }
+
     /**
      * Convert a single resource type in a query param into a {@link ResourceType}.
      *
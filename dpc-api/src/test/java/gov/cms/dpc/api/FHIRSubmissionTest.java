@@ -1,14 +1,13 @@
 package gov.cms.dpc.api;
 
 import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.gclient.*;
 import gov.cms.dpc.api.auth.DPCAuthCredentials;
 import gov.cms.dpc.api.auth.OrganizationPrincipal;
 import gov.cms.dpc.api.auth.staticauth.StaticAuthFilter;
 import gov.cms.dpc.api.auth.staticauth.StaticAuthenticator;
+import gov.cms.dpc.api.core.RosterMBIClient;
 import gov.cms.dpc.api.resources.v1.GroupResource;
 import gov.cms.dpc.api.resources.v1.JobResource;
-import gov.cms.dpc.fhir.DPCIdentifierSystem;
 import gov.cms.dpc.fhir.parameters.ProvenanceResourceFactoryProvider;
 import gov.cms.dpc.queue.IJobQueue;
 import gov.cms.dpc.queue.MemoryBatchQueue;
@@ -22,7 +21,6 @@ import org.eclipse.jetty.http.HttpStatus;
 import org.glassfish.jersey.server.spi.internal.ValueFactoryProvider;
 import org.glassfish.jersey.test.grizzly.GrizzlyWebTestContainerFactory;
 import org.hl7.fhir.dstu3.model.*;
-import org.hl7.fhir.instance.model.api.IBaseParameters;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -31,6 +29,8 @@ import org.mockito.Mockito;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.UUID;
 
@@ -51,9 +51,7 @@ class FHIRSubmissionTest {
     private static final UUID AGGREGATOR_ID = UUID.randomUUID();
     private static final IJobQueue queue = spy(MemoryBatchQueue.class);
     private static IGenericClient client = mock(IGenericClient.class);
-    private static IRead mockRead = mock(IRead.class);
-    private static IReadTyped mockTypedRead = mock(IReadTyped.class);
-    private static IReadExecutable mockExecutable = mock(IReadExecutable.class);
+    private static RosterMBIClient rosterClient = mock(RosterMBIClient.class);
     private static ProvenanceResourceFactoryProvider factory = mock(ProvenanceResourceFactoryProvider.class);
 
     private static final AuthFilter<DPCAuthCredentials, OrganizationPrincipal> staticFilter = new StaticAuthFilter(new StaticAuthenticator());
@@ -63,7 +61,7 @@ class FHIRSubmissionTest {
     private static List<String> testBeneficiaries = List.of("1", "2", "3", "4");
 
     private ResourceExtension groupResource = ResourceExtension.builder()
-            .addResource(new GroupResource(queue, client, TEST_BASE_URL))
+            .addResource(new GroupResource(queue, client, rosterClient, TEST_BASE_URL))
             .addResource(new JobResource(queue, TEST_BASE_URL))
             .setTestContainerFactory(testContainer)
             .addProvider(staticFilter)
@@ -73,7 +71,7 @@ class FHIRSubmissionTest {
 
     @BeforeAll
     static void setup() {
-        mockClient();
+        mockRosterClient();
         mockFactory();
         doCallRealMethod().when(queue).createJob(Mockito.any(UUID.class), Mockito.anyString(), Mockito.anyList(), Mockito.anyList());
 
@@ -213,49 +211,49 @@ class FHIRSubmissionTest {
     }
 
 
-    @SuppressWarnings("unchecked")
-    private static void mockClient() {
-
-        final IOperation mockOperation = mock(IOperation.class);
-        final IOperationUnnamed unnamed = mock(IOperationUnnamed.class);
-        final IOperationUntyped untypedOperation = mock(IOperationUntyped.class);
-        final IOperationUntypedWithInput inputOp = mock(IOperationUntypedWithInput.class);
-        final IOperationUntypedWithInputAndPartialOutput<IBaseParameters> paramOp = mock(IOperationUntypedWithInputAndPartialOutput.class);
-
-        Mockito.when(client.read()).thenReturn(mockRead);
-        Mockito.when(mockRead.resource(Group.class)).thenReturn(mockTypedRead);
-        Mockito.when(mockTypedRead.withId(Mockito.any(IdType.class))).thenReturn(mockExecutable);
-        Mockito.when(mockExecutable.encodedJson()).thenReturn(mockExecutable);
-        Mockito.when(mockExecutable.execute()).thenAnswer(answer -> {
-//            if (resourceCapture.getValue().equals(Bundle.class)) {
-//        } else{
-            final Group group = new Group();
-            group.setId("test-group-id");
-            group.addMember().setEntity(new Reference("Patient/test"));
+    /**
+     * Test with a '_since' query parameter
+     */
+    @Test
+    void testSinceSubmission() {
+        final WebTarget target = groupResource
+                .target("/v1/Group/1/$export")
+                .queryParam("_since", "2020-01-01T00:00:00.000-05:00");
+        final Response response = target.request()
+                .accept(FHIR_JSON).header(PREFER_HEADER, PREFER_RESPOND_ASYNC)
+                .get();
+        assertEquals(HttpStatus.ACCEPTED_202, response.getStatus(), "Should have 202 status");
 
-            return group;
-//            }
-        });
+        // Should yield a job that only exports updates since the given time
+        var job = queue.claimBatch(AGGREGATOR_ID);
+        assertTrue(job.isPresent());
+        assertEquals(OffsetDateTime.parse("2020-01-01T05:00:00Z").toInstant(), job.get().getSince().orElseThrow().toInstant());
+    }
 
-        // Patient Operation
-        Mockito.when(client.operation()).thenReturn(mockOperation);
-        Mockito.when(mockOperation.onInstance(Mockito.any())).thenReturn(unnamed);
-        Mockito.when(unnamed.named("patients")).thenReturn(untypedOperation);
-        Mockito.when(untypedOperation.withParameters(Mockito.any())).thenReturn(paramOp);
-        Mockito.when(paramOp.returnResourceType(Bundle.class)).thenReturn(inputOp);
-        Mockito.when(inputOp.useHttpGet()).thenReturn(inputOp);
-        Mockito.when(inputOp.encodedJson()).thenReturn(inputOp);
-        Mockito.when(inputOp.execute()).thenAnswer(answer -> {
-            final Bundle bundle = new Bundle();
+    /**
+     * Negative test with bad '_since' query parameters
+     */
+    @Test
+    void testBadSinceSubmission() {
+        final Response malformed = groupResource
+                .target("/v1/Group/1/$export")
+                .queryParam("_since", "yesterday")
+                .request().accept(FHIR_JSON).header(PREFER_HEADER, PREFER_RESPOND_ASYNC)
+                .get();
+        final Response future = groupResource
+                .target("/v1/Group/1/$export")
+                .queryParam("_since", OffsetDateTime.now(ZoneOffset.UTC).plusDays(1).toString())
+                .request().accept(FHIR_JSON).header(PREFER_HEADER, PREFER_RESPOND_ASYNC)
+                .get();
+        assertAll(() -> assertEquals(HttpStatus.BAD_REQUEST_400, malformed.getStatus(), "Should reject a malformed time"),
+                () -> assertEquals(HttpStatus.BAD_REQUEST_400, future.getStatus(), "Should reject a time in the future"));
 
-            testBeneficiaries.forEach(id -> {
-                final Patient p = new Patient();
-                p.addIdentifier().setSystem(DPCIdentifierSystem.MBI.getSystem()).setValue(id);
-                bundle.addEntry().setResource(p);
-            });
+        // Should yield a queue should have no entries
+        assertEquals(0, queue.queueSize());
+    }
 
-            return bundle;
-        });
+    private static void mockRosterClient() {
+        Mockito.when(rosterClient.iterateActiveMBIs(Mockito.any(UUID.class), Mockito.anyString())).thenAnswer(answer -> testBeneficiaries.iterator());
     }
 
     @SuppressWarnings("unchecked")
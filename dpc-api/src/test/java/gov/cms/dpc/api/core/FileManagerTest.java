@@ -0,0 +1,99 @@
+package gov.cms.dpc.api.core;
+
+import gov.cms.dpc.queue.IJobQueue;
+import gov.cms.dpc.queue.JobStatus;
+import gov.cms.dpc.queue.models.JobQueueBatch;
+import gov.cms.dpc.queue.models.JobQueueBatchFile;
+import gov.cms.dpc.testing.BufferedLoggerHandler;
+import org.hl7.fhir.dstu3.model.ResourceType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(BufferedLoggerHandler.class)
+class FileManagerTest {
+
+    private static final UUID ORGANIZATION_ID = UUID.randomUUID();
+
+    private final AtomicLong ticker = new AtomicLong();
+    private IJobQueue queue;
+    private JobQueueBatch batch;
+    private JobQueueBatchFile batchFile;
+    private FileManager manager;
+
+    @BeforeEach
+    void setupManager() {
+        batchFile = new JobQueueBatchFile(UUID.randomUUID(), UUID.randomUUID(), ResourceType.Patient, 0, 1);
+        batchFile.setChecksum(new byte[]{1, 2, 3});
+        batch = Mockito.mock(JobQueueBatch.class);
+        Mockito.when(batch.getStartTime()).thenReturn(Optional.of(OffsetDateTime.now(ZoneOffset.UTC)));
+        Mockito.when(batch.getStatus()).thenReturn(JobStatus.COMPLETED);
+
+        queue = Mockito.mock(IJobQueue.class);
+        Mockito.when(queue.getJobBatchFile(Mockito.any(), Mockito.anyString())).thenReturn(Optional.empty());
+        Mockito.when(queue.getJobBatchFile(ORGANIZATION_ID, batchFile.getFileName())).thenReturn(Optional.of(batchFile));
+        Mockito.when(queue.getBatch(batchFile.getBatchID())).thenReturn(Optional.of(batch));
+
+        manager = new FileManager("/tmp", queue, ticker::get);
+    }
+
+    @Test
+    void testCompletedFileIsCached() {
+        final FileManager.FilePointer first = manager.getFile(ORGANIZATION_ID, batchFile.getFileName());
+        final FileManager.FilePointer second = manager.getFile(ORGANIZATION_ID, batchFile.getFileName());
+
+        assertSame(first, second, "Should serve the cached file");
+        Mockito.verify(queue, Mockito.times(1)).getJobBatchFile(ORGANIZATION_ID, batchFile.getFileName());
+        Mockito.verify(queue, Mockito.times(1)).getBatch(batchFile.getBatchID());
+    }
+
+    @Test
+    void testRunningFileIsNotCached() {
+        Mockito.when(batch.getStatus()).thenReturn(JobStatus.RUNNING);
+
+        manager.getFile(ORGANIZATION_ID, batchFile.getFileName());
+        manager.getFile(ORGANIZATION_ID, batchFile.getFileName());
+
+        Mockito.verify(queue, Mockito.times(2)).getJobBatchFile(ORGANIZATION_ID, batchFile.getFileName());
+    }
+
+    @Test
+    void testMissIsCachedUntilExpired() {
+        final String missingID = "missing";
+
+        assertNotFound(() -> manager.getFile(ORGANIZATION_ID, missingID));
+        assertNotFound(() -> manager.getFile(ORGANIZATION_ID, missingID));
+        Mockito.verify(queue, Mockito.times(1)).getJobBatchFile(ORGANIZATION_ID, missingID);
+
+        // The file may have been written since
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertNotFound(() -> manager.getFile(ORGANIZATION_ID, missingID));
+        Mockito.verify(queue, Mockito.times(2)).getJobBatchFile(ORGANIZATION_ID, missingID);
+    }
+
+    @Test
+    void testOtherOrganizationIsNotServedFromCache() {
+        final UUID otherOrganization = UUID.randomUUID();
+        manager.getFile(ORGANIZATION_ID, batchFile.getFileName());
+
+        assertNotFound(() -> manager.getFile(otherOrganization, batchFile.getFileName()));
+        Mockito.verify(queue, Mockito.times(1)).getJobBatchFile(otherOrganization, batchFile.getFileName());
+    }
+
+    private static void assertNotFound(Runnable request) {
+        final WebApplicationException exception = assertThrows(WebApplicationException.class, request::run);
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), exception.getResponse().getStatus(), "Should not find the file");
+    }
+}
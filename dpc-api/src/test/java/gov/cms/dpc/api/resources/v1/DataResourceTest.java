@@ -41,6 +41,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -96,7 +98,7 @@ class DataResourceTest {
         // Try to request one byte
         Response response = RESOURCE.target("/v1/Data/test.ndjson")
                 .request()
-                .header(org.apache.http.HttpHeaders.RANGE, "bytes=0-1")
+                .header(org.apache.http.HttpHeaders.RANGE, "bytes=0-0")
                 .get();
 
         InputStream is = response.readEntity(InputStream.class);
@@ -112,7 +114,7 @@ class DataResourceTest {
 
         // Request 500 kb, with an offset
         int start = 30;
-        int end = 500 * 1024 + start;
+        int end = 500 * 1024 + start - 1;
         response = RESOURCE.target("/v1/Data/test.ndjson")
                 .request()
                 .header(org.apache.http.HttpHeaders.RANGE, String.format("bytes=%d-%s", start, end))
@@ -126,13 +128,13 @@ class DataResourceTest {
         final String ws2 = stringWriter.toString();
         assertAll(() -> assertNotNull(ch1, "Should have header"),
                 () -> assertEquals(500 * 1024, Integer.parseInt(ch2), "Should have 500 kb"),
-                () -> assertEquals(randomString.substring(start, end), ws2, "Strings should match"));
+                () -> assertEquals(randomString.substring(start, end + 1), ws2, "Strings should match"));
         stringWriter.getBuffer().setLength(0);
 
         // Request the entire file
         response = RESOURCE.target("/v1/Data/test.ndjson")
                 .request()
-                .header(org.apache.http.HttpHeaders.RANGE, String.format("bytes=0-%s", length))
+                .header(org.apache.http.HttpHeaders.RANGE, String.format("bytes=0-%s", length - 1))
                 .get();
 
         is = response.readEntity(InputStream.class);
@@ -172,6 +174,63 @@ class DataResourceTest {
         assertEquals("{\"code\":416,\"message\":\"Range end cannot be before begin\"}", response.readEntity(String.class), "Should have correct status code");
     }
 
+    @Test
+    void testRangeEndIsInclusive() throws IOException {
+        final File tempPath = FileUtils.getTempDirectory();
+        final File file = File.createTempFile("test", ".ndjson", tempPath);
+        FileUtils.write(file, "This is a test", StandardCharsets.UTF_8);
+
+        Mockito.when(manager.getFile(Mockito.any(), Mockito.anyString())).thenReturn(new FileManager.FilePointer("", file.length(), UUID.randomUUID(), OffsetDateTime.now(ZoneOffset.UTC), file));
+
+        final Response response = RESOURCE.target("/v1/Data/test.ndjson")
+                .request()
+                .header(org.apache.http.HttpHeaders.RANGE, "bytes=0-9")
+                .get();
+
+        final String contentLength = response.getHeaderString(org.apache.http.HttpHeaders.CONTENT_LENGTH);
+        assertAll(() -> assertEquals(Response.Status.PARTIAL_CONTENT.getStatusCode(), response.getStatus(), "Should have partial content"),
+                () -> assertEquals(10, Integer.parseInt(contentLength), "Should include the last byte of the range"),
+                () -> assertEquals("bytes 0-9/14", response.getHeaderString(org.apache.http.HttpHeaders.CONTENT_RANGE), "Should have the requested range"),
+                () -> assertEquals("This is a ", response.readEntity(String.class), "Should have the first 10 bytes of the file"));
+    }
+
+    @Test
+    void testRangePastEndOfFile() throws IOException {
+        final File tempPath = FileUtils.getTempDirectory();
+        final File file = File.createTempFile("test", ".ndjson", tempPath);
+        FileUtils.write(file, "This is a test", StandardCharsets.UTF_8);
+
+        Mockito.when(manager.getFile(Mockito.any(), Mockito.anyString())).thenReturn(new FileManager.FilePointer("", file.length(), UUID.randomUUID(), OffsetDateTime.now(ZoneOffset.UTC), file));
+
+        final Response response = RESOURCE.target("/v1/Data/test.ndjson")
+                .request()
+                .header(org.apache.http.HttpHeaders.RANGE, "bytes=5-")
+                .get();
+
+        final String contentLength = response.getHeaderString(org.apache.http.HttpHeaders.CONTENT_LENGTH);
+        assertAll(() -> assertEquals(Response.Status.PARTIAL_CONTENT.getStatusCode(), response.getStatus(), "Should have partial content"),
+                () -> assertEquals(9, Integer.parseInt(contentLength), "Should stop at the end of the file"),
+                () -> assertEquals("bytes 5-13/14", response.getHeaderString(org.apache.http.HttpHeaders.CONTENT_RANGE), "Should have the clamped range"),
+                () -> assertEquals("is a test", response.readEntity(String.class), "Should have the rest of the file"));
+    }
+
+    @Test
+    void testRangeStartPastEndOfFile() throws IOException {
+        final File tempPath = FileUtils.getTempDirectory();
+        final File file = File.createTempFile("test", ".ndjson", tempPath);
+        FileUtils.write(file, "This is a test", StandardCharsets.UTF_8);
+
+        Mockito.when(manager.getFile(Mockito.any(), Mockito.anyString())).thenReturn(new FileManager.FilePointer("", file.length(), UUID.randomUUID(), OffsetDateTime.now(ZoneOffset.UTC), file));
+
+        final Response response = RESOURCE.target("/v1/Data/test.ndjson")
+                .request()
+                .header(org.apache.http.HttpHeaders.RANGE, "bytes=14-20")
+                .get();
+
+        assertAll(() -> assertEquals(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode(), response.getStatus(), "Should not be satisfiable"),
+                () -> assertEquals("{\"code\":416,\"message\":\"Range begin cannot be past the end of the file\"}", response.readEntity(String.class), "Should have correct error message"));
+    }
+
     @Test
     void testNonByteRange() {
         Mockito.when(manager.getFile(Mockito.any(), Mockito.anyString())).thenAnswer(answer -> {
@@ -190,6 +249,42 @@ class DataResourceTest {
                 () -> assertEquals("{\"code\":416,\"message\":\"Only `bytes` are acceptable as ranges\"}", response.readEntity(String.class), "Should have correct error message"));
     }
 
+    @Test
+    void testCompressedFile() throws IOException {
+        final File tempPath = FileUtils.getTempDirectory();
+        final File file = File.createTempFile("test", ".ndjson", tempPath);
+        FileUtils.write(file, "This is a test", StandardCharsets.UTF_8);
+        final File compressedFile = File.createTempFile("test", ".ndjson.gz", tempPath);
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(compressedFile))) {
+            os.write("This is a test".getBytes(StandardCharsets.UTF_8));
+        }
+        final FileManager.FilePointer compressed = new FileManager.FilePointer("compressed", compressedFile.length(), UUID.randomUUID(), OffsetDateTime.now(ZoneOffset.UTC), compressedFile);
+        Mockito.when(manager.getFile(Mockito.any(), Mockito.anyString())).thenReturn(new FileManager.FilePointer("plain", file.length(), UUID.randomUUID(), OffsetDateTime.now(ZoneOffset.UTC), file, compressed));
+
+        final Response response = RESOURCE.target("/v1/Data/test.ndjson")
+                .request()
+                .header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8")
+                .get();
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IOUtils.copy(new GZIPInputStream(response.readEntity(InputStream.class)), bos);
+        assertAll(() -> assertEquals(HttpStatus.OK_200, response.getStatus(), "Should have ok status"),
+                () -> assertEquals("gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING), "Should be gzip encoded"),
+                () -> assertEquals("compressed", response.getHeaderString(HttpHeaders.ETAG), "Should have the checksum of the compressed file"),
+                () -> assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeaderString(HttpHeaders.VARY), "Should vary on the encoding"),
+                () -> assertEquals("This is a test", bos.toString(StandardCharsets.UTF_8), "Should decompress to the file"));
+
+        // Without gzip, the uncompressed file is returned
+        final Response plainResponse = RESOURCE.target("/v1/Data/test.ndjson")
+                .request()
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0")
+                .get();
+
+        assertAll(() -> assertNull(plainResponse.getHeaderString(HttpHeaders.CONTENT_ENCODING), "Should not be encoded"),
+                () -> assertEquals("plain", plainResponse.getHeaderString(HttpHeaders.ETAG), "Should have the checksum of the file"),
+                () -> assertEquals("This is a test", plainResponse.readEntity(String.class), "Should have the file"));
+    }
+
     @Nested
     @DisplayName("Test Cache Header responses")
     class CacheHeaderTests {
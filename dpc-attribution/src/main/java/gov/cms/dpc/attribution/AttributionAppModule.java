@@ -28,6 +28,7 @@ class AttributionAppModule extends DropwizardAwareModule<DPCAttributionConfigura
         binder.bind(PractitionerResource.class);
         binder.bind(GroupResource.class);
         binder.bind(OrganizationResource.class);
+        binder.bind(RosterResource.class);
 
         // DAOs
         binder.bind(EndpointDAO.class);
@@ -11,6 +11,7 @@ import org.hibernate.validator.constraints.NotEmpty;
 import org.knowm.dropwizard.sundial.SundialConfiguration;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.time.Duration;
 
@@ -21,6 +22,11 @@ public class DPCAttributionConfiguration extends TypesafeConfiguration implement
 
     private Boolean migrationEnabled;
 
+    // Number of rows written by each statement of a bulk submission.
+    // Postgres allows at most 32767 bind parameters per statement, which caps this at a few thousand rows.
+    @Min(1)
+    private int bulkInsertChunkSize = 1000;
+
     @Valid
     @NotNull
     @JsonProperty("database")
@@ -86,6 +92,14 @@ public class DPCAttributionConfiguration extends TypesafeConfiguration implement
         this.migrationEnabled = migrationEnabled;
     }
 
+    public int getBulkInsertChunkSize() {
+        return bulkInsertChunkSize;
+    }
+
+    public void setBulkInsertChunkSize(int bulkInsertChunkSize) {
+        this.bulkInsertChunkSize = bulkInsertChunkSize;
+    }
+
     public SwaggerBundleConfiguration getSwaggerBundleConfiguration() {
         return swaggerBundleConfiguration;
     }
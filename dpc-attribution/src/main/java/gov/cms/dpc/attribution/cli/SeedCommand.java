@@ -5,12 +5,10 @@ import ca.uhn.fhir.parser.IParser;
 import gov.cms.dpc.attribution.DPCAttributionConfiguration;
 import gov.cms.dpc.attribution.dao.tables.OrganizationEndpoints;
 import gov.cms.dpc.attribution.dao.tables.Organizations;
-import gov.cms.dpc.attribution.dao.tables.Patients;
-import gov.cms.dpc.attribution.dao.tables.Providers;
 import gov.cms.dpc.attribution.dao.tables.records.OrganizationEndpointsRecord;
 import gov.cms.dpc.attribution.dao.tables.records.OrganizationsRecord;
-import gov.cms.dpc.attribution.dao.tables.records.PatientsRecord;
-import gov.cms.dpc.attribution.dao.tables.records.ProvidersRecord;
+import gov.cms.dpc.attribution.jdbi.PatientRecordInserter;
+import gov.cms.dpc.attribution.jdbi.ProviderRecordInserter;
 import gov.cms.dpc.attribution.jdbi.RosterUtils;
 import gov.cms.dpc.attribution.utils.DBUtils;
 import gov.cms.dpc.common.entities.*;
@@ -132,7 +130,7 @@ public class SeedCommand extends EnvironmentCommand<DPCAttributionConfiguration>
 
             providers
                     .stream()
-                    .map(entity -> providersEntityToRecord(context, entity))
+                    .map(entity -> ProviderRecordInserter.entityToRecord(context, entity))
                     .forEach(context::executeInsert);
         }
     }
@@ -166,7 +164,7 @@ public class SeedCommand extends EnvironmentCommand<DPCAttributionConfiguration>
                         organization.setId(organizationID);
                         entity.setOrganization(organization);
                     })
-                    .map(entity -> patientEntityToRecord(context, entity))
+                    .map(entity -> PatientRecordInserter.entityToRecord(context, entity))
                     .peek(context::executeInsert)
                     .forEach(record -> {
                         final Reference ref = new Reference(new IdType("Patient", record.getId().toString()));
@@ -221,28 +219,4 @@ public class SeedCommand extends EnvironmentCommand<DPCAttributionConfiguration>
 
         return record;
     }
-
-    private static ProvidersRecord providersEntityToRecord(DSLContext context, ProviderEntity entity) {
-        final ProvidersRecord record = context.newRecord(Providers.PROVIDERS, entity);
-        record.setOrganizationId(entity.getOrganization().getId());
-        final OffsetDateTime created = OffsetDateTime.now(ZoneOffset.UTC);
-        record.setCreatedAt(created);
-        record.setUpdatedAt(created);
-        record.setId(UUID.randomUUID());
-
-        return record;
-    }
-
-    private static PatientsRecord patientEntityToRecord(DSLContext context, PatientEntity entity) {
-        // Generate a temporary ID
-        final PatientsRecord record = context.newRecord(Patients.PATIENTS, entity);
-        record.setOrganizationId(entity.getOrganization().getId());
-        final OffsetDateTime created = OffsetDateTime.now(ZoneOffset.UTC);
-        record.setCreatedAt(created);
-        record.setUpdatedAt(created);
-        record.setGender(entity.getGender().ordinal());
-        record.setId(UUID.randomUUID());
-
-        return record;
-    }
 }
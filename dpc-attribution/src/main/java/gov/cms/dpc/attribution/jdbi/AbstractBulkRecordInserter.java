@@ -0,0 +1,132 @@
+package gov.cms.dpc.attribution.jdbi;
+
+import org.jooq.DSLContext;
+import org.jooq.InsertSetMoreStep;
+import org.jooq.Record;
+import org.jooq.RowN;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.jooq.impl.UpdatableRecordImpl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Abstract class for inserting a large number of {@link org.jooq.Record}s, without overwriting any which already exist.
+ * <p>
+ * Records are inserted with multi-row INSERT statements of at most chunk size rows, which skip any rows that conflict with an existing record.
+ * When overriding, the user specifies which columns should be included when determining whether or not a conflict occurs, and which column holds the record ID.
+ * <p>
+ * Records with the same conflict values are only inserted once, and the ID of either the newly inserted, or the existing, record is returned for each of them.
+ *
+ * @param <R> - Generic record type which extends {@link UpdatableRecordImpl}.
+ */
+public abstract class AbstractBulkRecordInserter<R extends UpdatableRecordImpl<R>> {
+
+    private final DSLContext ctx;
+    private final int chunkSize;
+
+    AbstractBulkRecordInserter(DSLContext ctx, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+        }
+        this.ctx = ctx;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Specify which {@link TableField}s for the given {@link org.jooq.Record} should be considered when determining a conflict occurs.
+     * These must match a unique constraint of the table.
+     *
+     * @return - {@link List} of {@link TableField} from the given {@link org.jooq.Record} to consider for conflict detection.
+     */
+    abstract List<TableField<R, ?>> getConflictFields();
+
+    /**
+     * Specify which {@link TableField} holds the ID of the {@link org.jooq.Record}.
+     *
+     * @return - {@link TableField} of the record ID
+     */
+    abstract TableField<R, UUID> getIDField();
+
+    /**
+     * Values of the {@link AbstractBulkRecordInserter#getConflictFields()} of the record, which identify it within the table.
+     *
+     * @param record - {@link org.jooq.Record} to get the values from
+     * @return - {@link List} of values, in the same order as the conflict fields
+     */
+    public List<Object> getKey(Record record) {
+        return getConflictFields()
+                .stream()
+                .map(record::get)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Insert the records, skipping any which already exist.
+     *
+     * @param records - {@link Collection} of records to insert, which may contain duplicates
+     * @return - {@link Map} of the {@link AbstractBulkRecordInserter#getKey(Record)} of each record to the ID of the stored record
+     */
+    public Map<List<Object>, UUID> insert(Collection<R> records) {
+        // Only insert the first of any duplicates, the rest resolve to the same stored record
+        final Map<List<Object>, R> unique = new LinkedHashMap<>();
+        records.forEach(record -> unique.putIfAbsent(getKey(record), record));
+
+        final Map<List<Object>, UUID> ids = new HashMap<>(unique.size());
+        final List<R> chunk = new ArrayList<>(Math.min(chunkSize, unique.size()));
+        for (R record : unique.values()) {
+            chunk.add(record);
+            if (chunk.size() == chunkSize) {
+                ids.putAll(insertChunk(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            ids.putAll(insertChunk(chunk));
+        }
+
+        return ids;
+    }
+
+    private Map<List<Object>, UUID> insertChunk(List<R> chunk) {
+        final List<TableField<R, ?>> returnFields = new ArrayList<>(getConflictFields());
+        returnFields.add(getIDField());
+
+        InsertSetMoreStep<R> insertStep = ctx.insertInto(chunk.get(0).getTable()).set(chunk.get(0));
+        for (R record : chunk.subList(1, chunk.size())) {
+            insertStep = insertStep.newRecord().set(record);
+        }
+
+        final Map<List<Object>, UUID> ids = new HashMap<>(chunk.size());
+        insertStep
+                .onConflict(getConflictFields())
+                .doNothing()
+                .returning(returnFields)
+                .fetch()
+                .forEach(inserted -> ids.put(getKey(inserted), inserted.get(getIDField())));
+
+        // Rows which were skipped already exist, so fetch their IDs in a single query
+        final List<RowN> existing = chunk
+                .stream()
+                .map(this::getKey)
+                .filter(key -> !ids.containsKey(key))
+                .map(DSL::row)
+                .collect(Collectors.toList());
+        if (!existing.isEmpty()) {
+            ctx.select(returnFields)
+                    .from(chunk.get(0).getTable())
+                    .where(DSL.row(getConflictFields()).in(existing))
+                    .fetch()
+                    .forEach(stored -> ids.put(getKey(stored), stored.get(getIDField())));
+        }
+
+        return ids;
+    }
+}
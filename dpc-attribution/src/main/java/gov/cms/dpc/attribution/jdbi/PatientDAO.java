@@ -1,27 +1,74 @@
 package gov.cms.dpc.attribution.jdbi;
 
+import gov.cms.dpc.attribution.dao.tables.records.PatientsRecord;
 import gov.cms.dpc.common.entities.*;
 import gov.cms.dpc.common.hibernate.attribution.DPCManagedSessionFactory;
 import io.dropwizard.hibernate.AbstractDAO;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DSL;
 
 import javax.inject.Inject;
 import javax.persistence.criteria.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static gov.cms.dpc.attribution.dao.tables.Attributions.ATTRIBUTIONS;
+import static gov.cms.dpc.attribution.dao.tables.Patients.PATIENTS;
 
 public class PatientDAO extends AbstractDAO<PatientEntity> {
 
+    private final Settings settings;
+
     @Inject
-    public PatientDAO(DPCManagedSessionFactory factory) {
+    public PatientDAO(DPCManagedSessionFactory factory, Settings settings) {
         super(factory.getSessionFactory());
+        this.settings = settings;
     }
 
     public PatientEntity persistPatient(PatientEntity patient) {
         return this.persist(patient);
     }
 
+    /**
+     * Insert the given patients, skipping any which are already registered with their organization.
+     * Patients are written with multi-row statements of at most chunk size patients, rather than one at a time.
+     *
+     * @param patients  - {@link List} of {@link PatientEntity} to insert, which may contain the same patient more than once
+     * @param chunkSize - maximum number of patients to write with each statement
+     * @return - {@link List} of the stored {@link PatientEntity} for each of the given patients, in the same order
+     */
+    public List<PatientEntity> bulkSubmitPatients(List<PatientEntity> patients, int chunkSize) {
+        final List<UUID> patientIDs = currentSession().doReturningWork(connection -> {
+            final DSLContext context = DSL.using(connection, this.settings);
+            final PatientRecordInserter inserter = new PatientRecordInserter(context, chunkSize);
+            final List<PatientsRecord> records = patients
+                    .stream()
+                    .map(patient -> PatientRecordInserter.entityToRecord(context, patient))
+                    .collect(Collectors.toList());
+
+            final Map<List<Object>, UUID> ids = inserter.insert(records);
+            return records
+                    .stream()
+                    .map(record -> ids.get(inserter.getKey(record)))
+                    .collect(Collectors.toList());
+        });
+
+        final Map<UUID, PatientEntity> entities = currentSession()
+                .byMultipleIds(PatientEntity.class)
+                .withBatchSize(chunkSize)
+                .multiLoad(new ArrayList<>(new LinkedHashSet<>(patientIDs)))
+                .stream()
+                .collect(Collectors.toMap(PatientEntity::getID, Function.identity()));
+
+        return patientIDs
+                .stream()
+                .map(entities::get)
+                .collect(Collectors.toList());
+    }
+
     public Optional<PatientEntity> getPatient(UUID patientID) {
         return Optional.ofNullable(get(patientID));
     }
@@ -102,6 +149,38 @@ public class PatientDAO extends AbstractDAO<PatientEntity> {
         return this.list(query);
     }
 
+    /**
+     * Fetch a page of the MBIs of the patients attributed to the roster, ordered by MBI.
+     * Pages are selected by the last MBI of the previous page (keyset pagination), rather than an offset,
+     * so each page costs the same no matter how far into the roster it is.
+     *
+     * @param rosterID   - {@link UUID} of roster to fetch the patients of
+     * @param activeOnly - {@code true} only return patients with an active attribution
+     * @param afterMBI   - {@link String} last MBI of the previous page, or {@code null} for the first page
+     * @param count      - maximum number of MBIs to return
+     * @return - {@link List} of {@link String} patient MBIs
+     */
+    public List<String> fetchPatientMBIPage(UUID rosterID, boolean activeOnly, String afterMBI, int count) {
+        return currentSession().doReturningWork(connection -> {
+            Condition condition = ATTRIBUTIONS.ROSTER_ID.eq(rosterID);
+            if (activeOnly) {
+                condition = condition.and(ATTRIBUTIONS.INACTIVE.isFalse());
+            }
+            if (afterMBI != null) {
+                condition = condition.and(PATIENTS.BENEFICIARY_ID.gt(afterMBI));
+            }
+
+            return DSL.using(connection, this.settings)
+                    .select(PATIENTS.BENEFICIARY_ID)
+                    .from(ATTRIBUTIONS)
+                    .join(PATIENTS).on(PATIENTS.ID.eq(ATTRIBUTIONS.PATIENT_ID))
+                    .where(condition)
+                    .orderBy(PATIENTS.BENEFICIARY_ID)
+                    .limit(count)
+                    .fetch(PATIENTS.BENEFICIARY_ID);
+        });
+    }
+
     private int removeAttributionRelationships(PatientEntity patientEntity) {
 
         final CriteriaBuilder builder = currentSession().getCriteriaBuilder();
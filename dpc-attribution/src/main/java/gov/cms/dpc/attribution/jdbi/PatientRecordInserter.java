@@ -0,0 +1,53 @@
+package gov.cms.dpc.attribution.jdbi;
+
+import gov.cms.dpc.attribution.dao.tables.records.PatientsRecord;
+import gov.cms.dpc.common.entities.PatientEntity;
+import org.jooq.DSLContext;
+import org.jooq.TableField;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static gov.cms.dpc.attribution.dao.tables.Patients.PATIENTS;
+
+/**
+ * Implementation of {@link AbstractBulkRecordInserter}, specialized for {@link PatientsRecord}
+ */
+public class PatientRecordInserter extends AbstractBulkRecordInserter<PatientsRecord> {
+
+    public PatientRecordInserter(DSLContext ctx, int chunkSize) {
+        super(ctx, chunkSize);
+    }
+
+    @Override
+    List<TableField<PatientsRecord, ?>> getConflictFields() {
+        return List.of(PATIENTS.BENEFICIARY_ID, PATIENTS.ORGANIZATION_ID);
+    }
+
+    @Override
+    TableField<PatientsRecord, UUID> getIDField() {
+        return PATIENTS.ID;
+    }
+
+    /**
+     * Convert a {@link PatientEntity} into a new {@link PatientsRecord}, with a freshly generated ID
+     *
+     * @param context - {@link DSLContext} to create the record with
+     * @param entity  - {@link PatientEntity} to convert
+     * @return - {@link PatientsRecord} ready to be inserted
+     */
+    public static PatientsRecord entityToRecord(DSLContext context, PatientEntity entity) {
+        // Generate a temporary ID
+        final PatientsRecord record = context.newRecord(PATIENTS, entity);
+        record.setOrganizationId(entity.getOrganization().getId());
+        final OffsetDateTime created = OffsetDateTime.now(ZoneOffset.UTC);
+        record.setCreatedAt(created);
+        record.setUpdatedAt(created);
+        record.setGender(entity.getGender().ordinal());
+        record.setId(UUID.randomUUID());
+
+        return record;
+    }
+}
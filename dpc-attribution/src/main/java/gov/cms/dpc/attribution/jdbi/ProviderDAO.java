@@ -1,10 +1,14 @@
 package gov.cms.dpc.attribution.jdbi;
 
+import gov.cms.dpc.attribution.dao.tables.records.ProvidersRecord;
 import gov.cms.dpc.common.entities.OrganizationEntity_;
 import gov.cms.dpc.common.entities.ProviderEntity;
 import gov.cms.dpc.common.entities.ProviderEntity_;
 import gov.cms.dpc.common.hibernate.attribution.DPCManagedSessionFactory;
 import io.dropwizard.hibernate.AbstractDAO;
+import org.jooq.DSLContext;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DSL;
 
 import javax.inject.Inject;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -12,21 +16,65 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class ProviderDAO extends AbstractDAO<ProviderEntity> {
 
+    private final Settings settings;
+
     @Inject
-    public ProviderDAO(DPCManagedSessionFactory factory) {
+    public ProviderDAO(DPCManagedSessionFactory factory, Settings settings) {
         super(factory.getSessionFactory());
+        this.settings = settings;
     }
 
     public ProviderEntity persistProvider(ProviderEntity provider) {
         return this.persist(provider);
     }
 
+    /**
+     * Insert the given providers, skipping any which are already registered with their organization.
+     * Providers are written with multi-row statements of at most chunk size providers, rather than one at a time.
+     *
+     * @param providers - {@link List} of {@link ProviderEntity} to insert, which may contain the same provider more than once
+     * @param chunkSize - maximum number of providers to write with each statement
+     * @return - {@link List} of the stored {@link ProviderEntity} for each of the given providers, in the same order
+     */
+    public List<ProviderEntity> bulkSubmitProviders(List<ProviderEntity> providers, int chunkSize) {
+        final List<UUID> providerIDs = currentSession().doReturningWork(connection -> {
+            final DSLContext context = DSL.using(connection, this.settings);
+            final ProviderRecordInserter inserter = new ProviderRecordInserter(context, chunkSize);
+            final List<ProvidersRecord> records = providers
+                    .stream()
+                    .map(provider -> ProviderRecordInserter.entityToRecord(context, provider))
+                    .collect(Collectors.toList());
+
+            final Map<List<Object>, UUID> ids = inserter.insert(records);
+            return records
+                    .stream()
+                    .map(record -> ids.get(inserter.getKey(record)))
+                    .collect(Collectors.toList());
+        });
+
+        final Map<UUID, ProviderEntity> entities = currentSession()
+                .byMultipleIds(ProviderEntity.class)
+                .withBatchSize(chunkSize)
+                .multiLoad(new ArrayList<>(new LinkedHashSet<>(providerIDs)))
+                .stream()
+                .collect(Collectors.toMap(ProviderEntity::getID, Function.identity()));
+
+        return providerIDs
+                .stream()
+                .map(entities::get)
+                .collect(Collectors.toList());
+    }
+
     public Optional<ProviderEntity> getProvider(UUID providerID) {
         return Optional.ofNullable(get(providerID));
     }
@@ -0,0 +1,51 @@
+package gov.cms.dpc.attribution.jdbi;
+
+import gov.cms.dpc.attribution.dao.tables.records.ProvidersRecord;
+import gov.cms.dpc.common.entities.ProviderEntity;
+import org.jooq.DSLContext;
+import org.jooq.TableField;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static gov.cms.dpc.attribution.dao.tables.Providers.PROVIDERS;
+
+/**
+ * Implementation of {@link AbstractBulkRecordInserter}, specialized for {@link ProvidersRecord}
+ */
+public class ProviderRecordInserter extends AbstractBulkRecordInserter<ProvidersRecord> {
+
+    public ProviderRecordInserter(DSLContext ctx, int chunkSize) {
+        super(ctx, chunkSize);
+    }
+
+    @Override
+    List<TableField<ProvidersRecord, ?>> getConflictFields() {
+        return List.of(PROVIDERS.PROVIDER_ID, PROVIDERS.ORGANIZATION_ID);
+    }
+
+    @Override
+    TableField<ProvidersRecord, UUID> getIDField() {
+        return PROVIDERS.ID;
+    }
+
+    /**
+     * Convert a {@link ProviderEntity} into a new {@link ProvidersRecord}, with a freshly generated ID
+     *
+     * @param context - {@link DSLContext} to create the record with
+     * @param entity  - {@link ProviderEntity} to convert
+     * @return - {@link ProvidersRecord} ready to be inserted
+     */
+    public static ProvidersRecord entityToRecord(DSLContext context, ProviderEntity entity) {
+        final ProvidersRecord record = context.newRecord(PROVIDERS, entity);
+        record.setOrganizationId(entity.getOrganization().getId());
+        final OffsetDateTime created = OffsetDateTime.now(ZoneOffset.UTC);
+        record.setCreatedAt(created);
+        record.setUpdatedAt(created);
+        record.setId(UUID.randomUUID());
+
+        return record;
+    }
+}
@@ -6,6 +6,9 @@ import gov.cms.dpc.common.entities.PatientEntity_;
 import gov.cms.dpc.common.entities.RosterEntity_;
 import gov.cms.dpc.common.hibernate.attribution.DPCManagedSessionFactory;
 import io.dropwizard.hibernate.AbstractDAO;
+import org.jooq.DSLContext;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,17 +17,28 @@ import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
+import static gov.cms.dpc.attribution.dao.tables.Attributions.ATTRIBUTIONS;
+import static gov.cms.dpc.attribution.dao.tables.Patients.PATIENTS;
+
 public class RelationshipDAO extends AbstractDAO<AttributionRelationship> {
 
     private static final Logger logger = LoggerFactory.getLogger(RelationshipDAO.class);
 
+    private final Settings settings;
+
     @Inject
-    public RelationshipDAO(DPCManagedSessionFactory sessionFactory) {
+    public RelationshipDAO(DPCManagedSessionFactory sessionFactory, Settings settings) {
         super(sessionFactory.getSessionFactory());
+        this.settings = settings;
     }
 
     /**
@@ -88,6 +102,138 @@ public class RelationshipDAO extends AbstractDAO<AttributionRelationship> {
         }
     }
 
+    /**
+     * Add the given patients to the attribution roster.
+     * The patients are resolved with a single query and attributed with a single upsert, running on the connection of the current session.
+     * <p>
+     * Patients which are not yet attributed to the roster are added, existing relationships are re-extended until {@code periodEnd}.
+     * Inactive relationships are re-activated, with a new membership span starting at {@code periodBegin}.
+     *
+     * @param rosterID    - {@link UUID} of roster to add the patients to
+     * @param patientIDs  - {@link Collection} of {@link UUID} patient IDs to add
+     * @param periodBegin - {@link OffsetDateTime} start of new membership spans
+     * @param periodEnd   - {@link OffsetDateTime} expiration of the memberships
+     * @return - {@link Set} of {@link UUID} of the given patients which do not exist. If there are any, no patients are added.
+     */
+    public Set<UUID> addRosterMembers(UUID rosterID, Collection<UUID> patientIDs, OffsetDateTime periodBegin, OffsetDateTime periodEnd) {
+        final UUID[] ids = patientIDs.stream().distinct().toArray(UUID[]::new);
+        if (ids.length == 0) {
+            return Set.of();
+        }
+
+        return currentSession().doReturningWork(connection -> {
+            final DSLContext context = DSL.using(connection, this.settings);
+            final Set<UUID> missing = findMissingPatients(context, ids);
+            if (!missing.isEmpty()) {
+                return missing;
+            }
+
+            final int upserted = context.insertInto(ATTRIBUTIONS, ATTRIBUTIONS.ROSTER_ID, ATTRIBUTIONS.PATIENT_ID, ATTRIBUTIONS.PERIOD_BEGIN, ATTRIBUTIONS.PERIOD_END, ATTRIBUTIONS.INACTIVE)
+                    .select(DSL.select(DSL.val(rosterID), PATIENTS.ID, DSL.val(periodBegin), DSL.val(periodEnd), DSL.inline(false))
+                            .from(PATIENTS)
+                            .where(PATIENTS.ID.eq(DSL.any(ids))))
+                    .onConflict(ATTRIBUTIONS.ROSTER_ID, ATTRIBUTIONS.PATIENT_ID)
+                    .doUpdate()
+                    // Only an inactive relationship starts a new membership span
+                    .set(ATTRIBUTIONS.PERIOD_BEGIN, DSL.when(ATTRIBUTIONS.INACTIVE.isTrue(), periodBegin).otherwise(ATTRIBUTIONS.PERIOD_BEGIN))
+                    .set(ATTRIBUTIONS.PERIOD_END, periodEnd)
+                    .set(ATTRIBUTIONS.INACTIVE, false)
+                    .execute();
+            logger.debug("Attributed {} patients to Group/{}", upserted, rosterID);
+            return missing;
+        });
+    }
+
+    /**
+     * Replace the members of the attribution roster with the given patients.
+     * Only the difference between the current and the new members is written, relationships which are part of both are left as is.
+     * <ul>
+     * <li>Relationships with patients which are not part of the new members are deleted</li>
+     * <li>New members are attributed with a single insert</li>
+     * <li>Inactive relationships with new members are re-activated, with a new membership span starting at {@code periodBegin}</li>
+     * </ul>
+     *
+     * @param rosterID    - {@link UUID} of roster to replace the members of
+     * @param patientIDs  - {@link Collection} of {@link UUID} patient IDs of the new members
+     * @param periodBegin - {@link OffsetDateTime} start of new membership spans
+     * @param periodEnd   - {@link OffsetDateTime} expiration of new membership spans
+     * @return - {@link Set} of {@link UUID} of the given patients which do not exist. If there are any, the roster is not changed.
+     */
+    public Set<UUID> replaceRosterMembers(UUID rosterID, Collection<UUID> patientIDs, OffsetDateTime periodBegin, OffsetDateTime periodEnd) {
+        final UUID[] ids = patientIDs.stream().distinct().toArray(UUID[]::new);
+
+        return currentSession().doReturningWork(connection -> {
+            final DSLContext context = DSL.using(connection, this.settings);
+            final Set<UUID> missing = findMissingPatients(context, ids);
+            if (!missing.isEmpty()) {
+                return missing;
+            }
+
+            final int removed = context.deleteFrom(ATTRIBUTIONS)
+                    .where(ATTRIBUTIONS.ROSTER_ID.eq(rosterID))
+                    .and(ATTRIBUTIONS.PATIENT_ID.ne(DSL.all(ids)))
+                    .execute();
+
+            final int added = context.insertInto(ATTRIBUTIONS, ATTRIBUTIONS.ROSTER_ID, ATTRIBUTIONS.PATIENT_ID, ATTRIBUTIONS.PERIOD_BEGIN, ATTRIBUTIONS.PERIOD_END, ATTRIBUTIONS.INACTIVE)
+                    .select(DSL.select(DSL.val(rosterID), PATIENTS.ID, DSL.val(periodBegin), DSL.val(periodEnd), DSL.inline(false))
+                            .from(PATIENTS)
+                            .where(PATIENTS.ID.eq(DSL.any(ids)))
+                            .andNotExists(DSL.selectOne()
+                                    .from(ATTRIBUTIONS)
+                                    .where(ATTRIBUTIONS.ROSTER_ID.eq(rosterID))
+                                    .and(ATTRIBUTIONS.PATIENT_ID.eq(PATIENTS.ID))))
+                    // A concurrent update may have attributed the patient in the meantime
+                    .onConflictDoNothing()
+                    .execute();
+
+            final int reactivated = context.update(ATTRIBUTIONS)
+                    .set(ATTRIBUTIONS.INACTIVE, false)
+                    .set(ATTRIBUTIONS.PERIOD_BEGIN, periodBegin)
+                    .set(ATTRIBUTIONS.PERIOD_END, periodEnd)
+                    .where(ATTRIBUTIONS.ROSTER_ID.eq(rosterID))
+                    .and(ATTRIBUTIONS.INACTIVE.isTrue())
+                    .and(ATTRIBUTIONS.PATIENT_ID.eq(DSL.any(ids)))
+                    .execute();
+            logger.debug("Replaced members of Group/{}: {} removed, {} added, {} re-activated", rosterID, removed, added, reactivated);
+            return missing;
+        });
+    }
+
+    /**
+     * Inactivate the attribution relationships between the given patients and the attribution roster, with a single update.
+     *
+     * @param rosterID   - {@link UUID} of roster to remove the patients from
+     * @param patientIDs - {@link Collection} of {@link UUID} patient IDs to remove
+     * @param periodEnd  - {@link OffsetDateTime} end of the memberships
+     * @return - the number of relationships which were inactivated
+     */
+    public int removeRosterMembers(UUID rosterID, Collection<UUID> patientIDs, OffsetDateTime periodEnd) {
+        final UUID[] ids = patientIDs.stream().distinct().toArray(UUID[]::new);
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        return currentSession().doReturningWork(connection -> DSL.using(connection, this.settings)
+                .update(ATTRIBUTIONS)
+                .set(ATTRIBUTIONS.INACTIVE, true)
+                .set(ATTRIBUTIONS.PERIOD_END, periodEnd)
+                .where(ATTRIBUTIONS.ROSTER_ID.eq(rosterID))
+                .and(ATTRIBUTIONS.PATIENT_ID.eq(DSL.any(ids)))
+                .execute());
+    }
+
+    private static Set<UUID> findMissingPatients(DSLContext context, UUID[] ids) {
+        final Set<UUID> missing = new HashSet<>(Arrays.asList(ids));
+        if (ids.length > 0) {
+            context.select(PATIENTS.ID)
+                    .from(PATIENTS)
+                    .where(PATIENTS.ID.eq(DSL.any(ids)))
+                    .fetch(PATIENTS.ID)
+                    .forEach(missing::remove);
+        }
+        return missing;
+    }
+
     /**
      * Retrieve all {@link AttributionRelationship} entities in the database.
      *
@@ -72,6 +72,25 @@ public class RosterDAO extends AbstractDAO<RosterEntity> {
         return booleanQuery.getSingleResult();
     }
 
+    /**
+     * Determine whether the roster exists and is managed by the given organization
+     *
+     * @param rosterID       - {@link UUID} of roster to check
+     * @param organizationID - {@link UUID} of organization which must manage the roster
+     * @return - {@code true} roster exists and belongs to the organization. {@code false} otherwise
+     */
+    public boolean rosterExists(UUID rosterID, UUID organizationID) {
+        final CriteriaBuilder builder = currentSession().getCriteriaBuilder();
+        final CriteriaQuery<Boolean> query = builder.createQuery(Boolean.class);
+        final Root<RosterEntity> root = query.from(RosterEntity.class);
+        query.select(builder.literal(true));
+
+        query.where(builder.equal(root.get(RosterEntity_.id), rosterID),
+                builder.equal(root.get(RosterEntity_.managingOrganization).get(OrganizationEntity_.id), organizationID));
+
+        return this.currentSession().createQuery(query).uniqueResultOptional().isPresent();
+    }
+
     public void delete(RosterEntity rosterEntity) {
         currentSession().delete(rosterEntity);
     }
@@ -31,6 +31,9 @@ public abstract class AbstractAttributionResource {
     @Path("/Practitioner")
     public abstract AbstractPractitionerResource providerOperations();
 
+    @Path("/Roster")
+    public abstract AbstractRosterResource rosterOperations();
+
     @GET
     @Path("/_healthy")
     @ApiOperation(value = "Check is healthy", notes = "Returns whether or not the application is in a healthy state." +
@@ -0,0 +1,37 @@
+package gov.cms.dpc.attribution.resources;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.*;
+import javax.ws.rs.core.Response;
+import java.util.UUID;
+
+/**
+ * Non-FHIR operations on attribution rosters, for internal callers which need the roster contents in a compact form.
+ */
+@Path("/Roster")
+public abstract class AbstractRosterResource {
+
+    public static final int MAX_PAGE_SIZE = 50000;
+
+    protected AbstractRosterResource() {
+        // Not used
+    }
+
+    /**
+     * Fetch a page of the MBIs of the patients attributed to the roster, as plain text with one MBI per line.
+     * MBIs are returned in sorted order, the next page is requested by passing the last MBI of the current page.
+     * A page with fewer than {@code count} MBIs is the final page.
+     *
+     * @param rosterID       - {@link UUID} of roster to fetch the patients of
+     * @param organizationID - {@link UUID} of organization which must manage the roster
+     * @param activeOnly     - {@code true} only return patients with an active attribution
+     * @param afterMBI       - {@link String} last MBI of the previous page, or {@code null} for the first page
+     * @param count          - maximum number of MBIs to return
+     * @return - {@link Response} streaming the MBIs
+     */
+    @GET
+    @Path("/{rosterID}/mbis")
+    public abstract Response getRosterMBIs(@NotNull UUID rosterID, @NotNull UUID organizationID, boolean activeOnly, String afterMBI, @Min(1) @Max(MAX_PAGE_SIZE) int count);
+}
@@ -9,8 +9,6 @@ import gov.cms.dpc.attribution.jdbi.RelationshipDAO;
 import gov.cms.dpc.attribution.jdbi.RosterDAO;
 import gov.cms.dpc.attribution.resources.AbstractGroupResource;
 import gov.cms.dpc.attribution.utils.RESTUtils;
-import gov.cms.dpc.common.entities.AttributionRelationship;
-import gov.cms.dpc.common.entities.PatientEntity;
 import gov.cms.dpc.common.entities.ProviderEntity;
 import gov.cms.dpc.common.entities.RosterEntity;
 import gov.cms.dpc.fhir.DPCIdentifierSystem;
@@ -35,7 +33,9 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Response;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -158,33 +158,21 @@ public class GroupResource extends AbstractGroupResource {
     @FHIR
     @UnitOfWork
     @ApiOperation(value = "Update roster", notes = "FHIR endpoint to update the given Group resource with members to add or remove.")
-    @ApiResponses(@ApiResponse(code = 404, message = "Cannot find attribution roster"))
+    @ApiResponses(value = {
+            @ApiResponse(code = 404, message = "Cannot find attribution roster"),
+            @ApiResponse(code = 400, message = "Unable to add patient to roster")
+    })
     @Override
     public Group replaceRoster(@PathParam("rosterID") UUID rosterID, Group groupUpdate) {
         if (!this.rosterDAO.rosterExists(rosterID)) {
             throw new WebApplicationException(NOT_FOUND_EXCEPTION, Response.Status.NOT_FOUND);
         }
 
-        final RosterEntity rosterEntity = new RosterEntity();
-        rosterEntity.setId(rosterID);
         final OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
-
-        // Remove all roster relationships
-        this.relationshipDAO.removeRosterAttributions(rosterID);
-
-        groupUpdate
-                .getMember()
-                .stream()
-                .map(Group.GroupMemberComponent::getEntity)
-                .map(ref -> {
-                    final PatientEntity pe = new PatientEntity();
-                    pe.setID(UUID.fromString(new IdType(ref.getReference()).getIdPart()));
-                    return pe;
-                })
-                .map(pe -> new AttributionRelationship(rosterEntity, pe))
-                .peek(relationship -> relationship.setPeriodEnd(generateExpirationTime()))
-                .peek(relationship -> relationship.setPeriodBegin(now))
-                .forEach(relationshipDAO::addAttributionRelationship);
+        // Only write the difference between the current and the new members
+        final List<UUID> patientIDs = getMemberIDs(groupUpdate);
+        final Set<UUID> missingPatients = this.relationshipDAO.replaceRosterMembers(rosterID, patientIDs, now, generateExpirationTime());
+        checkMissingPatients(patientIDs, missingPatients);
 
         final RosterEntity rosterEntity1 = rosterDAO.getEntity(rosterID)
                 .orElseThrow(() -> NOT_FOUND_EXCEPTION);
@@ -207,34 +195,12 @@ public class GroupResource extends AbstractGroupResource {
             throw new WebApplicationException(NOT_FOUND_EXCEPTION, Response.Status.NOT_FOUND);
         }
 
-        final RosterEntity rosterEntity = new RosterEntity();
-        rosterEntity.setId(rosterID);
         final OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
-        // For each group member, check to see if the patient exists, if not, throw an exception
-        // Check to see if they're already rostered, if so, ignore
-        groupUpdate
-                .getMember()
-                .stream()
-                .map(Group.GroupMemberComponent::getEntity)
-                // Check to see if patient exists, if not, throw an exception
-                .map(entity -> {
-                    final UUID patientID = UUID.fromString(new IdType(entity.getReference()).getIdPart());
-                    return this.patientDAO.getPatient(patientID).orElseThrow(() -> new WebApplicationException(String.format("Cannot find patient with ID %s",
-                            patientID.toString()), Response.Status.BAD_REQUEST));
-                })
-                .map(patient -> {
-                    // Check to see if the attribution already exists, if so, re-extend the expiration time
-                    final AttributionRelationship relationship = this.relationshipDAO.lookupAttributionRelationship(rosterID, patient.getID())
-                            .orElse(new AttributionRelationship(rosterEntity, patient, now));
-                    // If the relationship is inactive, then we need to update the period begin for the new membership span
-                    if (relationship.isInactive()) {
-                        relationship.setPeriodBegin(now);
-                    }
-                    relationship.setInactive(false);
-                    relationship.setPeriodEnd(generateExpirationTime());
-                    return relationship;
-                })
-                .forEach(this.relationshipDAO::addAttributionRelationship);
+        // Check that all the patients exist, then attribute them all at once.
+        // Patients which are already rostered have their expiration time re-extended
+        final List<UUID> patientIDs = getMemberIDs(groupUpdate);
+        final Set<UUID> missingPatients = this.relationshipDAO.addRosterMembers(rosterID, patientIDs, now, generateExpirationTime());
+        checkMissingPatients(patientIDs, missingPatients);
 
         final RosterEntity rosterEntity1 = this.rosterDAO.getEntity(rosterID)
                 .orElseThrow(() -> NOT_FOUND_EXCEPTION);
@@ -257,22 +223,12 @@ public class GroupResource extends AbstractGroupResource {
             throw new WebApplicationException(NOT_FOUND_EXCEPTION, Response.Status.NOT_FOUND);
         }
 
-        groupUpdate
-                .getMember()
-                .stream()
-                .map(Group.GroupMemberComponent::getEntity)
-                .map(entity -> {
-                    final PatientEntity patientEntity = new PatientEntity();
-                    final UUID patientID = UUID.fromString(new IdType(entity.getReference()).getIdPart());
-                    patientEntity.setID(patientID);
-                    return this.relationshipDAO.lookupAttributionRelationship(rosterID, patientID);
-                })
-                .map(rOptional -> rOptional.orElseThrow(() -> new WebApplicationException("Cannot find attribution relationship.", Response.Status.BAD_REQUEST)))
-                .peek(relationship -> {
-                    relationship.setInactive(true);
-                    relationship.setPeriodEnd(OffsetDateTime.now(ZoneOffset.UTC));
-                })
-                .forEach(this.relationshipDAO::updateAttributionRelationship);
+        // Inactivate all the relationships at once, every member must be attributed to the roster
+        final Set<UUID> patientIDs = new HashSet<>(getMemberIDs(groupUpdate));
+        final int removed = this.relationshipDAO.removeRosterMembers(rosterID, patientIDs, OffsetDateTime.now(ZoneOffset.UTC));
+        if (removed != patientIDs.size()) {
+            throw new WebApplicationException("Cannot find attribution relationship.", Response.Status.BAD_REQUEST);
+        }
 
         final RosterEntity rosterEntity = this.rosterDAO.getEntity(rosterID)
                 .orElseThrow(() -> NOT_FOUND_EXCEPTION);
@@ -318,6 +274,25 @@ public class GroupResource extends AbstractGroupResource {
         return converter.toFHIR(Group.class, rosterEntity);
     }
 
+    private static List<UUID> getMemberIDs(Group group) {
+        return group
+                .getMember()
+                .stream()
+                .map(Group.GroupMemberComponent::getEntity)
+                .map(entity -> UUID.fromString(new IdType(entity.getReference()).getIdPart()))
+                .collect(Collectors.toList());
+    }
+
+    private static void checkMissingPatients(List<UUID> patientIDs, Set<UUID> missingPatients) {
+        patientIDs
+                .stream()
+                .filter(missingPatients::contains)
+                .findFirst()
+                .ifPresent(patientID -> {
+                    throw new WebApplicationException(String.format("Cannot find patient with ID %s", patientID.toString()), Response.Status.BAD_REQUEST);
+                });
+    }
+
     private OffsetDateTime generateExpirationTime() {
         return OffsetDateTime.now(ZoneOffset.UTC).plus(config.getExpirationThreshold());
     }
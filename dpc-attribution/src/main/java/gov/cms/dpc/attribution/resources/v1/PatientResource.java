@@ -1,5 +1,6 @@
 package gov.cms.dpc.attribution.resources.v1;
 
+import gov.cms.dpc.attribution.DPCAttributionConfiguration;
 import gov.cms.dpc.attribution.jdbi.PatientDAO;
 import gov.cms.dpc.attribution.resources.AbstractPatientResource;
 import gov.cms.dpc.common.entities.PatientEntity;
@@ -22,7 +23,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
-import static gov.cms.dpc.attribution.utils.RESTUtils.bulkResourceHandler;
+import static gov.cms.dpc.attribution.utils.RESTUtils.extractBulkResources;
 
 @Api(value = "Patient")
 public class PatientResource extends AbstractPatientResource {
@@ -30,11 +31,13 @@ public class PatientResource extends AbstractPatientResource {
     private static final WebApplicationException NOT_FOUND_EXCEPTION = new WebApplicationException("Cannot find patient with given ID", Response.Status.NOT_FOUND);
     private final FHIREntityConverter converter;
     private final PatientDAO dao;
+    private final DPCAttributionConfiguration config;
 
     @Inject
-    PatientResource(FHIREntityConverter converter, PatientDAO dao) {
+    PatientResource(FHIREntityConverter converter, PatientDAO dao, DPCAttributionConfiguration config) {
         this.dao = dao;
         this.converter = converter;
+        this.config = config;
     }
 
     @GET
@@ -126,11 +129,28 @@ public class PatientResource extends AbstractPatientResource {
     @Path("/$submit")
     @FHIR
     @UnitOfWork
-    @ApiOperation(value = "Bulk submit Patient resources", notes = "FHIR operation for submitting a Bundle of Patient resources, which will be associated to the given Organization.", response = Bundle.class)
+    @ApiOperation(value = "Bulk submit Patient resources", notes = "FHIR operation for submitting a Bundle of Patient resources, which will be associated to the given Organization." +
+            "<p>Returns the stored Patient record for each submitted resource, in the order they were submitted. " +
+            "If a patient record already exists, the existing record is returned.", response = Bundle.class)
+    @ApiResponses(@ApiResponse(code = 400, message = "Patient must have a Managing Organization"))
     @BundleReturnProperties(bundleType = Bundle.BundleType.COLLECTION)
     @Override
     public List<Patient> bulkSubmitPatients(Parameters params) {
-        return bulkResourceHandler(Patient.class, params, this::createPatient);
+        final List<PatientEntity> patients = extractBulkResources(Patient.class, params)
+                .stream()
+                .map(patient -> {
+                    final PatientEntity entity = this.converter.fromFHIR(PatientEntity.class, patient);
+                    if (entity.getOrganization() == null) {
+                        throw new WebApplicationException("Patient must have a Managing Organization", Response.Status.BAD_REQUEST);
+                    }
+                    return entity;
+                })
+                .collect(Collectors.toList());
+
+        return this.dao.bulkSubmitPatients(patients, this.config.getBulkInsertChunkSize())
+                .stream()
+                .map(p -> this.converter.toFHIR(Patient.class, p))
+                .collect(Collectors.toList());
     }
 
     @DELETE
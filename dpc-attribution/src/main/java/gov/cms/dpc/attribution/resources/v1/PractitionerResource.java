@@ -2,6 +2,7 @@ package gov.cms.dpc.attribution.resources.v1;
 
 import com.codahale.metrics.annotation.ExceptionMetered;
 import com.codahale.metrics.annotation.Timed;
+import gov.cms.dpc.attribution.DPCAttributionConfiguration;
 import gov.cms.dpc.attribution.jdbi.ProviderDAO;
 import gov.cms.dpc.attribution.resources.AbstractPractitionerResource;
 import gov.cms.dpc.common.entities.ProviderEntity;
@@ -24,7 +25,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
-import static gov.cms.dpc.attribution.utils.RESTUtils.bulkResourceHandler;
+import static gov.cms.dpc.attribution.utils.RESTUtils.extractBulkResources;
 
 @FHIR
 @Api(value = "Practitioner")
@@ -32,11 +33,13 @@ public class PractitionerResource extends AbstractPractitionerResource {
 
     private final ProviderDAO dao;
     private final FHIREntityConverter converter;
+    private final DPCAttributionConfiguration config;
 
     @Inject
-    PractitionerResource(FHIREntityConverter converter, ProviderDAO dao) {
+    PractitionerResource(FHIREntityConverter converter, ProviderDAO dao, DPCAttributionConfiguration config) {
         this.dao = dao;
         this.converter = converter;
+        this.config = config;
     }
 
     @GET
@@ -114,11 +117,21 @@ public class PractitionerResource extends AbstractPractitionerResource {
     @UnitOfWork
     @Timed
     @ExceptionMetered
-    @ApiOperation(value = "Bulk submit Practitioner resources", notes = "FHIR operation for submitting a Bundle of Practitioner resources, which will be associated to the given Organization.", response = Bundle.class)
+    @ApiOperation(value = "Bulk submit Practitioner resources", notes = "FHIR operation for submitting a Bundle of Practitioner resources, which will be associated to the given Organization." +
+            "<p>Returns the stored Practitioner record for each submitted resource, in the order they were submitted. " +
+            "If a provider is already registered with the Organization, the existing record is returned.", response = Bundle.class)
     @BundleReturnProperties(bundleType = Bundle.BundleType.COLLECTION)
     @Override
     public List<Practitioner> bulkSubmitProviders(Parameters params) {
-        return bulkResourceHandler(Practitioner.class, params, this::submitProvider);
+        final List<ProviderEntity> providers = extractBulkResources(Practitioner.class, params)
+                .stream()
+                .map(provider -> this.converter.fromFHIR(ProviderEntity.class, provider))
+                .collect(Collectors.toList());
+
+        return this.dao.bulkSubmitProviders(providers, this.config.getBulkInsertChunkSize())
+                .stream()
+                .map(p -> this.converter.toFHIR(Practitioner.class, p))
+                .collect(Collectors.toList());
     }
 
     @DELETE
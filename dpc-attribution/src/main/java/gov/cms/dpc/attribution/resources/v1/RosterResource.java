@@ -0,0 +1,68 @@
+package gov.cms.dpc.attribution.resources.v1;
+
+import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Timed;
+import gov.cms.dpc.attribution.jdbi.PatientDAO;
+import gov.cms.dpc.attribution.jdbi.RosterDAO;
+import gov.cms.dpc.attribution.resources.AbstractRosterResource;
+import io.dropwizard.hibernate.UnitOfWork;
+import io.swagger.annotations.*;
+
+import javax.inject.Inject;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+@Api(value = "Roster")
+public class RosterResource extends AbstractRosterResource {
+
+    private final RosterDAO rosterDAO;
+    private final PatientDAO patientDAO;
+
+    @Inject
+    RosterResource(RosterDAO rosterDAO, PatientDAO patientDAO) {
+        this.rosterDAO = rosterDAO;
+        this.patientDAO = patientDAO;
+    }
+
+    @GET
+    @Path("/{rosterID}/mbis")
+    @Produces(MediaType.TEXT_PLAIN)
+    @UnitOfWork
+    @Timed
+    @ExceptionMetered
+    @ApiOperation(value = "Get attributed patient MBIs", notes = "Retrieve the MBIs of the Patients linked to the roster, as plain text with one MBI per line." +
+            "<p>MBIs are returned in sorted pages, the next page is requested by passing the last MBI of the current page as `_after`. " +
+            "A page with fewer than `_count` MBIs is the final page.")
+    @ApiResponses(@ApiResponse(code = 404, message = "Cannot find attribution roster"))
+    @Override
+    public Response getRosterMBIs(@ApiParam(value = "Roster resource ID", required = true) @PathParam("rosterID") UUID rosterID,
+                                  @ApiParam(value = "Organization ID", required = true) @QueryParam("organization") UUID organizationID,
+                                  @ApiParam(value = "Return only active patients", defaultValue = "false") @QueryParam("active") boolean activeOnly,
+                                  @ApiParam(value = "Return only MBIs after the given MBI") @QueryParam("_after") String afterMBI,
+                                  @ApiParam(value = "Maximum number of MBIs to return", defaultValue = "10000") @QueryParam("_count") @DefaultValue("10000") int count) {
+        // Rosters belonging to other organizations are treated as missing
+        if (!this.rosterDAO.rosterExists(rosterID, organizationID)) {
+            throw new WebApplicationException("Cannot find attribution roster", Response.Status.NOT_FOUND);
+        }
+
+        final List<String> patientMBIs = this.patientDAO.fetchPatientMBIPage(rosterID, activeOnly, afterMBI, count);
+        final StreamingOutput output = outputStream -> {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            for (String mbi : patientMBIs) {
+                writer.write(mbi);
+                writer.write('\n');
+            }
+            writer.flush();
+        };
+
+        return Response.ok(output, MediaType.TEXT_PLAIN_TYPE).build();
+    }
+}
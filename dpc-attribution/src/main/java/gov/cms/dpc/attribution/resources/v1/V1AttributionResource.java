@@ -13,18 +13,21 @@ public class V1AttributionResource extends AbstractAttributionResource {
     private final EndpointResource er;
     private final PatientResource par;
     private final PractitionerResource pr;
+    private final RosterResource rr;
 
     @Inject
     public V1AttributionResource(GroupResource gr,
                                  OrganizationResource or,
                                  EndpointResource er,
                                  PatientResource par,
-                                 PractitionerResource pr) {
+                                 PractitionerResource pr,
+                                 RosterResource rr) {
         this.gr = gr;
         this.or = or;
         this.er = er;
         this.par = par;
         this.pr = pr;
+        this.rr = rr;
     }
 
     @Override
@@ -51,4 +54,9 @@ public class V1AttributionResource extends AbstractAttributionResource {
     public AbstractPractitionerResource providerOperations() {
         return this.pr;
     }
+
+    @Override
+    public AbstractRosterResource rosterOperations() {
+        return this.rr;
+    }
 }
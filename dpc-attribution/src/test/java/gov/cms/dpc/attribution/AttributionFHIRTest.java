@@ -6,6 +6,7 @@ import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
 import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
 import ca.uhn.fhir.rest.gclient.*;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import gov.cms.dpc.common.utils.SeedProcessor;
@@ -22,6 +23,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
 import org.junit.jupiter.api.extension.ExtendWith;
 
@@ -33,6 +35,7 @@ import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static gov.cms.dpc.attribution.SharedMethods.createAttributionBundle;
 import static gov.cms.dpc.attribution.SharedMethods.submitAttributionBundle;
 import static gov.cms.dpc.common.utils.SeedProcessor.createBaseAttributionGroup;
 import static org.junit.jupiter.api.Assertions.*;
@@ -93,6 +96,97 @@ class AttributionFHIRTest {
                         DynamicTest.dynamicTest(nameGenerator.apply(bundle, "Remove"), () -> removeRoster(bundle))));
     }
 
+    @Test
+    void testReplaceRosterMembers() throws InterruptedException {
+        final String organizationID = organization.getIdElement().getIdPart();
+        final String providerID = "3322222227";
+        final IGenericClient client = AttributionTestHelpers.createFHIRClient(ctx, "http://localhost:" + APPLICATION.getLocalPort() + "/v1/");
+
+        // Start with a roster of an unchanged, a dropped and an inactive member, along with a patient who is not a member yet
+        final Group createdGroup = submitAttributionBundle(client, createAttributionBundle(providerID, "replace-unchanged-patient", organizationID));
+        final IdType groupID = createdGroup.getIdElement().toUnqualifiedVersionless();
+        final String unchangedID = new IdType(createdGroup.getMemberFirstRep().getEntity().getReference()).getIdPart();
+        final String droppedID = createPatient(client, "replace-dropped-patient", organizationID);
+        final String inactiveID = createPatient(client, "replace-inactive-patient", organizationID);
+        final String addedID = createPatient(client, "replace-added-patient", organizationID);
+
+        final Parameters addParams = new Parameters();
+        addParams.addParameter().setResource(buildRoster(providerID, organizationID, droppedID, inactiveID));
+        client.operation().onInstance(groupID).named("add").withParameters(addParams).encodedJson().execute();
+        final Parameters removeParams = new Parameters();
+        removeParams.addParameter().setResource(buildRoster(providerID, organizationID, inactiveID));
+        client.operation().onInstance(groupID).named("remove").withParameters(removeParams).encodedJson().execute();
+
+        final IReadExecutable<Group> rosterRead = client.read().resource(Group.class).withId(groupID).encodedJson();
+        final Period unchangedPeriod = findMember(rosterRead.execute(), unchangedID).orElseThrow().getPeriod();
+
+        // Make sure a re-written period would differ from the original one
+        Thread.sleep(1000);
+        client.update()
+                .resource(buildRoster(providerID, organizationID, unchangedID, inactiveID, addedID))
+                .withId(groupID)
+                .encodedJson()
+                .execute();
+
+        final Group replaced = rosterRead.execute();
+        final Group.GroupMemberComponent unchanged = findMember(replaced, unchangedID).orElseThrow();
+        final Group.GroupMemberComponent reactivated = findMember(replaced, inactiveID).orElseThrow();
+        assertAll(() -> assertEquals(3, replaced.getMember().size(), "Should have the new members"),
+                () -> assertFalse(unchanged.getInactive(), "Unchanged member should be active"),
+                () -> assertEquals(unchangedPeriod.getStart(), unchanged.getPeriod().getStart(), "Unchanged member should keep the start of its period"),
+                () -> assertEquals(unchangedPeriod.getEnd(), unchanged.getPeriod().getEnd(), "Unchanged member should keep the end of its period"),
+                () -> assertFalse(reactivated.getInactive(), "Inactive member should be reactivated"),
+                () -> assertFalse(findMember(replaced, addedID).orElseThrow().getInactive(), "New member should be active"),
+                () -> assertTrue(findMember(replaced, droppedID).isEmpty(), "Dropped member should be deleted"));
+
+        // Replacing with an unknown patient should fail, without changing the roster
+        final Group unknownRoster = buildRoster(providerID, organizationID, unchangedID, UUID.randomUUID().toString());
+        final IUpdateExecutable unknownUpdate = client.update().resource(unknownRoster).withId(groupID).encodedJson();
+        assertThrows(InvalidRequestException.class, unknownUpdate::execute, "Should not replace with unknown patient");
+        assertEquals(describeMembers(replaced), describeMembers(rosterRead.execute()), "Should not have changed the roster");
+
+        // Replacing with no members empties the roster
+        client.update()
+                .resource(buildRoster(providerID, organizationID))
+                .withId(groupID)
+                .encodedJson()
+                .execute();
+        assertEquals(0, rosterRead.execute().getMember().size(), "Should not have any members");
+    }
+
+    private static String createPatient(IGenericClient client, String mbi, String organizationID) {
+        final MethodOutcome created = client
+                .create()
+                .resource(AttributionTestHelpers.createPatientResource(mbi, organizationID))
+                .encodedJson()
+                .execute();
+        return created.getResource().getIdElement().getIdPart();
+    }
+
+    private static Group buildRoster(String providerID, String organizationID, String... patientIDs) {
+        final Group roster = createBaseAttributionGroup(providerID, organizationID);
+        for (final String patientID : patientIDs) {
+            roster.addMember().setEntity(new Reference(new IdType("Patient", patientID)));
+        }
+        return roster;
+    }
+
+    private static Set<String> describeMembers(Group roster) {
+        return roster
+                .getMember()
+                .stream()
+                .map(member -> String.format("%s %s %s-%s", member.getEntity().getReference(), member.getInactive(), member.getPeriod().getStart(), member.getPeriod().getEnd()))
+                .collect(Collectors.toSet());
+    }
+
+    private static Optional<Group.GroupMemberComponent> findMember(Group roster, String patientID) {
+        return roster
+                .getMember()
+                .stream()
+                .filter(member -> new IdType(member.getEntity().getReference()).getIdPart().equals(patientID))
+                .findAny();
+    }
+
     private void submitRoster(Bundle bundle) {
         final Practitioner practitioner = (Practitioner) bundle.getEntryFirstRep().getResource();
         final String providerID = practitioner.getIdentifierFirstRep().getValue();
@@ -263,6 +357,20 @@ class AttributionFHIRTest {
 
         assertEquals(1, searchedPatient.getTotal(), "Should only have a single group");
 
+        // Adding a patient which doesn't exist should fail, without adding any of the other members
+        final Group unknownRoster = createBaseAttributionGroup(providerID, organizationID);
+        unknownRoster.addMember().setEntity(patientReference);
+        unknownRoster.addMember().setEntity(new Reference(new IdType("Patient", UUID.randomUUID().toString())));
+        final Parameters unknownParam = new Parameters();
+        unknownParam.addParameter().setResource(unknownRoster);
+        final IOperationUntypedWithInput<Parameters> unknownMemberRequest = client
+                .operation()
+                .onInstance(new IdType(groupID))
+                .named("add")
+                .withParameters(unknownParam)
+                .encodedJson();
+        assertThrows(InvalidRequestException.class, unknownMemberRequest::execute, "Should not add unknown patient");
+
         // Remove the patient
         final Group.GroupMemberComponent removeEntity = new Group.GroupMemberComponent().setEntity(patientReference).setInactive(true);
         newRoster.setMember(List.of(removeEntity));
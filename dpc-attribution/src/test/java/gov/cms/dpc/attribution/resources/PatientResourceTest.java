@@ -98,6 +98,58 @@ class PatientResourceTest extends AbstractAttributionTest {
         assertEquals(0, secondSearch.getTotal(), "Should not have any patients");
     }
 
+    @Test
+    void testBulkSubmitPatients() {
+        final IGenericClient client = createFHIRClient(ctx, getServerURL());
+
+        final Bundle existingSearch = client
+                .search()
+                .forResource(Patient.class)
+                .where(Patient.IDENTIFIER.exactly().systemAndCode(DPCIdentifierSystem.MBI.getSystem(), DEFAULT_PATIENT_MBI))
+                .and(Patient.ORGANIZATION.hasId("Organization/" + DEFAULT_ORG_ID))
+                .returnBundle(Bundle.class)
+                .encodedJson()
+                .execute();
+        final String existingID = existingSearch.getEntryFirstRep().getResource().getIdElement().getIdPart();
+
+        // Submit a new patient twice, along with one which already exists
+        final Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.COLLECTION);
+        bundle.addEntry().setResource(createPatientResource("1872", DEFAULT_ORG_ID));
+        bundle.addEntry().setResource(createPatientResource(DEFAULT_PATIENT_MBI, DEFAULT_ORG_ID));
+        bundle.addEntry().setResource(createPatientResource("1872", DEFAULT_ORG_ID));
+
+        final Parameters parameters = new Parameters();
+        parameters.addParameter().setResource(bundle);
+
+        final Bundle submitted = client
+                .operation()
+                .onType(Patient.class)
+                .named("submit")
+                .withParameters(parameters)
+                .returnResourceType(Bundle.class)
+                .encodedJson()
+                .execute();
+
+        assertEquals(3, submitted.getEntry().size(), "Should have a result for each submitted patient");
+        final String createdID = submitted.getEntry().get(0).getResource().getIdElement().getIdPart();
+        assertAll(() -> assertEquals("1872", FHIRExtractors.getPatientMBI((Patient) submitted.getEntry().get(0).getResource()), "Should be in submission order"),
+                () -> assertEquals(existingID, submitted.getEntry().get(1).getResource().getIdElement().getIdPart(), "Should return the existing patient"),
+                () -> assertEquals(createdID, submitted.getEntry().get(2).getResource().getIdElement().getIdPart(), "Should only create the duplicate patient once"));
+
+        // Submitting again should not create anything new
+        final Bundle resubmitted = client
+                .operation()
+                .onType(Patient.class)
+                .named("submit")
+                .withParameters(parameters)
+                .returnResourceType(Bundle.class)
+                .encodedJson()
+                .execute();
+
+        assertEquals(createdID, resubmitted.getEntryFirstRep().getResource().getIdElement().getIdPart(), "Should return the previously created patient");
+    }
+
     @Test
     void testPatientDeletion() {
         final IGenericClient client = createFHIRClient(ctx, getServerURL());
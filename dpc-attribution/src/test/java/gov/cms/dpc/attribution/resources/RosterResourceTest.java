@@ -0,0 +1,95 @@
+package gov.cms.dpc.attribution.resources;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import gov.cms.dpc.attribution.AbstractAttributionTest;
+import gov.cms.dpc.fhir.FHIRExtractors;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.hl7.fhir.dstu3.model.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static gov.cms.dpc.attribution.AttributionTestHelpers.DEFAULT_ORG_ID;
+import static gov.cms.dpc.attribution.AttributionTestHelpers.createFHIRClient;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RosterResourceTest extends AbstractAttributionTest {
+
+    private RosterResourceTest() {
+        // Not used
+    }
+
+    @Test
+    void testRosterMBIPages() throws IOException {
+        final IGenericClient client = createFHIRClient(ctx, getServerURL());
+
+        final Group roster = (Group) client
+                .search()
+                .forResource(Group.class)
+                .withTag("", DEFAULT_ORG_ID)
+                .returnBundle(Bundle.class)
+                .encodedJson()
+                .execute()
+                .getEntryFirstRep()
+                .getResource();
+        final String rosterID = roster.getIdElement().getIdPart();
+
+        final Parameters parameters = new Parameters();
+        parameters.addParameter().setValue(new BooleanType(true)).setName("active");
+        final List<String> expected = client
+                .operation()
+                .onInstance(new IdType("Group", rosterID))
+                .named("patients")
+                .withParameters(parameters)
+                .returnResourceType(Bundle.class)
+                .useHttpGet()
+                .encodedJson()
+                .execute()
+                .getEntry()
+                .stream()
+                .map(entry -> FHIRExtractors.getPatientMBI((Patient) entry.getResource()))
+                .sorted()
+                .collect(Collectors.toList());
+        assertTrue(expected.size() > 2, "Should have enough patients to page through");
+
+        try (final CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            // Page through the roster, two MBIs at a time
+            final List<String> fetched = new ArrayList<>();
+            List<String> page = Collections.emptyList();
+            do {
+                final String after = page.isEmpty() ? "" : "&_after=" + page.get(page.size() - 1);
+                page = fetchMBIs(httpClient, String.format("%s/Roster/%s/mbis?organization=%s&active=true&_count=2%s", getServerURL(), rosterID, DEFAULT_ORG_ID, after));
+                assertTrue(page.size() <= 2, "Should not return more than the requested count");
+                fetched.addAll(page);
+            } while (page.size() == 2);
+
+            assertEquals(expected, fetched, "Should have all the active patients, in MBI order");
+
+            // Another organization should not be able to see the roster
+            final HttpGet otherOrg = new HttpGet(String.format("%s/Roster/%s/mbis?organization=%s", getServerURL(), rosterID, UUID.randomUUID()));
+            try (CloseableHttpResponse response = httpClient.execute(otherOrg)) {
+                assertEquals(HttpStatus.SC_NOT_FOUND, response.getStatusLine().getStatusCode(), "Should not find roster for another organization");
+            }
+        }
+    }
+
+    private static List<String> fetchMBIs(CloseableHttpClient httpClient, String url) throws IOException {
+        final HttpGet get = new HttpGet(url);
+        get.setHeader("Accept", "text/plain");
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode(), "Should have found the roster");
+            final String body = EntityUtils.toString(response.getEntity());
+            return body.isEmpty() ? Collections.emptyList() : List.of(body.split("\n"));
+        }
+    }
+}
@@ -6,8 +6,13 @@ import com.codahale.metrics.MetricRegistry;
 import com.google.inject.Binder;
 import com.google.inject.Provides;
 import com.hubspot.dropwizard.guicier.DropwizardAwareModule;
+import gov.cms.dpc.bluebutton.client.AdaptiveConcurrencyLimiter;
+import gov.cms.dpc.bluebutton.client.AsyncBlueButtonClient;
+import gov.cms.dpc.bluebutton.client.AsyncBlueButtonClientImpl;
 import gov.cms.dpc.bluebutton.client.BlueButtonClient;
 import gov.cms.dpc.bluebutton.client.BlueButtonClientImpl;
+import gov.cms.dpc.bluebutton.client.InstrumentedConnectionManager;
+import gov.cms.dpc.bluebutton.client.MBIHashService;
 import gov.cms.dpc.bluebutton.config.BBClientConfiguration;
 import gov.cms.dpc.bluebutton.config.BlueButtonBundleConfiguration;
 import gov.cms.dpc.bluebutton.exceptions.BlueButtonClientSetupException;
@@ -15,12 +20,19 @@ import gov.cms.dpc.bluebutton.health.BlueButtonHealthCheck;
 import io.dropwizard.Configuration;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.ssl.SSLContexts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Singleton;
 import javax.net.ssl.SSLContext;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -30,6 +42,7 @@ import java.nio.file.Paths;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.util.MissingResourceException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Guice module for building and injecting the {@link BlueButtonClient}.
@@ -62,8 +75,27 @@ public class BlueButtonClientModule<T extends Configuration & BlueButtonBundleCo
     }
 
     @Provides
-    public BlueButtonClient provideBlueButtonClient(IGenericClient fhirRestClient, MetricRegistry registry) {
-        return new BlueButtonClientImpl(fhirRestClient, this.bbClientConfiguration, registry);
+    public BlueButtonClient provideBlueButtonClient(IGenericClient fhirRestClient, MetricRegistry registry, MBIHashService hashService, AdaptiveConcurrencyLimiter limiter) {
+        return new BlueButtonClientImpl(fhirRestClient, this.bbClientConfiguration, registry, hashService, limiter);
+    }
+
+    @Provides
+    @Singleton
+    public AsyncBlueButtonClient provideAsyncBlueButtonClient(FhirContext fhirContext, SSLContext sslContext, MetricRegistry registry, AdaptiveConcurrencyLimiter limiter) {
+        return new AsyncBlueButtonClientImpl(fhirContext, sslContext, this.bbClientConfiguration, registry, limiter);
+    }
+
+    @Provides
+    @Singleton
+    public AdaptiveConcurrencyLimiter provideConcurrencyLimiter(MetricRegistry registry) {
+        // Shared by both clients, so that the limit covers all of the traffic to BlueButton
+        return new AdaptiveConcurrencyLimiter(this.bbClientConfiguration.getConcurrencyLimit(), registry);
+    }
+
+    @Provides
+    @Singleton
+    public MBIHashService provideMBIHashService(MetricRegistry registry) {
+        return new MBIHashService(this.bbClientConfiguration, registry);
     }
 
     @Provides
@@ -89,8 +121,21 @@ public class BlueButtonClientModule<T extends Configuration & BlueButtonBundleCo
     }
 
     @Provides
-    public HttpClient provideHttpClient(KeyStore keyStore) {
-        return buildMutualTlsClient(keyStore, this.bbClientConfiguration.getKeystore().getDefaultPassword().toCharArray());
+    @Singleton
+    public SSLContext provideSSLContext(KeyStore keyStore) {
+        return buildMutualTlsContext(keyStore, this.bbClientConfiguration.getKeystore().getDefaultPassword().toCharArray());
+    }
+
+    @Provides
+    @Singleton
+    public InstrumentedConnectionManager provideConnectionManager(SSLContext sslContext, MetricRegistry registry) {
+        return buildConnectionManager(sslContext, registry);
+    }
+
+    @Provides
+    @Singleton
+    public HttpClient provideHttpClient(InstrumentedConnectionManager connectionManager) {
+        return buildMutualTlsClient(connectionManager);
     }
 
     /**
@@ -125,13 +170,14 @@ public class BlueButtonClientModule<T extends Configuration & BlueButtonBundleCo
     }
 
     /**
-     * Helper function to build a special {@link HttpClient} capable of authenticating with the Blue Button server using a client TLS certificate
+     * Helper function to build the {@link SSLContext} used to authenticate with the Blue Button server using a client TLS certificate.
+     * The context is shared by the blocking and async clients, so that they resume each other's TLS sessions.
      *
      * @param keyStore     {@link KeyStore} containing, at a minimum, the client tls certificate and private key
      * @param keyStorePass password for keystore (default: "changeit")
-     * @return {@link HttpClient} compatible with HAPI FHIR TLS client
+     * @return {@link SSLContext} with the client certificate loaded
      */
-    private HttpClient buildMutualTlsClient(KeyStore keyStore, char[] keyStorePass) {
+    private SSLContext buildMutualTlsContext(KeyStore keyStore, char[] keyStorePass) {
         final SSLContext sslContext;
 
         try {
@@ -146,6 +192,39 @@ public class BlueButtonClientModule<T extends Configuration & BlueButtonBundleCo
             throw new BlueButtonClientSetupException(ex.getMessage(), ex);
         }
 
+        final BBClientConfiguration.ConnectionPoolConfiguration poolConfig = this.bbClientConfiguration.getConnectionPool();
+        sslContext.getClientSessionContext().setSessionCacheSize(poolConfig.getTlsSessionCacheSize());
+        sslContext.getClientSessionContext().setSessionTimeout(poolConfig.getTlsSessionTimeout());
+        return sslContext;
+    }
+
+    /**
+     * Helper function to build the pool of connections to the Blue Button server, sized from the {@link BBClientConfiguration.ConnectionPoolConfiguration}.
+     *
+     * @param sslContext {@link SSLContext} with the client tls certificate loaded
+     * @param registry   {@link MetricRegistry} to publish the connection pool metrics to
+     * @return {@link InstrumentedConnectionManager} for the {@link HttpClient}
+     */
+    private InstrumentedConnectionManager buildConnectionManager(SSLContext sslContext, MetricRegistry registry) {
+        final BBClientConfiguration.ConnectionPoolConfiguration poolConfig = this.bbClientConfiguration.getConnectionPool();
+        final InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext))
+                .build(), registry);
+        connectionManager.setMaxTotal(poolConfig.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(poolConfig.getMaxPerRoute());
+        connectionManager.setValidateAfterInactivity(poolConfig.getValidateAfterInactivity());
+        return connectionManager;
+    }
+
+    /**
+     * Helper function to build a special {@link HttpClient} capable of authenticating with the Blue Button server using a client TLS certificate.
+     * Connections are pooled and kept alive, and TLS sessions are cached, so that concurrent requests do not each pay for a new handshake.
+     *
+     * @param connectionManager {@link InstrumentedConnectionManager} holding the pooled mutual TLS connections
+     * @return {@link HttpClient} compatible with HAPI FHIR TLS client
+     */
+    private HttpClient buildMutualTlsClient(InstrumentedConnectionManager connectionManager) {
         // Configure the socket timeout for the connection, incl. ssl tunneling
         final BBClientConfiguration.TimeoutConfiguration timeouts = this.bbClientConfiguration.getTimeouts();
         RequestConfig requestConfig = RequestConfig.custom()
@@ -154,9 +233,21 @@ public class BlueButtonClientModule<T extends Configuration & BlueButtonBundleCo
                 .setSocketTimeout(timeouts.getSocketTimeout())
                 .build();
 
+        final BBClientConfiguration.ConnectionPoolConfiguration poolConfig = this.bbClientConfiguration.getConnectionPool();
+        // Use the server's Keep-Alive header when it sends one, otherwise fall back to the configured duration
+        final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : poolConfig.getKeepAlive();
+        };
+
         return HttpClients.custom()
                 .setDefaultRequestConfig(requestConfig)
-                .setSSLContext(sslContext)
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(poolConfig.getIdleTimeout(), TimeUnit.MILLISECONDS)
+                // Connections authenticated with the client certificate are otherwise tagged with its principal, and never reused by requests without one
+                .disableConnectionState()
                 .build();
     }
 }
@@ -0,0 +1,225 @@
+package gov.cms.dpc.bluebutton.client;
+
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import gov.cms.dpc.bluebutton.config.BBClientConfiguration;
+import gov.cms.dpc.bluebutton.exceptions.ConcurrencyLimitExceededException;
+import gov.cms.dpc.common.utils.MetricMaker;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of requests which are in flight to BlueButton at the same time.
+ * <p>
+ * The limit is adjusted with AIMD (additive increase, multiplicative decrease): each successful request grows the limit by 1/limit,
+ * so it grows by about one per round of requests, while each timeout, connection failure, 429 or 5xx response, or response slower than
+ * the latency threshold shrinks it by the backoff ratio. The limit is shrunk at most once per window: requests which were already in flight when it
+ * was last shrunk do not shrink it again, so a burst of failures across many requests only backs off once. Requests over the limit wait for a permit, and are rejected with a
+ * {@link ConcurrencyLimitExceededException} when they have waited longer than the max wait.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final long maxWait;
+    private final Deque<CompletableFuture<Permit>> waiters;
+    private final Meter rejectionMeter;
+    private final Meter dropMeter;
+
+    private double limit;
+    private int inFlight;
+    private boolean dropped;
+    private long lastDropNanos;
+
+    public AdaptiveConcurrencyLimiter(BBClientConfiguration.ConcurrencyLimitConfiguration config, MetricRegistry metricRegistry) {
+        this.minLimit = config.getMinLimit();
+        this.maxLimit = config.getMaxLimit();
+        this.backoffRatio = config.getBackoffRatio();
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getLatencyThreshold());
+        this.maxWait = config.getMaxWait();
+        this.limit = Math.max(minLimit, Math.min(maxLimit, config.getInitialLimit()));
+        this.inFlight = 0;
+        this.waiters = new ArrayDeque<>();
+
+        final var metricMaker = new MetricMaker(metricRegistry, AdaptiveConcurrencyLimiter.class);
+        this.rejectionMeter = metricMaker.registerMeter("rejections");
+        this.dropMeter = metricMaker.registerMeter("drops");
+        metricMaker.registerCachedGauge("limit", this::getLimit);
+        metricMaker.registerCachedGauge("inFlight", this::getInFlight);
+        metricMaker.registerCachedGauge("waiting", this::getWaiting);
+    }
+
+    /**
+     * Wait for a permit to call BlueButton. The calling thread is blocked until a permit is available.
+     *
+     * @return - {@link Permit} which must be released when the call completes
+     * @throws ConcurrencyLimitExceededException - if no permit became available within the max wait
+     */
+    public Permit acquire() {
+        try {
+            return acquireAsync().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Request a permit to call BlueButton, without blocking the calling thread.
+     *
+     * @return - {@link CompletableFuture} which completes with a {@link Permit} once one is available,
+     * or exceptionally with a {@link ConcurrencyLimitExceededException} if none became available within the max wait
+     */
+    public CompletableFuture<Permit> acquireAsync() {
+        final CompletableFuture<Permit> waiter;
+        synchronized (this) {
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit());
+            }
+            waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+        }
+
+        return waiter
+                .orTimeout(maxWait, TimeUnit.MILLISECONDS)
+                .handle((permit, error) -> {
+                    if (error == null) {
+                        return permit;
+                    }
+                    if (error instanceof TimeoutException) {
+                        synchronized (this) {
+                            waiters.remove(waiter);
+                        }
+                        rejectionMeter.mark();
+                        throw new ConcurrencyLimitExceededException(String.format("Waited more than %d ms for one of %d BlueButton permits", maxWait, getLimit()));
+                    }
+                    throw new CompletionException(error);
+                });
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiters.size();
+    }
+
+    /**
+     * Return a permit, and hand the freed up capacity to the waiting requests.
+     *
+     * @param error        - the error the call failed with, or null if it succeeded
+     * @param startNanos   - when the permit was granted
+     * @param latencyNanos - how long the call took
+     * @param used         - false if the permit was never used for a call, in which case the limit is left as is
+     */
+    private void release(Throwable error, long startNanos, long latencyNanos, boolean used) {
+        final List<CompletableFuture<Permit>> granted = new ArrayList<>();
+        synchronized (this) {
+            final boolean wasSaturated = inFlight >= limit / 2;
+            inFlight--;
+
+            if (used && (isOverloaded(error) || (error == null && latencyNanos > latencyThresholdNanos))) {
+                // Requests which started before the last drop were made under the old limit, which has already been backed off
+                if (!dropped || startNanos - lastDropNanos >= 0) {
+                    dropMeter.mark();
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    dropped = true;
+                    lastDropNanos = System.nanoTime();
+                }
+            } else if (used && error == null && wasSaturated) {
+                // Don't grow the limit when it isn't being used, otherwise it drifts up while traffic is light
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                granted.add(waiters.poll());
+            }
+        }
+
+        // Complete outside of the lock, since the waiters go on to make their requests
+        for (CompletableFuture<Permit> waiter : granted) {
+            final Permit permit = new Permit();
+            if (!waiter.complete(permit)) {
+                // The waiter timed out in the meantime, hand the permit to the next one
+                permit.discard();
+            }
+        }
+    }
+
+    /**
+     * Whether the error means BlueButton is struggling to keep up, as opposed to a problem with the request itself (e.g. a 404).
+     *
+     * @param error - the error the call failed with, or null if it succeeded
+     * @return - true if the limit should be decreased
+     */
+    private static boolean isOverloaded(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause == null) {
+            return false;
+        }
+        if (cause instanceof FhirClientConnectionException || cause instanceof IOException) {
+            return true;
+        }
+        if (cause instanceof BaseServerResponseException) {
+            final int status = ((BaseServerResponseException) cause).getStatusCode();
+            return status == 429 || status >= 500;
+        }
+        return false;
+    }
+
+    /**
+     * Permission to make a single call to BlueButton. Must be released exactly once, with the outcome of the call.
+     */
+    public class Permit {
+
+        private final long start;
+        private final AtomicBoolean released;
+
+        private Permit() {
+            this.start = System.nanoTime();
+            this.released = new AtomicBoolean(false);
+        }
+
+        /**
+         * Return the permit and adjust the limit based on the outcome of the call.
+         *
+         * @param error - the error the call failed with, or null if it succeeded
+         */
+        public void release(Throwable error) {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimiter.this.release(error, start, System.nanoTime() - start, true);
+            }
+        }
+
+        private void discard() {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimiter.this.release(null, start, 0, false);
+            }
+        }
+    }
+}
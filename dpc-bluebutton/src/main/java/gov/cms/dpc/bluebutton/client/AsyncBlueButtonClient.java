@@ -0,0 +1,58 @@
+package gov.cms.dpc.bluebutton.client;
+
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.CapabilityStatement;
+import org.hl7.fhir.dstu3.model.Patient;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking variant of {@link BlueButtonClient}.
+ * <p>
+ * Requests are issued without holding a thread while they are outstanding, and complete their {@link CompletionStage} once the response has been parsed.
+ * Failures complete the stage exceptionally with the same exceptions that the blocking client throws (e.g. {@link ResourceNotFoundException}).
+ */
+public interface AsyncBlueButtonClient {
+
+    CompletionStage<Patient> requestPatientFromServer(String beneId);
+
+    CompletionStage<Bundle> requestPatientFromServerByMbiHash(String mbiHash);
+
+    CompletionStage<Bundle> requestEOBFromServer(String beneId, DateRangeParam lastUpdated);
+
+    CompletionStage<Bundle> requestCoverageFromServer(String beneId, DateRangeParam lastUpdated);
+
+    CompletionStage<Bundle> requestNextBundleFromServer(Bundle bundle);
+
+    CompletionStage<CapabilityStatement> requestCapabilityStatement();
+
+    /**
+     * Emit the given bundle, followed by each of its next pages.
+     * The next page is only requested once the previous one has been emitted.
+     *
+     * @param firstPage - {@link CompletionStage} of the first {@link Bundle}
+     * @return - {@link Flowable} of every page of the bundle
+     */
+    default Flowable<Bundle> requestAllPages(CompletionStage<Bundle> firstPage) {
+        return Single.<Bundle>create(emitter -> firstPage.whenComplete((bundle, error) -> {
+            if (error != null) {
+                emitter.onError(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                emitter.onSuccess(bundle);
+            }
+        }))
+                .toFlowable()
+                .concatMap(bundle -> {
+                    if (bundle.getLink(Bundle.LINK_NEXT) == null) {
+                        return Flowable.just(bundle);
+                    }
+                    return Flowable.just(bundle)
+                            .concatWith(Flowable.defer(() -> requestAllPages(requestNextBundleFromServer(bundle))));
+                });
+    }
+}
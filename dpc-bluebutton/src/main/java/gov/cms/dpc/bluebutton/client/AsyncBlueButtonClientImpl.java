@@ -0,0 +1,228 @@
+package gov.cms.dpc.bluebutton.client;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import gov.cms.dpc.bluebutton.config.BBClientConfiguration;
+import gov.cms.dpc.common.utils.MetricMaker;
+import gov.cms.dpc.fhir.DPCIdentifierSystem;
+import org.hl7.fhir.dstu3.model.*;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * {@link AsyncBlueButtonClient} built on the non-blocking JDK {@link HttpClient}.
+ * <p>
+ * Requests are sent over the same mutual TLS {@link SSLContext} as the blocking client, and responses are parsed with HAPI.
+ * Calls are reported to the same timers and exception meters as {@link BlueButtonClientImpl}.
+ */
+public class AsyncBlueButtonClientImpl implements AsyncBlueButtonClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncBlueButtonClientImpl.class);
+    private static final String FHIR_JSON = "application/fhir+json";
+
+    private final HttpClient client;
+    private final FhirContext fhirContext;
+    private final BBClientConfiguration config;
+    private final String serverBase;
+    private final Map<String, Timer> timers;
+    private final Map<String, Meter> exceptionMeters;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public AsyncBlueButtonClientImpl(FhirContext fhirContext, SSLContext sslContext, BBClientConfiguration config, MetricRegistry metricRegistry, AdaptiveConcurrencyLimiter limiter) {
+        this.fhirContext = fhirContext;
+        this.limiter = limiter;
+        this.config = config;
+        this.serverBase = config.getServerBaseUrl().endsWith("/") ? config.getServerBaseUrl() : config.getServerBaseUrl() + "/";
+
+        final BBClientConfiguration.TimeoutConfiguration timeouts = config.getTimeouts();
+        // The selector thread does the waiting, these threads only parse the responses
+        this.client = HttpClient.newBuilder()
+                .sslContext(sslContext)
+                .connectTimeout(Duration.ofMillis(timeouts.getConnectionTimeout()))
+                .executor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                    final Thread thread = new Thread(runnable, "bb-async-client");
+                    thread.setDaemon(true);
+                    return thread;
+                }))
+                .build();
+
+        final var metricMaker = new MetricMaker(metricRegistry, BlueButtonClientImpl.class);
+        this.exceptionMeters = metricMaker.registerMeters(BlueButtonClientImpl.REQUEST_METRICS);
+        this.timers = metricMaker.registerTimers(BlueButtonClientImpl.REQUEST_METRICS);
+    }
+
+    @Override
+    public CompletionStage<Patient> requestPatientFromServer(String beneId) {
+        logger.debug("Attempting to fetch patient ID {} from baseURL: {}", beneId, serverBase);
+        return instrumentCall(BlueButtonClientImpl.REQUEST_PATIENT_METRIC, () ->
+                request(URI.create(serverBase + "Patient/" + encode(beneId)), Patient.class));
+    }
+
+    @Override
+    public CompletionStage<Bundle> requestPatientFromServerByMbiHash(String mbiHash) {
+        logger.debug("Attempting to fetch patient with MBI hash {} from baseURL: {}", mbiHash, serverBase);
+        final List<String> query = List.of(param("identifier", DPCIdentifierSystem.MBI_HASH.getSystem() + "|" + mbiHash));
+        return instrumentCall(BlueButtonClientImpl.REQUEST_PATIENT_METRIC, () ->
+                request(searchURI("Patient", query), Bundle.class));
+    }
+
+    @Override
+    public CompletionStage<Bundle> requestEOBFromServer(String beneId, DateRangeParam lastUpdated) {
+        logger.debug("Attempting to fetch EOBs for patient ID {} from baseURL: {}", beneId, serverBase);
+        final List<String> criteria = new ArrayList<>();
+        criteria.add(param("patient", beneId));
+        criteria.add(param("excludeSAMHSA", "true"));
+        return instrumentCall(BlueButtonClientImpl.REQUEST_EOB_METRIC, () ->
+                fetchBundle("ExplanationOfBenefit", criteria, beneId, lastUpdated));
+    }
+
+    @Override
+    public CompletionStage<Bundle> requestCoverageFromServer(String beneId, DateRangeParam lastUpdated) {
+        logger.debug("Attempting to fetch Coverage for patient ID {} from baseURL: {}", beneId, serverBase);
+        final List<String> criteria = new ArrayList<>();
+        criteria.add(param("beneficiary", "Patient/" + beneId));
+        return instrumentCall(BlueButtonClientImpl.REQUEST_COVERAGE_METRIC, () ->
+                fetchBundle("Coverage", criteria, beneId, lastUpdated));
+    }
+
+    @Override
+    public CompletionStage<Bundle> requestNextBundleFromServer(Bundle bundle) {
+        return instrumentCall(BlueButtonClientImpl.REQUEST_NEXT_METRIC, () -> {
+            final var nextURL = bundle.getLink(Bundle.LINK_NEXT).getUrl();
+            logger.debug("Attempting to fetch next bundle from url: {}", nextURL);
+            return request(URI.create(nextURL), Bundle.class);
+        });
+    }
+
+    @Override
+    public CompletionStage<CapabilityStatement> requestCapabilityStatement() {
+        return instrumentCall(BlueButtonClientImpl.REQUEST_CAPABILITIES_METRIC, () ->
+                request(URI.create(serverBase + "metadata"), CapabilityStatement.class));
+    }
+
+    /**
+     * Search BlueButton for a FHIR Bundle. Limits the returned size by resourcesPerRequest.
+     *
+     * @param resourceType - FHIR Resource type to search for
+     * @param criteria - Encoded search parameters that match the patientID
+     * @param patientID - id of patient
+     * @param lastUpdated - range of last updated times to restrict the resources to, or null for all
+     * @return {@link CompletionStage} of the FHIR Bundle resource
+     */
+    private CompletionStage<Bundle> fetchBundle(String resourceType, List<String> criteria, String patientID, DateRangeParam lastUpdated) {
+        if (lastUpdated != null) {
+            for (IQueryParameterType dateParam : lastUpdated.getValuesAsQueryTokens()) {
+                criteria.add(param("_lastUpdated", dateParam.getValueAsQueryToken(fhirContext)));
+            }
+        }
+        criteria.add(param("_count", String.valueOf(config.getResourcesCount())));
+
+        return request(searchURI(resourceType, criteria), Bundle.class)
+                .thenApply(bundle -> {
+                    // Case where patientID does not exist at all
+                    if (!bundle.hasEntry() && lastUpdated == null) {
+                        throw new ResourceNotFoundException("No patient found with ID: " + patientID);
+                    }
+                    return bundle;
+                });
+    }
+
+    private <T extends IBaseResource> CompletionStage<T> request(URI uri, Class<T> resourceClass) {
+        final HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Accept", FHIR_JSON)
+                .timeout(Duration.ofMillis(config.getTimeouts().getSocketTimeout()))
+                .GET()
+                .build();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(response -> parseResponse(response, resourceClass));
+    }
+
+    private <T extends IBaseResource> T parseResponse(HttpResponse<String> response, Class<T> resourceClass) {
+        final int status = response.statusCode();
+        if (status == 404) {
+            throw new ResourceNotFoundException(response.uri().toString());
+        }
+        if (status >= 400) {
+            throw BaseServerResponseException.newInstance(status, response.body());
+        }
+
+        // Servers may ignore the Accept header, so go by what was actually returned
+        final EncodingEnum encoding = response.headers()
+                .firstValue("Content-Type")
+                .map(EncodingEnum::forContentType)
+                .orElse(null);
+        return (encoding == null ? EncodingEnum.JSON : encoding)
+                .newParser(fhirContext)
+                .parseResource(resourceClass, response.body());
+    }
+
+    private URI searchURI(String resourceType, List<String> params) {
+        return URI.create(serverBase + resourceType + "?" + String.join("&", params));
+    }
+
+    private static String param(String name, String value) {
+        return encode(name) + "=" + encode(value);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Instrument an asynchronous call to Blue Button. The call is made once the {@link AdaptiveConcurrencyLimiter} grants a permit,
+     * without blocking a thread while it waits. The timer runs from then until the returned stage completes.
+     *
+     * @param metricName - The name of the method
+     * @param supplier - the call as lambda to instrumented
+     * @param <T> - the type returned by the call
+     * @return the stage returned by the supplier (i.e. call)
+     */
+    private <T> CompletionStage<T> instrumentCall(String metricName, Supplier<CompletionStage<T>> supplier) {
+        final var exceptionMeter = exceptionMeters.get(metricName);
+        return limiter.acquireAsync()
+                .thenCompose(permit -> {
+                    final var timerContext = timers.get(metricName).time();
+                    final CompletionStage<T> stage;
+                    try {
+                        stage = supplier.get();
+                    } catch (RuntimeException ex) {
+                        permit.release(ex);
+                        timerContext.stop();
+                        throw ex;
+                    }
+                    return stage.whenComplete((result, error) -> {
+                        permit.release(error);
+                        timerContext.stop();
+                    });
+                })
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        exceptionMeter.mark();
+                    }
+                });
+    }
+}
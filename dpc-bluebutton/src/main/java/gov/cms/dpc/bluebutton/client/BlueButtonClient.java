@@ -1,12 +1,15 @@
 package gov.cms.dpc.bluebutton.client;
 
 
+import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import org.hl7.fhir.dstu3.model.Bundle;
 import org.hl7.fhir.dstu3.model.CapabilityStatement;
 import org.hl7.fhir.dstu3.model.Patient;
 
 import java.security.GeneralSecurityException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 
 public interface BlueButtonClient {
@@ -19,12 +22,18 @@ public interface BlueButtonClient {
 
     Bundle requestEOBFromServer(String beneId) throws ResourceNotFoundException;
 
+    Bundle requestEOBFromServer(String beneId, DateRangeParam lastUpdated) throws ResourceNotFoundException;
+
     Bundle requestCoverageFromServer(String beneId) throws ResourceNotFoundException;
 
+    Bundle requestCoverageFromServer(String beneId, DateRangeParam lastUpdated) throws ResourceNotFoundException;
+
     Bundle requestNextBundleFromServer(Bundle bundle) throws ResourceNotFoundException;
 
     CapabilityStatement requestCapabilityStatement() throws ResourceNotFoundException;
 
     String hashMbi(String mbi) throws GeneralSecurityException;
+
+    CompletableFuture<Void> prehashMbis(Collection<String> mbis);
 }
 
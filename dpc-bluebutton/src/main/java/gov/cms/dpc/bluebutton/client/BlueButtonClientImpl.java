@@ -5,6 +5,7 @@ import ca.uhn.fhir.rest.gclient.ICriterion;
 import ca.uhn.fhir.rest.gclient.IParam;
 import ca.uhn.fhir.rest.gclient.IQuery;
 import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -12,32 +13,27 @@ import com.codahale.metrics.Timer;
 import gov.cms.dpc.bluebutton.config.BBClientConfiguration;
 import gov.cms.dpc.common.utils.MetricMaker;
 import gov.cms.dpc.fhir.DPCIdentifierSystem;
-import org.apache.commons.lang3.StringUtils;
-import org.bouncycastle.util.encoders.Hex;
 import org.hl7.fhir.dstu3.model.*;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
 import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.KeySpec;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
 
 public class BlueButtonClientImpl implements BlueButtonClient {
 
-    private static final String REQUEST_PATIENT_METRIC = "requestPatient";
-    private static final String REQUEST_EOB_METRIC = "requestEOB";
-    private static final String REQUEST_COVERAGE_METRIC = "requestCoverage";
-    private static final String REQUEST_NEXT_METRIC = "requestNextBundle";
-    private static final String REQUEST_CAPABILITIES_METRIC = "requestCapabilities";
-    private static final List<String> REQUEST_METRICS = List.of(REQUEST_PATIENT_METRIC, REQUEST_EOB_METRIC, REQUEST_COVERAGE_METRIC, REQUEST_NEXT_METRIC, REQUEST_CAPABILITIES_METRIC);
+    // Shared with the AsyncBlueButtonClientImpl, so both clients report to the same timers
+    static final String REQUEST_PATIENT_METRIC = "requestPatient";
+    static final String REQUEST_EOB_METRIC = "requestEOB";
+    static final String REQUEST_COVERAGE_METRIC = "requestCoverage";
+    static final String REQUEST_NEXT_METRIC = "requestNextBundle";
+    static final String REQUEST_CAPABILITIES_METRIC = "requestCapabilities";
+    static final List<String> REQUEST_METRICS = List.of(REQUEST_PATIENT_METRIC, REQUEST_EOB_METRIC, REQUEST_COVERAGE_METRIC, REQUEST_NEXT_METRIC, REQUEST_CAPABILITIES_METRIC);
 
     private static final Logger logger = LoggerFactory.getLogger(BlueButtonClientImpl.class);
 
@@ -45,25 +41,21 @@ public class BlueButtonClientImpl implements BlueButtonClient {
     private BBClientConfiguration config;
     private Map<String, Timer> timers;
     private Map<String, Meter> exceptionMeters;
-    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
-    private byte[] bfdHashPepper;
-    private int bfdHashIter;
+    private MBIHashService hashService;
+    private AdaptiveConcurrencyLimiter limiter;
 
     private static String formBeneficiaryID(String fromPatientID) {
         return "Patient/" + fromPatientID;
     }
 
-    public BlueButtonClientImpl(IGenericClient client, BBClientConfiguration config, MetricRegistry metricRegistry) {
+    public BlueButtonClientImpl(IGenericClient client, BBClientConfiguration config, MetricRegistry metricRegistry, MBIHashService hashService, AdaptiveConcurrencyLimiter limiter) {
         this.client = client;
         this.config = config;
+        this.hashService = hashService;
+        this.limiter = limiter;
         final var metricMaker = new MetricMaker(metricRegistry, BlueButtonClientImpl.class);
         this.exceptionMeters = metricMaker.registerMeters(REQUEST_METRICS);
         this.timers = metricMaker.registerTimers(REQUEST_METRICS);
-
-        bfdHashIter = config.getBfdHashIter();
-        if (config.getBfdHashPepper() != null) {
-            bfdHashPepper = Hex.decode(config.getBfdHashPepper());
-        }
     }
 
     /**
@@ -131,6 +123,21 @@ public class BlueButtonClientImpl implements BlueButtonClient {
      */
     @Override
     public Bundle requestEOBFromServer(String patientID) {
+        return requestEOBFromServer(patientID, null);
+    }
+
+    /**
+     * Queries Blue Button server for Explanations of Benefit associated with a given patient, that were last updated within the given range.
+     *
+     * Unlike the unfiltered request, an empty Bundle is returned as is, since the patient may simply have no recent updates.
+     *
+     * @param patientID The requested patient's ID
+     * @param lastUpdated The range of last updated times to fetch, or null for all
+     * @return {@link Bundle} Containing a number (possibly 0) of {@link ExplanationOfBenefit} objects
+     * @throws ResourceNotFoundException when the requested patient does not exist
+     */
+    @Override
+    public Bundle requestEOBFromServer(String patientID, DateRangeParam lastUpdated) {
         logger.debug("Attempting to fetch EOBs for patient ID {} from baseURL: {}", patientID, client.getServerBase());
 
         List<ICriterion<? extends IParam>> criteria = new ArrayList<ICriterion<? extends IParam>>();
@@ -140,7 +147,8 @@ public class BlueButtonClientImpl implements BlueButtonClient {
         return instrumentCall(REQUEST_EOB_METRIC, () ->
                 fetchBundle(ExplanationOfBenefit.class,
                         criteria,
-                        patientID));
+                        patientID,
+                        lastUpdated));
     }
 
     /**
@@ -162,13 +170,28 @@ public class BlueButtonClientImpl implements BlueButtonClient {
      */
     @Override
     public Bundle requestCoverageFromServer(String patientID) throws ResourceNotFoundException {
+        return requestCoverageFromServer(patientID, null);
+    }
+
+    /**
+     * Queries Blue Button server for Coverage associated with a given patient, that was last updated within the given range.
+     *
+     * Unlike the unfiltered request, an empty Bundle is returned as is, since the patient may simply have no recent updates.
+     *
+     * @param patientID The requested patient's ID
+     * @param lastUpdated The range of last updated times to fetch, or null for all
+     * @return {@link Bundle} Containing a number (possibly 0) of {@link Coverage} objects
+     * @throws ResourceNotFoundException when the requested patient does not exist
+     */
+    @Override
+    public Bundle requestCoverageFromServer(String patientID, DateRangeParam lastUpdated) throws ResourceNotFoundException {
         logger.debug("Attempting to fetch Coverage for patient ID {} from baseURL: {}", patientID, client.getServerBase());
 
         List<ICriterion<? extends IParam>> criteria = new ArrayList<ICriterion<? extends IParam>>();
         criteria.add(Coverage.BENEFICIARY.hasId(formBeneficiaryID(patientID)));
 
         return instrumentCall(REQUEST_COVERAGE_METRIC, () ->
-                fetchBundle(Coverage.class, criteria, patientID));
+                fetchBundle(Coverage.class, criteria, patientID, lastUpdated));
     }
 
     @Override
@@ -193,22 +216,12 @@ public class BlueButtonClientImpl implements BlueButtonClient {
 
     @Override
     public String hashMbi(String mbi) throws GeneralSecurityException {
-        if (StringUtils.isBlank(mbi)) {
-            logger.error("Could not generate hash; provided MBI string was null or empty");
-            return "";
-        }
-
-        final SecretKeyFactory instance;
-        try {
-            instance = SecretKeyFactory.getInstance(HASH_ALGORITHM);
-        } catch (NoSuchAlgorithmException e) {
-            logger.error("Secret key factory could not be created due to invalid algorithm: {}", HASH_ALGORITHM);
-            throw new GeneralSecurityException(e);
-        }
+        return hashService.hashMbi(mbi);
+    }
 
-        KeySpec keySpec = new PBEKeySpec(mbi.toCharArray(), bfdHashPepper, bfdHashIter, 256);
-        SecretKey secretKey = instance.generateSecret(keySpec);
-        return Hex.toHexString(secretKey.getEncoded());
+    @Override
+    public CompletableFuture<Void> prehashMbis(Collection<String> mbis) {
+        return hashService.prehashMbis(mbis);
     }
 
     /**
@@ -217,11 +230,13 @@ public class BlueButtonClientImpl implements BlueButtonClient {
      * @param resourceClass - FHIR Resource class
      * @param criteria - For the resource class the correct criteria that match the patientID
      * @param patientID - id of patient
+     * @param lastUpdated - range of last updated times to restrict the resources to, or null for all
      * @return FHIR Bundle resource
      */
     private <T extends IBaseResource> Bundle fetchBundle(Class<T> resourceClass,
                                                          List<ICriterion<? extends IParam>> criteria,
-                                                         String patientID) {
+                                                         String patientID,
+                                                         DateRangeParam lastUpdated) {
         IQuery<IBaseBundle> query = client.search()
                 .forResource(resourceClass)
                 .where(criteria.remove(0));
@@ -229,20 +244,23 @@ public class BlueButtonClientImpl implements BlueButtonClient {
         for (ICriterion<? extends IParam> criterion : criteria) {
             query = query.and(criterion);
         }
+        if (lastUpdated != null) {
+            query = query.lastUpdated(lastUpdated);
+        }
 
         final Bundle bundle = query.count(config.getResourcesCount())
                 .returnBundle(Bundle.class)
                 .execute();
 
         // Case where patientID does not exist at all
-        if(!bundle.hasEntry()) {
+        if(!bundle.hasEntry() && lastUpdated == null) {
             throw new ResourceNotFoundException("No patient found with ID: " + patientID);
         }
         return bundle;
     }
 
     /**
-     * Instrument a call to Blue Button.
+     * Instrument a call to Blue Button. The call waits for a permit from the {@link AdaptiveConcurrencyLimiter} before it is made.
      *
      * @param metricName - The name of the method
      * @param supplier - the call as lambda to instrumented
@@ -250,14 +268,26 @@ public class BlueButtonClientImpl implements BlueButtonClient {
      * @return the value returned by the supplier (i.e. call)
      */
     private <T> T instrumentCall(String metricName, Supplier<T> supplier) {
+        final var exceptionMeter = exceptionMeters.get(metricName);
+        final AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+            permit = limiter.acquire();
+        } catch(Exception ex) {
+            exceptionMeter.mark();
+            throw ex;
+        }
+
         final var timerContext = timers.get(metricName).time();
+        Exception failure = null;
         try {
             return supplier.get();
         } catch(Exception ex) {
-            final var exceptionMeter = exceptionMeters.get(metricName);
+            failure = ex;
             exceptionMeter.mark();
             throw ex;
         } finally {
+            // Always returned, even when the call fails with an Error, so that the limiter never runs out of permits
+            permit.release(failure);
             timerContext.stop();
         }
     }
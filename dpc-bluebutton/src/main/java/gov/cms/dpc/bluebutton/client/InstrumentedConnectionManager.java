@@ -0,0 +1,86 @@
+package gov.cms.dpc.bluebutton.client;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import gov.cms.dpc.common.utils.MetricMaker;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PoolingHttpClientConnectionManager} which reports the state of the pool to the {@link MetricRegistry}.
+ * <p>
+ * Saturation is published as gauges of the leased, available and pending connections, lease waits as a timer,
+ * and connection churn as meters of the connections which are opened and discarded.
+ */
+public class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private final Timer leaseTimer;
+    private final Meter leaseTimeoutMeter;
+    private final Meter openedMeter;
+    private final Meter discardedMeter;
+
+    public InstrumentedConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry, MetricRegistry metricRegistry) {
+        super(socketFactoryRegistry);
+
+        final var metricMaker = new MetricMaker(metricRegistry, InstrumentedConnectionManager.class);
+        this.leaseTimer = metricMaker.registerTimer("leaseWait");
+        this.leaseTimeoutMeter = metricMaker.registerMeter("leaseTimeouts");
+        this.openedMeter = metricMaker.registerMeter("connectionsOpened");
+        this.discardedMeter = metricMaker.registerMeter("connectionsDiscarded");
+        metricMaker.registerCachedGauge("leasedConnections", () -> getTotalStats().getLeased());
+        metricMaker.registerCachedGauge("availableConnections", () -> getTotalStats().getAvailable());
+        metricMaker.registerCachedGauge("pendingConnections", () -> getTotalStats().getPending());
+        metricMaker.registerCachedGauge("maxConnections", () -> getTotalStats().getMax());
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        final ConnectionRequest request = super.requestConnection(route, state);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                final var timerContext = leaseTimer.time();
+                try {
+                    return request.get(timeout, tunit);
+                } catch (ConnectionPoolTimeoutException e) {
+                    leaseTimeoutMeter.mark();
+                    throw e;
+                } finally {
+                    timerContext.stop();
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+        // Only called when the pool has no reusable connection for the route
+        openedMeter.mark();
+        super.connect(managedConn, route, connectTimeout, context);
+    }
+
+    @Override
+    public void releaseConnection(HttpClientConnection managedConn, Object state, long keepalive, TimeUnit tunit) {
+        // Connections which cannot be reused are closed before they are handed back
+        if (!managedConn.isOpen()) {
+            discardedMeter.mark();
+        }
+        super.releaseConnection(managedConn, state, keepalive, tunit);
+    }
+}
@@ -0,0 +1,185 @@
+package gov.cms.dpc.bluebutton.client;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import gov.cms.dpc.bluebutton.config.BBClientConfiguration;
+import gov.cms.dpc.common.utils.MetricMaker;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.KeySpec;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes Medicare Beneficiary Identifiers (MBIs) the same way that BlueButton does, so that patients can be searched for by MBI hash.
+ * <p>
+ * The PBKDF2 derivation is intentionally expensive, so computed hashes are kept in a bounded cache and {@link SecretKeyFactory} instances are pooled.
+ * The hashes are computed on a dedicated pool of threads, and MBIs which have not been used for a while are dropped from the cache.
+ * Callers which know their MBIs ahead of time can use {@link MBIHashService#prehashMbis(Collection)} to compute the hashes in the background.
+ */
+public class MBIHashService implements Managed {
+
+    private static final Logger logger = LoggerFactory.getLogger(MBIHashService.class);
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    private final byte[] bfdHashPepper;
+    private final int bfdHashIter;
+    private final AsyncCache<String, String> cache;
+    private final Queue<SecretKeyFactory> factoryPool;
+    private final ExecutorService executor;
+    private final Timer hashTimer;
+
+    public MBIHashService(BBClientConfiguration config, MetricRegistry metricRegistry) {
+        this.bfdHashIter = config.getBfdHashIter();
+        this.bfdHashPepper = config.getBfdHashPepper() == null ? null : Hex.decode(config.getBfdHashPepper());
+        this.factoryPool = new ConcurrentLinkedQueue<>();
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            final Thread thread = new Thread(runnable, "mbi-hash-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getBfdHashCacheSize())
+                .expireAfterAccess(config.getBfdHashCacheExpiry(), TimeUnit.MILLISECONDS)
+                .executor(this.executor)
+                .buildAsync();
+
+        final var metricMaker = new MetricMaker(metricRegistry, MBIHashService.class);
+        this.hashTimer = metricMaker.registerTimer("hashMbi");
+        metricMaker.registerCachedGauge("cacheSize", () -> this.cache.synchronous().estimatedSize());
+    }
+
+    @Override
+    public void start() {
+        // Not used
+    }
+
+    @Override
+    public void stop() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Hash the given MBI. Returns the cached hash, if the MBI has been hashed before.
+     *
+     * @param mbi - {@link String} MBI to hash
+     * @return - {@link String} hex encoded hash of the MBI, or an empty string if the MBI is blank
+     * @throws GeneralSecurityException - if the hash cannot be computed
+     */
+    public String hashMbi(String mbi) throws GeneralSecurityException {
+        if (StringUtils.isBlank(mbi)) {
+            logger.error("Could not generate hash; provided MBI string was null or empty");
+            return "";
+        }
+
+        try {
+            return hashMbiAsync(mbi).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof HashingException) {
+                throw ((HashingException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hash the given MBIs in the background, so that subsequent calls to {@link MBIHashService#hashMbi(String)} are served from the cache.
+     * Failures are not reported here, they will be raised again when the MBI is hashed by the caller.
+     *
+     * @param mbis - {@link Collection} of MBIs to hash
+     * @return - {@link CompletableFuture} which completes when all of the MBIs have been hashed
+     */
+    public CompletableFuture<Void> prehashMbis(Collection<String> mbis) {
+        final CompletableFuture<?>[] futures = mbis.stream()
+                .filter(mbi -> !StringUtils.isBlank(mbi))
+                .map(mbi -> hashMbiAsync(mbi).handle((hash, e) -> {
+                    if (e != null) {
+                        logger.error("Unable to prehash MBI", e);
+                    }
+                    return hash;
+                }))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Get the hash of the MBI from the cache, or start computing it on the hashing pool.
+     * Concurrent requests for the same MBI share a single computation, which runs outside of the cache, so it does not block requests for other MBIs.
+     * Failed computations are dropped from the cache.
+     *
+     * @param mbi - {@link String} MBI to hash
+     * @return - {@link CompletableFuture} of the hex encoded hash of the MBI
+     */
+    private CompletableFuture<String> hashMbiAsync(String mbi) {
+        return this.cache.get(mbi, (key, hashExecutor) -> CompletableFuture.supplyAsync(() -> computeHash(key), hashExecutor));
+    }
+
+    private String computeHash(String mbi) {
+        final SecretKeyFactory factory = borrowFactory();
+        final var timerContext = hashTimer.time();
+        try {
+            KeySpec keySpec = new PBEKeySpec(mbi.toCharArray(), bfdHashPepper, bfdHashIter, 256);
+            SecretKey secretKey = factory.generateSecret(keySpec);
+            return Hex.toHexString(secretKey.getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new HashingException(e);
+        } finally {
+            timerContext.stop();
+            this.factoryPool.offer(factory);
+        }
+    }
+
+    /**
+     * Get a {@link SecretKeyFactory} from the pool, or create a new one if all of them are in use.
+     * {@link SecretKeyFactory} is not thread-safe, so each instance is only used by one thread at a time.
+     *
+     * @return - {@link SecretKeyFactory} for the hash algorithm
+     */
+    private SecretKeyFactory borrowFactory() {
+        final SecretKeyFactory pooled = this.factoryPool.poll();
+        if (pooled != null) {
+            return pooled;
+        }
+        try {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Secret key factory could not be created due to invalid algorithm: {}", HASH_ALGORITHM);
+            throw new HashingException(new GeneralSecurityException(e));
+        }
+    }
+
+    /**
+     * Unchecked wrapper, which allows a {@link GeneralSecurityException} to pass through the cache loader
+     */
+    private static class HashingException extends RuntimeException {
+        public static final long serialVersionUID = 42L;
+
+        HashingException(GeneralSecurityException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized GeneralSecurityException getCause() {
+            return (GeneralSecurityException) super.getCause();
+        }
+    }
+}
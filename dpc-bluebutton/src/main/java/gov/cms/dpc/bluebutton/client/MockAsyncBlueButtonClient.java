@@ -0,0 +1,61 @@
+package gov.cms.dpc.bluebutton.client;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.CapabilityStatement;
+import org.hl7.fhir.dstu3.model.Patient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * {@link AsyncBlueButtonClient} which serves the same sample data as the {@link MockBlueButtonClient}, as already completed stages.
+ */
+public class MockAsyncBlueButtonClient implements AsyncBlueButtonClient {
+
+    private final MockBlueButtonClient client;
+
+    public MockAsyncBlueButtonClient(FhirContext fhirContext) {
+        this.client = new MockBlueButtonClient(fhirContext);
+    }
+
+    @Override
+    public CompletionStage<Patient> requestPatientFromServer(String beneId) {
+        return complete(() -> client.requestPatientFromServer(beneId));
+    }
+
+    @Override
+    public CompletionStage<Bundle> requestPatientFromServerByMbiHash(String mbiHash) {
+        return complete(() -> client.requestPatientFromServerByMbiHash(mbiHash));
+    }
+
+    @Override
+    public CompletionStage<Bundle> requestEOBFromServer(String beneId, DateRangeParam lastUpdated) {
+        return complete(() -> client.requestEOBFromServer(beneId, lastUpdated));
+    }
+
+    @Override
+    public CompletionStage<Bundle> requestCoverageFromServer(String beneId, DateRangeParam lastUpdated) {
+        return complete(() -> client.requestCoverageFromServer(beneId, lastUpdated));
+    }
+
+    @Override
+    public CompletionStage<Bundle> requestNextBundleFromServer(Bundle bundle) {
+        return complete(() -> client.requestNextBundleFromServer(bundle));
+    }
+
+    @Override
+    public CompletionStage<CapabilityStatement> requestCapabilityStatement() {
+        return complete(client::requestCapabilityStatement);
+    }
+
+    private static <T> CompletionStage<T> complete(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.completedFuture(supplier.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -4,6 +4,7 @@ package gov.cms.dpc.bluebutton.client;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.PerformanceOptionsEnum;
 import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.hl7.fhir.dstu3.model.Bundle;
@@ -16,8 +17,10 @@ import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class MockBlueButtonClient implements BlueButtonClient {
 
@@ -75,11 +78,23 @@ public class MockBlueButtonClient implements BlueButtonClient {
         return loadBundle(SAMPLE_EOB_PATH_PREFIX, beneId);
     }
 
+    @Override
+    public Bundle requestEOBFromServer(String beneId, DateRangeParam lastUpdated) throws ResourceNotFoundException {
+        // The sample data is returned as is, regardless of when it was last updated
+        return requestEOBFromServer(beneId);
+    }
+
     @Override
     public Bundle requestCoverageFromServer(String beneId) throws ResourceNotFoundException {
         return loadBundle(SAMPLE_COVERAGE_PATH_PREFIX, beneId);
     }
 
+    @Override
+    public Bundle requestCoverageFromServer(String beneId, DateRangeParam lastUpdated) throws ResourceNotFoundException {
+        // The sample data is returned as is, regardless of when it was last updated
+        return requestCoverageFromServer(beneId);
+    }
+
     @Override
     public Bundle requestNextBundleFromServer(Bundle bundle) throws ResourceNotFoundException {
         // This is code is very specific to the bb-test-data directory and its contents
@@ -108,6 +123,12 @@ public class MockBlueButtonClient implements BlueButtonClient {
         return MBI_HASH_MAP.get(mbi);
     }
 
+    @Override
+    public CompletableFuture<Void> prehashMbis(Collection<String> mbis) {
+        // Mock hashes are static, nothing to compute
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Read a Bundle FHIR Resource from jar's Bundle resource file.
      *
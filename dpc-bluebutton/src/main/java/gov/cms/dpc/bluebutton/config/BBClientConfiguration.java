@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
@@ -22,6 +24,16 @@ public class BBClientConfiguration {
     @JsonProperty("timeouts")
     private TimeoutConfiguration timeouts = new TimeoutConfiguration();
 
+    @Valid
+    @NotNull
+    @JsonProperty("connectionPool")
+    private ConnectionPoolConfiguration connectionPool = new ConnectionPoolConfiguration();
+
+    @Valid
+    @NotNull
+    @JsonProperty("concurrencyLimit")
+    private ConcurrencyLimitConfiguration concurrencyLimit = new ConcurrencyLimitConfiguration();
+
     @Min(10)
     @Max(1000)
     private int resourcesCount = 100;
@@ -36,11 +48,27 @@ public class BBClientConfiguration {
 
     private int bfdHashIter;
 
+    // The max number of MBI hashes to keep in memory
+    @Min(0)
+    private int bfdHashCacheSize = 100000;
+
+    // How long in milliseconds an MBI hash is kept after it was last used, so that MBIs are not held in memory for the life of the process
+    @Min(1)
+    private int bfdHashCacheExpiry = 600000;
+
 
     public TimeoutConfiguration getTimeouts() {
         return timeouts;
     }
 
+    public ConnectionPoolConfiguration getConnectionPool() {
+        return connectionPool;
+    }
+
+    public ConcurrencyLimitConfiguration getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
     public int getResourcesCount() { return resourcesCount; }
 
     public KeystoreConfiguration getKeystore() {
@@ -71,6 +99,10 @@ public class BBClientConfiguration {
 
     public int getBfdHashIter() { return bfdHashIter; }
 
+    public int getBfdHashCacheSize() { return bfdHashCacheSize; }
+
+    public int getBfdHashCacheExpiry() { return bfdHashCacheExpiry; }
+
     public static class TimeoutConfiguration {
 
         private Integer connectionTimeout;
@@ -106,6 +138,165 @@ public class BBClientConfiguration {
         }
     }
 
+    public static class ConnectionPoolConfiguration {
+
+        // Max number of connections open to all BlueButton hosts
+        @Min(1)
+        private int maxTotal = 50;
+        // Max number of connections open to a single BlueButton host
+        @Min(1)
+        private int maxPerRoute = 20;
+        // Keep-alive used when the server does not send a Keep-Alive header (ms)
+        @Min(0)
+        private int keepAlive = 30000;
+        // Idle connections are closed after this long (ms)
+        @Min(0)
+        private int idleTimeout = 60000;
+        // Pooled connections idle for longer than this are checked before they are leased (ms)
+        @Min(0)
+        private int validateAfterInactivity = 2000;
+        // Max number of TLS sessions to keep for resumption
+        @Min(0)
+        private int tlsSessionCacheSize = 100;
+        // TLS sessions older than this are not resumed (seconds)
+        @Min(0)
+        private int tlsSessionTimeout = 3600;
+
+        ConnectionPoolConfiguration() {
+            // Jackson required
+        }
+
+        public int getMaxTotal() {
+            return maxTotal;
+        }
+
+        public void setMaxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+        }
+
+        public int getMaxPerRoute() {
+            return maxPerRoute;
+        }
+
+        public void setMaxPerRoute(int maxPerRoute) {
+            this.maxPerRoute = maxPerRoute;
+        }
+
+        public int getKeepAlive() {
+            return keepAlive;
+        }
+
+        public void setKeepAlive(int keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        public int getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(int idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public int getValidateAfterInactivity() {
+            return validateAfterInactivity;
+        }
+
+        public void setValidateAfterInactivity(int validateAfterInactivity) {
+            this.validateAfterInactivity = validateAfterInactivity;
+        }
+
+        public int getTlsSessionCacheSize() {
+            return tlsSessionCacheSize;
+        }
+
+        public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+            this.tlsSessionCacheSize = tlsSessionCacheSize;
+        }
+
+        public int getTlsSessionTimeout() {
+            return tlsSessionTimeout;
+        }
+
+        public void setTlsSessionTimeout(int tlsSessionTimeout) {
+            this.tlsSessionTimeout = tlsSessionTimeout;
+        }
+    }
+
+    public static class ConcurrencyLimitConfiguration {
+
+        // Number of requests allowed in flight before any responses have been seen
+        @Min(1)
+        private int initialLimit = 10;
+        @Min(1)
+        private int minLimit = 1;
+        // Should not be more than the connection pool's maxTotal, otherwise requests wait on the pool instead
+        @Min(1)
+        private int maxLimit = 50;
+        // The limit is multiplied by this on each timeout, 429 or 5xx response
+        @DecimalMin("0.1")
+        @DecimalMax("0.99")
+        private double backoffRatio = 0.9;
+        // Responses slower than this are treated like a timeout (ms)
+        @Min(1)
+        private int latencyThreshold = 2000;
+        // Requests which have waited this long for a permit are rejected (ms)
+        @Min(0)
+        private int maxWait = 30000;
+
+        ConcurrencyLimitConfiguration() {
+            // Jackson required
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        public int getLatencyThreshold() {
+            return latencyThreshold;
+        }
+
+        public void setLatencyThreshold(int latencyThreshold) {
+            this.latencyThreshold = latencyThreshold;
+        }
+
+        public int getMaxWait() {
+            return maxWait;
+        }
+
+        public void setMaxWait(int maxWait) {
+            this.maxWait = maxWait;
+        }
+    }
+
     public static class KeystoreConfiguration {
 
         @NotEmpty
@@ -0,0 +1,13 @@
+package gov.cms.dpc.bluebutton.exceptions;
+
+/**
+ * Thrown when a request to BlueButton could not get a permit from the concurrency limiter in time.
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    public static final long serialVersionUID = 42L;
+
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,105 @@
+package gov.cms.dpc.bluebutton.client;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import com.codahale.metrics.MetricRegistry;
+import gov.cms.dpc.bluebutton.config.BBClientConfiguration;
+import gov.cms.dpc.bluebutton.exceptions.ConcurrencyLimitExceededException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private BBClientConfiguration.ConcurrencyLimitConfiguration config;
+
+    @BeforeEach
+    void setupConfig() {
+        config = new BBClientConfiguration().getConcurrencyLimit();
+        config.setInitialLimit(2);
+        config.setMinLimit(1);
+        config.setMaxLimit(4);
+        config.setMaxWait(100);
+    }
+
+    @Test
+    void shouldRejectWhenNoPermitBecomesAvailable() {
+        final var limiter = new AdaptiveConcurrencyLimiter(config, new MetricRegistry());
+        limiter.acquire();
+        limiter.acquire();
+
+        assertThrows(ConcurrencyLimitExceededException.class, limiter::acquire, "Should reject once the max wait has passed");
+        assertEquals(2, limiter.getInFlight(), "Rejected request should not hold a permit");
+        assertEquals(0, limiter.getWaiting(), "Rejected request should no longer be waiting");
+    }
+
+    @Test
+    void shouldHandPermitToWaiter() throws Exception {
+        config.setMaxWait(10000);
+        final var limiter = new AdaptiveConcurrencyLimiter(config, new MetricRegistry());
+        final var first = limiter.acquire();
+        limiter.acquire();
+
+        final CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiting = limiter.acquireAsync();
+        assertFalse(waiting.isDone(), "Should wait while the limit is reached");
+
+        first.release(null);
+        assertNotNull(waiting.get(1, TimeUnit.SECONDS), "Should be granted the released permit");
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    void shouldDecreaseLimitOnServerErrors() {
+        final var limiter = new AdaptiveConcurrencyLimiter(config, new MetricRegistry());
+        limiter.acquire().release(new InternalErrorException("Server overloaded"));
+        limiter.acquire().release(new InternalErrorException("Server overloaded"));
+        limiter.acquire().release(new InternalErrorException("Server overloaded"));
+
+        assertEquals(1, limiter.getLimit(), "Should have backed off to the min limit");
+    }
+
+    @Test
+    void shouldDecreaseLimitOncePerWindow() {
+        config.setInitialLimit(4);
+        config.setBackoffRatio(0.5);
+        final var limiter = new AdaptiveConcurrencyLimiter(config, new MetricRegistry());
+        final List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            permits.add(limiter.acquire());
+        }
+
+        // All of the requests were in flight at the same time, so their failures only count once
+        permits.forEach(permit -> permit.release(new InternalErrorException("Server overloaded")));
+        assertEquals(2, limiter.getLimit(), "Should have backed off once");
+
+        // A request started after the backoff shrinks the limit again
+        limiter.acquire().release(new InternalErrorException("Server overloaded"));
+        assertEquals(1, limiter.getLimit(), "Should have backed off a second time");
+    }
+
+    @Test
+    void shouldIncreaseLimitOnSuccess() {
+        final var limiter = new AdaptiveConcurrencyLimiter(config, new MetricRegistry());
+        for (int i = 0; i < 20; i++) {
+            final var permit = limiter.acquire();
+            limiter.acquire().release(null);
+            permit.release(null);
+        }
+
+        assertEquals(4, limiter.getLimit(), "Should have grown to the max limit");
+    }
+
+    @Test
+    void shouldIgnoreClientErrors() {
+        final var limiter = new AdaptiveConcurrencyLimiter(config, new MetricRegistry());
+        limiter.acquire().release(new ResourceNotFoundException("No patient"));
+
+        assertEquals(2, limiter.getLimit(), "A missing resource says nothing about the load on BlueButton");
+    }
+}
@@ -32,6 +32,7 @@ import java.sql.Date;
 import java.util.Collections;
 import java.util.List;
 import java.util.MissingResourceException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -54,6 +55,7 @@ class BlueButtonClientTest {
     private static final String[] TEST_PATIENT_IDS = {"-20140000008325", "-20140000009893"};
 
     private static BlueButtonClient bbc;
+    private static AsyncBlueButtonClient asyncBbc;
     private static ClientAndServer mockServer;
     private static Config conf;
 
@@ -62,6 +64,7 @@ class BlueButtonClientTest {
         conf = getTestConfig();
         final Injector injector = Guice.createInjector(Stage.DEVELOPMENT, new TestModule(), new BlueButtonClientModule<>(getClientConfig()));
         bbc = injector.getInstance(BlueButtonClient.class);
+        asyncBbc = injector.getInstance(AsyncBlueButtonClient.class);
 
         mockServer = ClientAndServer.startClientAndServer(conf.getInt("test.mockServerPort"));
         createMockServerExpectation("/v1/fhir/metadata", HttpStatus.OK_200, getRawXML(METADATA_PATH), List.of());
@@ -225,6 +228,35 @@ class BlueButtonClientTest {
         );
     }
 
+    @Test
+    void shouldGetFHIRFromPatientIDAsync() throws Exception {
+        final Patient ret = asyncBbc.requestPatientFromServer(TEST_PATIENT_ID).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        assertNotNull(ret, "The demo Patient object returned from AsyncBlueButtonClient should not be null");
+        assertEquals(ret.getName().get(0).getFamily(), "Doe", "The demo Patient object data differs from what is expected");
+    }
+
+    @Test
+    void shouldFollowAllPagesAsync() {
+        final List<Bundle> pages = asyncBbc.requestAllPages(asyncBbc.requestEOBFromServer(TEST_PATIENT_ID, null))
+                .toList()
+                .blockingGet();
+
+        final int entries = pages.stream().mapToInt(page -> page.getEntry().size()).sum();
+        assertTrue(pages.size() > 1, "Should have followed the next links");
+        assertEquals(pages.get(0).getTotal(), entries, "Should have fetched every EOB of the demo patient");
+    }
+
+    @Test
+    void shouldFailStageWhenResourceNotFoundAsync() {
+        final ExecutionException exception = assertThrows(
+                ExecutionException.class,
+                () -> asyncBbc.requestPatientFromServer(TEST_NONEXISTENT_PATIENT_ID).toCompletableFuture().get(10, TimeUnit.SECONDS),
+                "Async BlueButton client should fail when asked to retrieve a non-existent patient"
+        );
+        assertTrue(exception.getCause() instanceof ResourceNotFoundException, "Should fail with the same exception as the blocking client");
+    }
+
     @Test
     void shouldHashMbi() throws GeneralSecurityException {
         // Cases from BFD tests https://github.com/CMSgov/beneficiary-fhir-data/blob/master/apps/bfd-pipeline/bfd-pipeline-rif-load/src/test/java/gov/cms/bfd/pipeline/rif/load/RifLoaderTest.java
@@ -235,6 +267,14 @@ class BlueButtonClientTest {
         assertEquals("ec49dc08f8dd8b4e189f623ab666cfc8b81f201cc94fe6aef860a4c3bd57f278", hash);
     }
 
+    @Test
+    void shouldPrehashMbis() throws Exception {
+        bbc.prehashMbis(List.of("123456789A", "3456789", "")).get(10, TimeUnit.SECONDS);
+
+        assertEquals("d95a418b0942c7910fb1d0e84f900fe12e5a7fd74f312fa10730cc0fda230e9a", bbc.hashMbi("123456789A"));
+        assertEquals("ec49dc08f8dd8b4e189f623ab666cfc8b81f201cc94fe6aef860a4c3bd57f278", bbc.hashMbi("3456789"));
+    }
+
     @Test
     void shouldNotHashMbi() throws GeneralSecurityException {
         String hash = bbc.hashMbi(null);
@@ -0,0 +1,94 @@
+package gov.cms.dpc.bluebutton.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Stage;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigRenderOptions;
+import com.typesafe.config.ConfigValueFactory;
+import gov.cms.dpc.bluebutton.BlueButtonClientModule;
+import gov.cms.dpc.bluebutton.config.BBClientConfiguration;
+import gov.cms.dpc.testing.BufferedLoggerHandler;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(BufferedLoggerHandler.class)
+class InstrumentedConnectionManagerTest {
+
+    private static final HttpRoute TEST_ROUTE = new HttpRoute(new HttpHost("localhost", 8083));
+
+    private MetricRegistry registry;
+    private InstrumentedConnectionManager connectionManager;
+
+    @BeforeEach
+    void setupConnectionManager() {
+        registry = new MetricRegistry();
+        final Injector injector = Guice.createInjector(Stage.DEVELOPMENT,
+                binder -> binder.bind(MetricRegistry.class).toInstance(registry),
+                new BlueButtonClientModule<>(getClientConfig()));
+        connectionManager = injector.getInstance(InstrumentedConnectionManager.class);
+    }
+
+    @Test
+    void testPoolLimitsFromConfiguration() {
+        assertAll(() -> assertEquals(5, connectionManager.getMaxTotal(), "Should have the configured max total"),
+                () -> assertEquals(2, connectionManager.getDefaultMaxPerRoute(), "Should have the configured max per route"),
+                () -> assertEquals(500, connectionManager.getValidateAfterInactivity(), "Should have the configured validation interval"),
+                () -> assertEquals(5, getGauge("maxConnections"), "Should publish the max total"));
+    }
+
+    @Test
+    void testLeaseMetrics() throws Exception {
+        final HttpClientConnection first = connectionManager.requestConnection(TEST_ROUTE, null).get(1, TimeUnit.SECONDS);
+        final HttpClientConnection second = connectionManager.requestConnection(TEST_ROUTE, null).get(1, TimeUnit.SECONDS);
+
+        // The route is at its limit, so the next lease has to wait, and times out
+        assertThrows(ConnectionPoolTimeoutException.class, () -> connectionManager.requestConnection(TEST_ROUTE, null).get(100, TimeUnit.MILLISECONDS));
+        assertAll(() -> assertEquals(2, getGauge("leasedConnections"), "Should have leased up to the route limit"),
+                () -> assertEquals(3, registry.timer(metricName("leaseWait")).getCount(), "Should time every lease"),
+                () -> assertEquals(1, registry.meter(metricName("leaseTimeouts")).getCount(), "Should count the lease timeout"));
+
+        // The connections were never opened, so they cannot be reused
+        connectionManager.releaseConnection(first, null, 0, TimeUnit.MILLISECONDS);
+        connectionManager.releaseConnection(second, null, 0, TimeUnit.MILLISECONDS);
+        assertEquals(2, registry.meter(metricName("connectionsDiscarded")).getCount(), "Should count the discarded connections");
+    }
+
+    private int getGauge(String name) {
+        final Map<String, Gauge> gauges = registry.getGauges();
+        return (Integer) gauges.get(metricName(name)).getValue();
+    }
+
+    private static String metricName(String name) {
+        return MetricRegistry.name(InstrumentedConnectionManager.class, name);
+    }
+
+    private static BBClientConfiguration getClientConfig() {
+        final String options = ConfigFactory.load("test.application.conf").getConfig("bbclient")
+                .withValue("connectionPool", ConfigValueFactory.fromMap(Map.of(
+                        "maxTotal", 5,
+                        "maxPerRoute", 2,
+                        "validateAfterInactivity", 500)))
+                .root().render(ConfigRenderOptions.concise());
+
+        try {
+            return new ObjectMapper().readValue(options, BBClientConfiguration.class);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package gov.cms.dpc.queue;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Listens on the Postgres notification channel of the queue and raises a {@link BatchSignal} for each notification.
+ * <p>
+ * The listener holds a single connection of the queue database for as long as it runs. If the connection is lost, the listener reconnects
+ * and raises a signal, so that waiting aggregators poll once for any batch submitted in the meantime.
+ */
+class BatchNotificationListener implements Runnable {
+
+    static final String CHANNEL = "job_queue_batch";
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchNotificationListener.class);
+    private static final int LISTEN_TIMEOUT_MS = 10000;
+    private static final long RECONNECT_DELAY_MS = 5000;
+
+    private final ConnectionProvider connectionProvider;
+    private final BatchSignal signal;
+
+    BatchNotificationListener(SessionFactory factory, BatchSignal signal) {
+        this.connectionProvider = factory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(ConnectionProvider.class);
+        this.signal = signal;
+    }
+
+    /**
+     * Start listening on a daemon thread
+     */
+    void start() {
+        final var thread = new Thread(this, "queue-notification-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                listen();
+            } catch (SQLException e) {
+                logger.warn("Lost queue notification connection, reconnecting in {} ms", RECONNECT_DELAY_MS, e);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void listen() throws SQLException {
+        final Connection connection = connectionProvider.getConnection();
+        try {
+            connection.setAutoCommit(true);
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + CHANNEL);
+            }
+            logger.info("Listening for queue notifications on {}", CHANNEL);
+            // Batches may have been submitted while not listening
+            signal.signal();
+
+            final PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            while (!Thread.currentThread().isInterrupted()) {
+                final PGNotification[] notifications = pgConnection.getNotifications(LISTEN_TIMEOUT_MS);
+                if (notifications != null && notifications.length > 0) {
+                    logger.trace("Received {} queue notifications", notifications.length);
+                    signal.signal();
+                }
+            }
+        } finally {
+            connectionProvider.closeConnection(connection);
+        }
+    }
+}
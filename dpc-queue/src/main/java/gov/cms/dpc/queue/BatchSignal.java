@@ -0,0 +1,52 @@
+package gov.cms.dpc.queue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wakes up aggregators that are waiting for batches to be submitted to the queue.
+ * <p>
+ * Each waiting thread remembers the last signal it has seen, so a signal raised while the thread was busy claiming a batch
+ * is not lost, the next wait returns right away instead.
+ */
+class BatchSignal {
+
+    private final Object lock = new Object();
+    private final ThreadLocal<Long> lastSeen = ThreadLocal.withInitial(() -> -1L);
+    private long signals = 0;
+
+    /**
+     * Signal all the waiting threads that a batch may be ready to claim
+     */
+    void signal() {
+        synchronized (lock) {
+            signals++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for a signal that has not been seen yet by the calling thread
+     *
+     * @param timeout - the maximum time to wait
+     * @param unit    - the {@link TimeUnit} of the timeout
+     * @return - {@code true} a signal was received. {@code false} the timeout elapsed first.
+     * @throws InterruptedException - if interrupted while waiting
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            try {
+                while (signals == lastSeen.get()) {
+                    final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    lock.wait(remaining);
+                }
+                return true;
+            } finally {
+                lastSeen.set(signals);
+            }
+        }
+    }
+}
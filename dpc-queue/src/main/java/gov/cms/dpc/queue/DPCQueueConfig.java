@@ -2,6 +2,6 @@ package gov.cms.dpc.queue;
 
 public interface DPCQueueConfig {
 
-    int getPollingFrequency();
+    int getQueueSubmitChunkSize();
 
 }
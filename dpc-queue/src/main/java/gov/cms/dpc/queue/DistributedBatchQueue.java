@@ -5,10 +5,14 @@ import com.codahale.metrics.Timer;
 import gov.cms.dpc.common.hibernate.queue.DPCQueueManagedSessionFactory;
 import gov.cms.dpc.common.utils.MetricMaker;
 import gov.cms.dpc.queue.annotations.QueueBatchSize;
+import gov.cms.dpc.queue.annotations.QueueSubmitChunkSize;
+import gov.cms.dpc.queue.converters.ResourceTypeListConverter;
 import gov.cms.dpc.queue.exceptions.JobQueueFailure;
 import gov.cms.dpc.queue.exceptions.JobQueueUnhealthy;
 import gov.cms.dpc.queue.models.JobQueueBatch;
 import gov.cms.dpc.queue.models.JobQueueBatchFile;
+import gov.cms.dpc.queue.models.JobSummary;
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
@@ -20,13 +24,24 @@ import javax.inject.Inject;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -38,9 +53,29 @@ public class DistributedBatchQueue extends JobQueueCommon {
     private static final Logger logger = LoggerFactory.getLogger(DistributedBatchQueue.class);
     private static final String DB_UNHEALTHY = "Database cluster is not responding";
     private static final String JOB_UNHEALTHY = "Aggregator is not making progress on the queue";
+    private static final String NOTIFY_QUERY = "NOTIFY " + BatchNotificationListener.CHANNEL;
+    private static final String INSERT_BATCH_QUERY = "INSERT INTO job_queue_batch (batch_id, job_id, organization_id, provider_id, status, priority, patient_count, patient_index, resource_types, " +
+            "since, aggregator_id, lease_expiry, update_time, submit_time, start_time, complete_time) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_PATIENT_QUERY = "INSERT INTO job_queue_batch_patient (batch_id, ordinal, patient_id) VALUES (?, ?, ?)";
+    private static final ResourceTypeListConverter RESOURCE_TYPE_CONVERTER = new ResourceTypeListConverter();
+    private static final int DEFAULT_SUBMIT_CHUNK_SIZE = 50;
+    private static final String PUBLISH_QUERY = "UPDATE job_queue_batch SET status = 0 WHERE job_id = :jobID AND status = 4";
+    private static final String DISCARD_PATIENTS_QUERY = "DELETE FROM job_queue_batch_patient WHERE batch_id IN (SELECT batch_id FROM job_queue_batch WHERE job_id = :jobID AND status = 4)";
+    private static final String DISCARD_BATCHES_QUERY = "DELETE FROM job_queue_batch WHERE job_id = :jobID AND status = 4";
+    private static final String CHECKPOINT_QUERY = "UPDATE job_queue_batch b SET b.patientIndex = :patientIndex, b.updateTime = :updateTime, b.leaseExpiry = :leaseExpiry WHERE b.batchID = :batchID AND b.aggregatorID = :aggregatorID";
+    private static final String RENEW_LEASE_QUERY = "UPDATE job_queue_batch b SET b.leaseExpiry = :leaseExpiry WHERE b.batchID = :batchID AND b.aggregatorID = :aggregatorID AND b.status = :status";
+    private static final String OWNER_QUERY = "SELECT Cast(aggregator_id as varchar) aggregator_id FROM job_queue_batch WHERE batch_id = :batchID FOR UPDATE";
+    // Batches claimed before leases were introduced have no lease, so fall back to the time they were last updated
+    private static final String RECLAIM_QUERY = "UPDATE job_queue_batch SET status = 0, aggregator_id = NULL, lease_expiry = NULL, update_time = current_timestamp " +
+            "WHERE batch_id IN (SELECT batch_id FROM job_queue_batch WHERE status = 1 " +
+            "AND (lease_expiry < current_timestamp OR (lease_expiry IS NULL AND update_time < current_timestamp - interval '5 minutes')) FOR UPDATE SKIP LOCKED) " +
+            "RETURNING Cast(batch_id as varchar) batch_id, Cast(job_id as varchar) job_id";
 
     // Object variables
     private final SessionFactory factory;
+    private final int submitChunkSize;
+    private final BatchSignal batchSignal = new BatchSignal();
+    private final AtomicBoolean listening = new AtomicBoolean(false);
 
     // Metrics
     private final Timer waitTimer; // The wait time for a job to start
@@ -49,15 +84,24 @@ public class DistributedBatchQueue extends JobQueueCommon {
     private final Timer failureTimer; // The work time a failed job takes
 
 
+    public DistributedBatchQueue(DPCQueueManagedSessionFactory factory, int batchSize, MetricRegistry metricRegistry) {
+        this(factory, batchSize, DEFAULT_SUBMIT_CHUNK_SIZE, metricRegistry);
+    }
+
     @Inject
     public DistributedBatchQueue(
             DPCQueueManagedSessionFactory factory,
             @QueueBatchSize int batchSize,
+            @QueueSubmitChunkSize int submitChunkSize,
             MetricRegistry metricRegistry
     ) {
         super(batchSize);
 
+        if (submitChunkSize < 1) {
+            throw new IllegalArgumentException("Submit chunk size must be at least 1");
+        }
         this.factory = factory.getSessionFactory();
+        this.submitChunkSize = submitChunkSize;
 
         // Metrics
         final var metricBuilder = new MetricMaker(metricRegistry, DistributedBatchQueue.class);
@@ -69,22 +113,63 @@ public class DistributedBatchQueue extends JobQueueCommon {
     }
 
     @Override
-    public void submitJobBatches(List<JobQueueBatch> jobBatches) {
-        JobQueueBatch firstBatch = jobBatches.stream().findFirst().orElseThrow(() -> new JobQueueFailure("No job batches to submit"));
+    public void submitJobBatches(Iterator<JobQueueBatch> jobBatches) {
+        if (!jobBatches.hasNext()) {
+            throw new JobQueueFailure("No job batches to submit");
+        }
+
+        // Write the job a chunk of batches at a time, so neither the batches of a large job, nor a transaction, are held while the rest of it is read.
+        // Reading the batches may fetch their patients from a remote service, so they are read outside the transactions, and their errors are thrown as is.
+        final List<JobQueueBatch> chunk = new ArrayList<>(this.submitChunkSize);
+        JobSummary summary = null;
+        try {
+            while (jobBatches.hasNext()) {
+                chunk.clear();
+                while (chunk.size() < this.submitChunkSize && jobBatches.hasNext()) {
+                    chunk.add(jobBatches.next());
+                }
+                if (summary == null) {
+                    summary = startSubmission(chunk.get(0));
+                }
+                for (JobQueueBatch batch : chunk) {
+                    summary.addBatches(batch.getOrgID(),
+                            batch.getStatus(),
+                            1,
+                            batch.getPatientCount(),
+                            batch.getPatientIndex().orElse(-1) + 1,
+                            batch.getStartTime().orElse(null));
+                }
+                stageBatches(chunk);
+            }
+            publishJob(summary);
+        } catch (RuntimeException e) {
+            if (summary != null) {
+                discardStagedBatches(summary.getJobID());
+            }
+            throw e;
+        }
+    }
 
-        logger.debug("Adding jobID {} ({} batches) to the queue at {} with for organization {}.",
+    private static JobSummary startSubmission(JobQueueBatch firstBatch) {
+        logger.debug("Adding jobID {} to the queue at {} with for organization {}.",
                 firstBatch.getJobID(),
-                jobBatches.size(),
                 firstBatch.getSubmitTime().orElseThrow(() -> new JobQueueFailure(firstBatch.getJobID(), firstBatch.getBatchID(), "The batches have not been prepared for submission")).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME),
                 firstBatch.getOrgID());
+        return new JobSummary(firstBatch.getJobID(), firstBatch.getOrgID(), firstBatch.getProviderID(), firstBatch.getResourceTypes());
+    }
 
-        // Persist the batches in postgres
+    /**
+     * Insert a chunk of the batches of a job, and their patients, in a transaction of their own.
+     * The batches are {@link JobStatus#STAGED}, so aggregators do not claim them until the whole job is published.
+     *
+     * @param batches - {@link List} of at most {@link DistributedBatchQueue#submitChunkSize} {@link JobQueueBatch} of the job
+     */
+    private void stageBatches(List<JobQueueBatch> batches) {
+        final JobQueueBatch firstBatch = batches.get(0);
         try (final Session session = this.factory.openSession()) {
             final Transaction tx = session.beginTransaction();
             try {
-                for ( JobQueueBatch batch : jobBatches ) {
-                    session.persist(batch);
-                }
+                session.doWork(connection -> insertBatches(connection, batches));
                 tx.commit();
             } catch (Exception e) {
                 logger.error("Cannot add job batches to database", e);
@@ -94,6 +179,110 @@ public class DistributedBatchQueue extends JobQueueCommon {
         }
     }
 
+    /**
+     * Release the staged batches of a job to the queue, and write the summary of the job.
+     * This is a single transaction, so the job is never visible with only some of its batches.
+     *
+     * @param summary - {@link JobSummary} of all the batches of the job
+     */
+    private void publishJob(JobSummary summary) {
+        try (final Session session = this.factory.openSession()) {
+            final Transaction tx = session.beginTransaction();
+            try {
+                session.createNativeQuery(PUBLISH_QUERY)
+                        .setParameter("jobID", summary.getJobID())
+                        .executeUpdate();
+                session.persist(summary);
+                // Wake up the listening aggregators, the notification is delivered when the transaction commits
+                session.createNativeQuery(NOTIFY_QUERY).executeUpdate();
+                tx.commit();
+                logger.debug("Added jobID {} ({} batches) to the queue.", summary.getJobID(), summary.getBatchCount(JobStatus.QUEUED));
+            } catch (Exception e) {
+                logger.error("Cannot publish job batches", e);
+                tx.rollback();
+                throw new JobQueueFailure(summary.getJobID(), null, e);
+            }
+        }
+    }
+
+    /**
+     * Remove the staged batches of a job which could not be submitted. Any left behind, if this fails as well, are never claimed.
+     *
+     * @param jobID - the job which could not be submitted
+     */
+    private void discardStagedBatches(UUID jobID) {
+        try (final Session session = this.factory.openSession()) {
+            final Transaction tx = session.beginTransaction();
+            try {
+                session.createNativeQuery(DISCARD_PATIENTS_QUERY)
+                        .setParameter("jobID", jobID)
+                        .executeUpdate();
+                session.createNativeQuery(DISCARD_BATCHES_QUERY)
+                        .setParameter("jobID", jobID)
+                        .executeUpdate();
+                tx.commit();
+            } catch (Exception e) {
+                logger.error("Cannot discard the staged batches of job {}", jobID, e);
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Insert the batches, and their patients, as a single JDBC batch.
+     *
+     * @param connection - {@link Connection} of the active database session
+     * @param batches    - {@link List} of {@link JobQueueBatch} of the job
+     * @throws SQLException - if the batches cannot be inserted
+     */
+    private static void insertBatches(Connection connection, List<JobQueueBatch> batches) throws SQLException {
+        try (final PreparedStatement batchStatement = connection.prepareStatement(INSERT_BATCH_QUERY);
+             final PreparedStatement patientStatement = connection.prepareStatement(INSERT_PATIENT_QUERY)) {
+            for (JobQueueBatch batch : batches) {
+                addBatch(batchStatement, patientStatement, batch);
+            }
+            // The batch rows have to be written before the patient rows which reference them
+            batchStatement.executeBatch();
+            patientStatement.executeBatch();
+        }
+    }
+
+    private static void addBatch(PreparedStatement batchStatement, PreparedStatement patientStatement, JobQueueBatch batch) throws SQLException {
+        batchStatement.setObject(1, batch.getBatchID());
+        batchStatement.setObject(2, batch.getJobID());
+        batchStatement.setObject(3, batch.getOrgID());
+        batchStatement.setString(4, batch.getProviderID());
+        batchStatement.setInt(5, JobStatus.STAGED.ordinal());
+        setNullable(batchStatement, 6, batch.getPriority(), Types.INTEGER);
+        batchStatement.setInt(7, batch.getPatientCount());
+        setNullable(batchStatement, 8, batch.getPatientIndex().orElse(null), Types.INTEGER);
+        batchStatement.setString(9, RESOURCE_TYPE_CONVERTER.convertToDatabaseColumn(batch.getResourceTypes()));
+        setNullable(batchStatement, 10, batch.getSince().orElse(null), Types.TIMESTAMP_WITH_TIMEZONE);
+        setNullable(batchStatement, 11, batch.getAggregatorID().orElse(null), Types.OTHER);
+        setNullable(batchStatement, 12, batch.getLeaseExpiry().orElse(null), Types.TIMESTAMP_WITH_TIMEZONE);
+        setNullable(batchStatement, 13, batch.getUpdateTime().orElse(null), Types.TIMESTAMP_WITH_TIMEZONE);
+        setNullable(batchStatement, 14, batch.getSubmitTime().orElse(null), Types.TIMESTAMP_WITH_TIMEZONE);
+        setNullable(batchStatement, 15, batch.getStartTime().orElse(null), Types.TIMESTAMP_WITH_TIMEZONE);
+        setNullable(batchStatement, 16, batch.getCompleteTime().orElse(null), Types.TIMESTAMP_WITH_TIMEZONE);
+        batchStatement.addBatch();
+
+        final List<String> patients = batch.getPatients();
+        for (int ordinal = 0; ordinal < patients.size(); ordinal++) {
+            patientStatement.setObject(1, batch.getBatchID());
+            patientStatement.setInt(2, ordinal);
+            patientStatement.setString(3, patients.get(ordinal));
+            patientStatement.addBatch();
+        }
+    }
+
+    private static void setNullable(PreparedStatement statement, int index, Object value, int sqlType) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, sqlType);
+        } else {
+            statement.setObject(index, value);
+        }
+    }
+
     @Override
     public Optional<JobQueueBatch> getBatch( UUID batchID) {
         // Get from Postgres
@@ -134,6 +323,23 @@ public class DistributedBatchQueue extends JobQueueCommon {
         }
     }
 
+    @Override
+    public Optional<JobSummary> getJobSummary(UUID jobID) {
+        // The summary row is kept up to date with the batches of the job, so the batches are not read at all
+        try (final Session session = this.factory.openSession()) {
+            return Optional.ofNullable(session.get(JobSummary.class, jobID));
+        }
+    }
+
+    @Override
+    public List<JobQueueBatchFile> getJobBatchFiles(UUID jobID) {
+        try (final Session session = this.factory.openSession()) {
+            return session.createQuery("SELECT f FROM job_queue_batch_file f WHERE f.jobID = :jobID", JobQueueBatchFile.class)
+                    .setParameter("jobID", jobID)
+                    .getResultList();
+        }
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Optional<JobQueueBatchFile> getJobBatchFile(UUID organizationID, String fileID) {
@@ -150,11 +356,15 @@ public class DistributedBatchQueue extends JobQueueCommon {
 
     @Override
     public Optional<JobQueueBatch> claimBatch(UUID aggregatorID) {
+        return claimBatches(aggregatorID, 1).stream().findFirst();
+    }
+
+    @Override
+    public List<JobQueueBatch> claimBatches(UUID aggregatorID, int limit) {
         try (final Session session = this.factory.openSession()) {
             final Transaction tx = session.beginTransaction();
             try {
-                this.restartStuckBatches(session);
-                return this.claimBatchFromDatabase(session, aggregatorID);
+                return this.claimBatchesFromDatabase(session, aggregatorID, limit);
             } finally {
                 tx.commit();
             }
@@ -162,67 +372,126 @@ public class DistributedBatchQueue extends JobQueueCommon {
     }
 
     /**
-     * Looks for any job batches that have stopped processing and are stuck in a running state. Restart those batches
-     * so they can be picked up again.
+     * Waits for a notification on the queue channel, which is sent whenever batches are submitted or paused.
+     * The first call starts listening for notifications, so only aggregators that wait on the queue hold a listening connection.
      *
-     * @param session - The active database session
+     * @param timeout - the maximum time to wait, the fallback polling interval
+     * @param unit    - the {@link TimeUnit} of the timeout
+     * @return - {@code true} if woken up by a notification. {@code false} if the timeout elapsed first.
+     * @throws InterruptedException - if interrupted while waiting
      */
-    @SuppressWarnings("unchecked")
-    private void restartStuckBatches(Session session) {
-        // Find stuck batches
-        List<String> stuckBatchIDs = session.createNativeQuery("SELECT Cast(batch_id as varchar) batch_id FROM job_queue_batch WHERE status = 1 AND update_time < current_timestamp - interval '5 minutes' FOR UPDATE SKIP LOCKED")
-                .getResultList();
-
-        // Unstick stuck batches
-        if ( stuckBatchIDs != null && !stuckBatchIDs.isEmpty() ) {
-            final CriteriaBuilder builder = session.getCriteriaBuilder();
-            final CriteriaQuery<JobQueueBatch> query = builder.createQuery(JobQueueBatch.class);
-            final Root<JobQueueBatch> root = query.from(JobQueueBatch.class);
-
-            query.select(root);
-            query.where(root.get("batchID").in(stuckBatchIDs.stream().map(UUID::fromString).collect(Collectors.toList())));
-            final List<JobQueueBatch> stuckJobList = session.createQuery(query).getResultList();
-
-            for ( JobQueueBatch stuckJob : stuckJobList ) {
-                logger.warn(String.format("Restarting stuck batch... batchID=%s", stuckJob.getBatchID()));
-                stuckJob.restartBatch();
-                session.merge(stuckJob);
-            }
+    @Override
+    public boolean awaitBatch(long timeout, TimeUnit unit) throws InterruptedException {
+        if (listening.compareAndSet(false, true)) {
+            new BatchNotificationListener(this.factory, batchSignal).start();
         }
+        return batchSignal.await(timeout, unit);
     }
 
-
     /**
-     * Claim a new batch to process from the database
+     * Claim new batches to process from the database. The batches are locked and loaded together, so claiming several batches costs about as much as claiming one.
      *
      * @param session - The active database session
      * @param aggregatorID - The ID of the aggregator processing the job
-     * @return the claimed job batch
+     * @param limit - The maximum number of batches to claim
+     * @return the claimed job batches, in the order they should be worked
      */
     @SuppressWarnings("unchecked")
-    private Optional<JobQueueBatch> claimBatchFromDatabase(Session session, UUID aggregatorID) {
-        // Claim a new batch
-        Optional<String> batchID = session.createNativeQuery("SELECT Cast(batch_id as varchar) batch_id FROM job_queue_batch WHERE status = 0 ORDER BY priority ASC, submit_time ASC LIMIT 1 FOR UPDATE SKIP LOCKED")
-                .uniqueResultOptional();
+    private List<JobQueueBatch> claimBatchesFromDatabase(Session session, UUID aggregatorID, int limit) {
+        // Claim new batches
+        final List<UUID> batchIDs = ((List<String>) session.createNativeQuery("SELECT Cast(batch_id as varchar) batch_id FROM job_queue_batch WHERE status = 0 ORDER BY priority ASC, submit_time ASC LIMIT :limit FOR UPDATE SKIP LOCKED")
+                .setParameter("limit", limit)
+                .getResultList())
+                .stream()
+                .map(UUID::fromString)
+                .collect(Collectors.toList());
+
+        if (batchIDs.isEmpty()) {
+            return List.of();
+        }
 
-        if ( batchID.isPresent() ) {
-            JobQueueBatch batch = session.get(JobQueueBatch.class, UUID.fromString(batchID.get()));
+        // Loaded in the order of the IDs, which is the order they should be worked
+        final List<JobQueueBatch> batches = session.byMultipleIds(JobQueueBatch.class).multiLoad(batchIDs);
+        final List<JobQueueBatch> claimed = new ArrayList<>();
+        // Sorted by job, so concurrent claims update the summaries of their jobs in the same order
+        final Map<UUID, JobSummaryChange> changes = new TreeMap<>();
+        final Map<UUID, OffsetDateTime> startTimes = new HashMap<>();
+        for (JobQueueBatch batch : batches) {
+            final JobSummaryChange change = new JobSummaryChange().removeBatch(batch);
             try {
                 batch.setRunningStatus(aggregatorID);
             } catch (Exception e) {
                 logger.error("Failed to mark job as running. Marking the job as failed", e);
                 batch.setFailedStatus(aggregatorID);
-                return Optional.empty();
+                continue;
             } finally {
                 session.merge(batch);
+                changes.merge(batch.getJobID(), change.addBatch(batch), JobSummaryChange::merge);
+                batch.getStartTime().ifPresent(startTime -> startTimes.merge(batch.getJobID(), startTime, (a, b) -> a.isBefore(b) ? a : b));
             }
 
+            // The aggregator works through the patients after the session is closed.
+            // A batch holds at most a batch size of patients, so they are loaded with a single query here, rather than one query per patient as they are worked
+            Hibernate.initialize(batch.getPatients());
+
             final var delay = Duration.between(batch.getStartTime().orElseThrow(), batch.getUpdateTime().orElseThrow());
             waitTimer.update(delay.toMillis(), TimeUnit.MILLISECONDS);
+            claimed.add(batch);
+        }
+        changes.forEach((jobID, change) -> {
+            change.apply(session, jobID);
+            Optional.ofNullable(startTimes.get(jobID)).ifPresent(startTime -> JobSummaryChange.markStarted(session, jobID, startTime));
+        });
+        return claimed;
+    }
 
-            return Optional.of(batch);
-        } else {
-            return Optional.empty();
+    @Override
+    public boolean renewLease(JobQueueBatch job, UUID aggregatorID) {
+        try (final Session session = this.factory.openSession()) {
+            final Transaction tx = session.beginTransaction();
+            try {
+                final int updated = session.createQuery(RENEW_LEASE_QUERY)
+                        .setParameter("leaseExpiry", OffsetDateTime.now(ZoneOffset.UTC).plus(JobQueueBatch.LEASE_DURATION))
+                        .setParameter("batchID", job.getBatchID())
+                        .setParameter("aggregatorID", aggregatorID)
+                        .setParameter("status", JobStatus.RUNNING)
+                        .executeUpdate();
+                tx.commit();
+                return updated > 0;
+            } catch (Exception e) {
+                logger.error("Cannot renew lease of job batch", e);
+                tx.rollback();
+                throw new JobQueueFailure(job.getJobID(), job.getBatchID(), e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int reclaimExpiredBatches() {
+        try (final Session session = this.factory.openSession()) {
+            final Transaction tx = session.beginTransaction();
+            try {
+                final List<Object[]> reclaimedBatches = session.createNativeQuery(RECLAIM_QUERY).getResultList();
+                if (!reclaimedBatches.isEmpty()) {
+                    // Reclaimed batches keep their progress, so only their statuses change
+                    final Map<UUID, JobSummaryChange> changes = new TreeMap<>();
+                    for (Object[] reclaimed : reclaimedBatches) {
+                        logger.warn("Reclaiming batch with an expired lease... batchID={}", reclaimed[0]);
+                        changes.computeIfAbsent(UUID.fromString((String) reclaimed[1]), jobID -> new JobSummaryChange())
+                                .moveBatches(JobStatus.RUNNING, JobStatus.QUEUED, 1);
+                    }
+                    changes.forEach((jobID, change) -> change.apply(session, jobID));
+                    // The batches are back in the queue, so let the aggregators pick them up
+                    session.createNativeQuery(NOTIFY_QUERY).executeUpdate();
+                }
+                tx.commit();
+                return reclaimedBatches.size();
+            } catch (Exception e) {
+                logger.error("Cannot reclaim expired job batches", e);
+                tx.rollback();
+                throw new JobQueueFailure("Cannot reclaim expired job batches", e);
+            }
         }
     }
 
@@ -231,8 +500,14 @@ public class DistributedBatchQueue extends JobQueueCommon {
         try (final Session session = this.factory.openSession()) {
             final Transaction tx = session.beginTransaction();
             try {
+                assertOwned(session, job, aggregatorID);
+                final JobSummaryChange change = new JobSummaryChange().removeBatch(session, job.getBatchID());
                 job.setPausedStatus(aggregatorID);
                 session.merge(job);
+                session.flush();
+                change.addBatch(session, job.getBatchID()).apply(session, job.getJobID());
+                // The batch is back in the queue, so let another aggregator pick it up
+                session.createNativeQuery(NOTIFY_QUERY).executeUpdate();
             } finally {
                 tx.commit();
             }
@@ -245,14 +520,34 @@ public class DistributedBatchQueue extends JobQueueCommon {
             final Transaction tx = session.beginTransaction();
             try {
                 final Optional<OffsetDateTime> lastUpdate = job.getUpdateTime();
-
-                // We just need to persist the job, as any results will be attached to the job and cascade
-                session.merge(job);
+                job.setUpdateTime();
+
+                final JobSummaryChange change = new JobSummaryChange().removeBatch(session, job.getBatchID());
+                // Write only the progress, instead of merging the whole batch with its patient list and every result
+                final int updated = session.createQuery(CHECKPOINT_QUERY)
+                        .setParameter("patientIndex", job.getPatientIndex().orElse(null))
+                        .setParameter("updateTime", job.getUpdateTime().orElse(null))
+                        .setParameter("leaseExpiry", OffsetDateTime.now(ZoneOffset.UTC).plus(JobQueueBatch.LEASE_DURATION))
+                        .setParameter("batchID", job.getBatchID())
+                        .setParameter("aggregatorID", aggregatorID)
+                        .executeUpdate();
+                if (updated == 0) {
+                    throw new JobQueueFailure(job.getJobID(), job.getBatchID(), "Cannot checkpoint batch. It is not owned by this aggregator");
+                }
+                change.addBatch(session, job.getBatchID()).apply(session, job.getJobID());
+                final List<JobQueueBatchFile> changedFiles = job.getChangedJobQueueFiles();
+                for (JobQueueBatchFile file : changedFiles) {
+                    session.merge(file);
+                }
+                tx.commit();
+                job.clearChangedJobQueueFiles();
 
                 final var delay = Duration.between(lastUpdate.orElseThrow(), job.getUpdateTime().orElseThrow());
                 partialTimer.update(delay.toMillis(), TimeUnit.MILLISECONDS);
-            } finally {
-                tx.commit();
+            } catch (Exception e) {
+                logger.error("Cannot checkpoint job batch", e);
+                tx.rollback();
+                throw e instanceof JobQueueFailure ? (JobQueueFailure) e : new JobQueueFailure(job.getJobID(), job.getBatchID(), e);
             }
         }
     }
@@ -266,8 +561,12 @@ public class DistributedBatchQueue extends JobQueueCommon {
         try (final Session session = this.factory.openSession()) {
             final Transaction tx = session.beginTransaction();
             try {
+                assertOwned(session, job, aggregatorID);
+                final JobSummaryChange change = new JobSummaryChange().removeBatch(session, job.getBatchID());
                 job.setCompletedStatus(aggregatorID);
                 session.merge(job);
+                session.flush();
+                change.addBatch(session, job.getBatchID()).apply(session, job.getJobID());
 
                 final var delay = Duration.between(job.getStartTime().orElseThrow(), job.getCompleteTime().orElseThrow());
                 successTimer.update(delay.toMillis(), TimeUnit.MILLISECONDS);
@@ -282,8 +581,16 @@ public class DistributedBatchQueue extends JobQueueCommon {
         try (final Session session = this.factory.openSession()) {
             final Transaction tx = session.beginTransaction();
             try {
+                if (!isOwned(session, job, aggregatorID)) {
+                    // The batch has been reclaimed and is being continued by another aggregator, leave it be
+                    logger.warn("Not failing batch {}. It is no longer owned by aggregator {}", job.getBatchID(), aggregatorID);
+                    return;
+                }
+                final JobSummaryChange change = new JobSummaryChange().removeBatch(session, job.getBatchID());
                 job.setFailedStatus(aggregatorID);
                 session.merge(job);
+                session.flush();
+                change.addBatch(session, job.getBatchID()).apply(session, job.getJobID());
 
                 final var delay = Duration.between(job.getStartTime().orElseThrow(), job.getUpdateTime().orElseThrow());
                 failureTimer.update(delay.toMillis(), TimeUnit.MILLISECONDS);
@@ -293,6 +600,28 @@ public class DistributedBatchQueue extends JobQueueCommon {
         }
     }
 
+    /**
+     * Verify the batch is still owned by the aggregator, and lock it until the transaction ends, so it cannot be reclaimed in the meantime.
+     *
+     * @param session      - The active database session
+     * @param job          - the batch being worked
+     * @param aggregatorID - the current aggregator working the job
+     * @throws JobQueueFailure - if the batch has been reclaimed from the aggregator
+     */
+    private void assertOwned(Session session, JobQueueBatch job, UUID aggregatorID) {
+        if (!isOwned(session, job, aggregatorID)) {
+            throw new JobQueueFailure(job.getJobID(), job.getBatchID(), String.format("Cannot update job. The batch is no longer owned by aggregator %s", aggregatorID));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean isOwned(Session session, JobQueueBatch job, UUID aggregatorID) {
+        final Optional<String> owner = session.createNativeQuery(OWNER_QUERY)
+                .setParameter("batchID", job.getBatchID())
+                .uniqueResultOptional();
+        return owner.map(aggregatorID.toString()::equals).orElse(false);
+    }
+
     @Override
     public long queueSize() {
         try (final Session session = this.factory.openSession()) {
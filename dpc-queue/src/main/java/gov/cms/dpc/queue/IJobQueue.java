@@ -2,11 +2,15 @@ package gov.cms.dpc.queue;
 
 import gov.cms.dpc.queue.models.JobQueueBatch;
 import gov.cms.dpc.queue.models.JobQueueBatchFile;
+import gov.cms.dpc.queue.models.JobSummary;
 import org.hl7.fhir.dstu3.model.ResourceType;
 
+import java.time.OffsetDateTime;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interface for submitting/retrieving export jobs to a backing queue.
@@ -25,6 +29,33 @@ public interface IJobQueue {
      */
     UUID createJob(UUID orgID, String providerID, List<String> mbis, List<ResourceType> resourceTypes);
 
+    /**
+     * Create and submit a job into the queue, which only exports the resources updated since the given time.
+     * The job will be broken into batches, prioritized, and set to the QUEUED status.
+     *
+     * @param orgID         - The organization submitting the job
+     * @param providerID    - The provider submitting the job
+     * @param mbis          - The list of MBIs of patients to fetch data for
+     * @param resourceTypes - The resource types to fetch patient data for
+     * @param since         - Only export resources last updated at or after this time. Null exports the full history.
+     * @return The UUID of the created job
+     */
+    UUID createJob(UUID orgID, String providerID, List<String> mbis, List<ResourceType> resourceTypes, OffsetDateTime since);
+
+    /**
+     * Create and submit a job into the queue, reading the MBIs from the iterator as the batches of the job are built.
+     * The batches are written as they are built, but are not claimed until the whole job has been submitted.
+     * Any exception thrown by the iterator is thrown as is, and the job is not submitted.
+     *
+     * @param orgID         - The organization submitting the job
+     * @param providerID    - The provider submitting the job
+     * @param mbis          - {@link Iterator} of the MBIs of patients to fetch data for
+     * @param resourceTypes - The resource types to fetch patient data for
+     * @param since         - Only export resources last updated at or after this time. Null exports the full history.
+     * @return The UUID of the created job
+     */
+    UUID createJob(UUID orgID, String providerID, Iterator<String> mbis, List<ResourceType> resourceTypes, OffsetDateTime since);
+
     /**
      * Find a batch in the queue, regardless of job status. Does not alter the batch.
      *
@@ -41,6 +72,22 @@ public interface IJobQueue {
      */
     List<JobQueueBatch> getJobBatches(UUID jobID);
 
+    /**
+     * Summarize the status of a job from its batches, without loading the batches themselves.
+     *
+     * @param jobID - the id of the job to summarize
+     * @return - {@link Optional} {@link JobSummary} of the job, empty if the job has no batches
+     */
+    Optional<JobSummary> getJobSummary(UUID jobID);
+
+    /**
+     * Find the results of all the batches of a given job, regardless of job status.
+     *
+     * @param jobID - the id of the job to search
+     * @return - {@link List} of the {@link JobQueueBatchFile} of the job
+     */
+    List<JobQueueBatchFile> getJobBatchFiles(UUID jobID);
+
     /**
      * Find the {@link JobQueueBatchFile} that corresponds to the given file name
      *
@@ -52,12 +99,55 @@ public interface IJobQueue {
 
     /**
      * Find the next job that is ready to run. Alter the job's {@link JobStatus} to `RUNNING`.
+     * The aggregator is given a lease on the batch, which it must renew with {@link #renewLease(JobQueueBatch, UUID)} while it works the batch.
      *
      * @param aggregatorID - the current aggregator working the job
      * @return The job to work, if present.
      */
     Optional<JobQueueBatch> claimBatch(UUID aggregatorID);
 
+    /**
+     * Claim up to the given number of batches that are ready to run, in a single round trip. Each is altered to `RUNNING`
+     * and leased to the aggregator, as with {@link #claimBatch(UUID)}. The batches are returned in the order they should be worked.
+     * <p>
+     * The aggregator must renew the leases on the batches which are not worked straight away with {@link #renewLease(JobQueueBatch, UUID)}
+     * as well, and release the ones it does not start with {@link #pauseBatch(JobQueueBatch, UUID)}.
+     *
+     * @param aggregatorID - the current aggregator working the jobs
+     * @param limit        - the maximum number of batches to claim
+     * @return - {@link List} of the claimed batches, empty if none are ready to run
+     */
+    List<JobQueueBatch> claimBatches(UUID aggregatorID, int limit);
+
+    /**
+     * Wait until a batch may be ready to claim, or until the timeout elapses. Aggregators call this between
+     * claim attempts instead of sleeping for a fixed polling interval.
+     *
+     * @param timeout - the maximum time to wait, the fallback polling interval
+     * @param unit    - the {@link java.util.concurrent.TimeUnit} of the timeout
+     * @return - {@code true} if woken up by a submitted batch. {@code false} if the timeout elapsed first.
+     * @throws InterruptedException - if interrupted while waiting
+     */
+    boolean awaitBatch(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Renew the lease of the aggregator on a running batch, as a heartbeat.
+     * The lease is also renewed by each {@link #completePartialBatch(JobQueueBatch, UUID)}.
+     *
+     * @param job          - the batch being worked
+     * @param aggregatorID - the current aggregator working the job
+     * @return - {@code true} if the lease was renewed. {@code false} if the batch is no longer owned by the aggregator, which must stop working it.
+     */
+    boolean renewLease(JobQueueBatch job, UUID aggregatorID);
+
+    /**
+     * Return the running batches whose lease has expired to the queue, so that other aggregators can continue them from their last checkpoint.
+     * Called periodically by a single sweeper, instead of on every claim.
+     *
+     * @return - the number of batches reclaimed
+     */
+    int reclaimExpiredBatches();
+
     /**
      * Pauses the current progress and allows another aggregator to pick up the batch.
      *
@@ -67,7 +157,9 @@ public interface IJobQueue {
     void pauseBatch(JobQueueBatch job, UUID aggregatorID);
 
     /**
-     * Alter the job's {@link JobStatus} to passed status. Called when the job batch is finished partially processing.
+     * Checkpoint the progress of a job batch. Called when the job batch is finished partially processing.
+     * Only the patient index, the update time, the lease and the job results changed since the last checkpoint are written,
+     * the rest of the batch is left as is.
      *
      * @param job          - the job to add progress to
      * @param aggregatorID - the current aggregator working the job
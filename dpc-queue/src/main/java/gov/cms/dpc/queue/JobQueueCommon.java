@@ -1,12 +1,13 @@
 package gov.cms.dpc.queue;
 
-import gov.cms.dpc.queue.exceptions.JobQueueFailure;
 import gov.cms.dpc.queue.models.JobQueueBatch;
-import io.reactivex.Observable;
 import org.hl7.fhir.dstu3.model.ResourceType;
 
-import java.util.Collections;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.UUID;
 
 public abstract class JobQueueCommon implements IJobQueue {
@@ -14,41 +15,94 @@ public abstract class JobQueueCommon implements IJobQueue {
     // Object variables
     private final int batchSize;
 
-    public abstract void submitJobBatches(List<JobQueueBatch> jobBatches);
+    /**
+     * Submit the batches of a single job to the queue.
+     * Reading the batches may fetch their patients from a remote service, so implementations should not hold the queue while reading them,
+     * nor make the job claimable until every batch has been written. A failure to read them then leaves the queue untouched, and is thrown as is.
+     *
+     * @param jobBatches - {@link Iterator} of the {@link JobQueueBatch}es of the job, which must have at least one batch
+     */
+    public abstract void submitJobBatches(Iterator<JobQueueBatch> jobBatches);
 
     public JobQueueCommon(int batchSize) {
         this.batchSize = batchSize;
     }
 
+    public void submitJobBatches(List<JobQueueBatch> jobBatches) {
+        submitJobBatches(jobBatches.iterator());
+    }
+
     @Override
     public UUID createJob(UUID orgID, String providerID, List<String> patients, List<ResourceType> resourceTypes) {
-        final UUID jobID = UUID.randomUUID();
-
-        List<JobQueueBatch> jobBatches = Observable.fromIterable(patients)
-                .buffer(batchSize)
-                .map(patientBatch -> this.createJobBatch(jobID, orgID, providerID, patientBatch, resourceTypes))
-                .toList()
-                .blockingGet();
-
-        // Expect a single empty job when no patients passed
-        if ( jobBatches.isEmpty() && patients.isEmpty() ) {
-            jobBatches.add(this.createJobBatch(jobID, orgID, providerID, Collections.emptyList(), resourceTypes));
-        }
+        return createJob(orgID, providerID, patients, resourceTypes, null);
+    }
 
-        // Set the priority of a job batch
-        // Single patients will have first priority to support patient everything
-        final int priority = patients.size() == 1 ? 1000 : 5000;
-        jobBatches.forEach(batch -> batch.setPriority(priority));
+    @Override
+    public UUID createJob(UUID orgID, String providerID, List<String> patients, List<ResourceType> resourceTypes, OffsetDateTime since) {
+        return createJob(orgID, providerID, patients.iterator(), resourceTypes, since);
+    }
 
-        this.submitJobBatches(jobBatches);
-        return jobBatches.stream().map(JobQueueBatch::getJobID).findFirst().orElseThrow(() -> new JobQueueFailure("Unable to create job. No batches to submit."));
+    @Override
+    public UUID createJob(UUID orgID, String providerID, Iterator<String> patients, List<ResourceType> resourceTypes, OffsetDateTime since) {
+        final UUID jobID = UUID.randomUUID();
+        this.submitJobBatches(new JobBatchIterator(jobID, orgID, providerID, patients, resourceTypes, since));
+        return jobID;
     }
 
-    protected JobQueueBatch createJobBatch(UUID jobID, UUID orgID, String providerID, List<String> patients, List<ResourceType> resourceTypes) {
-        return new JobQueueBatch(jobID, orgID, providerID, patients, resourceTypes);
+    protected JobQueueBatch createJobBatch(UUID jobID, UUID orgID, String providerID, List<String> patients, List<ResourceType> resourceTypes, OffsetDateTime since) {
+        return new JobQueueBatch(jobID, orgID, providerID, patients, resourceTypes, since);
     }
 
     public int getBatchSize() {
         return batchSize;
     }
+
+    /**
+     * Breaks the patients of a job into batches of at most {@link JobQueueCommon#getBatchSize()} patients, as the batches are requested.
+     */
+    private class JobBatchIterator implements Iterator<JobQueueBatch> {
+
+        private final UUID jobID;
+        private final UUID orgID;
+        private final String providerID;
+        private final Iterator<String> patients;
+        private final List<ResourceType> resourceTypes;
+        private final OffsetDateTime since;
+        private boolean first = true;
+
+        JobBatchIterator(UUID jobID, UUID orgID, String providerID, Iterator<String> patients, List<ResourceType> resourceTypes, OffsetDateTime since) {
+            this.jobID = jobID;
+            this.orgID = orgID;
+            this.providerID = providerID;
+            this.patients = patients;
+            this.resourceTypes = resourceTypes;
+            this.since = since;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // Expect a single empty batch when no patients are passed
+            return first || patients.hasNext();
+        }
+
+        @Override
+        public JobQueueBatch next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final List<String> batchPatients = new ArrayList<>(batchSize);
+            while (batchPatients.size() < batchSize && patients.hasNext()) {
+                batchPatients.add(patients.next());
+            }
+            final JobQueueBatch batch = createJobBatch(jobID, orgID, providerID, batchPatients, resourceTypes, since);
+
+            // Set the priority of a job batch
+            // Single patients will have first priority to support patient everything
+            final boolean singlePatient = first && batchPatients.size() == 1 && !patients.hasNext();
+            batch.setPriority(singlePatient ? 1000 : 5000);
+            first = false;
+            return batch;
+        }
+    }
 }
@@ -6,9 +6,11 @@ import com.google.inject.Scopes;
 import com.hubspot.dropwizard.guicier.DropwizardAwareModule;
 import gov.cms.dpc.queue.annotations.AggregatorID;
 import gov.cms.dpc.queue.annotations.QueueBatchSize;
+import gov.cms.dpc.queue.annotations.QueueSubmitChunkSize;
 import gov.cms.dpc.queue.health.JobQueueHealthCheck;
 import io.dropwizard.Configuration;
 
+import javax.inject.Singleton;
 import java.util.UUID;
 
 public class JobQueueModule<T extends Configuration & DPCQueueConfig> extends DropwizardAwareModule<T> {
@@ -46,6 +48,13 @@ public class JobQueueModule<T extends Configuration & DPCQueueConfig> extends Dr
     }
 
     @Provides
+    @QueueSubmitChunkSize
+    int provideSubmitChunkSize() {
+        return getConfiguration().getQueueSubmitChunkSize();
+    }
+
+    @Provides
+    @Singleton
     @AggregatorID
     UUID provideAggregatorID() {
         return UUID.randomUUID();
@@ -4,5 +4,7 @@ public enum JobStatus {
     QUEUED,
     RUNNING,
     COMPLETED,
-    FAILED
+    FAILED,
+    // Submitted, but held back from the queue until every batch of the job has been written. Stored by ordinal, so new statuses go last.
+    STAGED
 }
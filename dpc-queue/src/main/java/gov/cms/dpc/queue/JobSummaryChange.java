@@ -0,0 +1,162 @@
+package gov.cms.dpc.queue;
+
+import gov.cms.dpc.queue.models.JobQueueBatch;
+import gov.cms.dpc.queue.models.JobSummary;
+import org.hibernate.Session;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * A change to the batches of a job, which is applied to the {@link JobSummary} of the job in the same transaction as the change itself.
+ * <p>
+ * Each changed batch is removed from the summary in the state it was in before the change, and added back in the state it is in after it,
+ * so every transition of a batch is counted the same way, whether it is a claim, a checkpoint, or the batch finishing.
+ */
+class JobSummaryChange {
+
+    // Locks the batch, so it cannot change between reading its progress and applying the change
+    private static final String PROGRESS_QUERY = "SELECT status, patient_count, patient_index FROM job_queue_batch WHERE batch_id = :batchID FOR UPDATE";
+    private static final String UPDATE_QUERY = "UPDATE job_queue_job_summary s SET s.queuedCount = s.queuedCount + :queued, s.runningCount = s.runningCount + :running, " +
+            "s.completedCount = s.completedCount + :completed, s.failedCount = s.failedCount + :failed, s.processedPatientCount = s.processedPatientCount + :processed " +
+            "WHERE s.jobID = :jobID";
+    private static final String START_QUERY = "UPDATE job_queue_job_summary s SET s.startTime = :startTime WHERE s.jobID = :jobID AND s.startTime IS NULL";
+
+    private final int[] batchCounts = new int[JobStatus.values().length];
+    private int processedPatientCount;
+
+    /**
+     * Remove the batch from the summary, as it was last written to the database
+     *
+     * @param session - the active database session
+     * @param batchID - the batch which is about to change
+     * @return - this {@link JobSummaryChange}
+     */
+    JobSummaryChange removeBatch(Session session, UUID batchID) {
+        final Object[] progress = readProgress(session, batchID);
+        return remove(statusOf(progress), processedPatients(progress));
+    }
+
+    /**
+     * Add the batch back to the summary, as it has been written to the database. Pending changes to the batch must have been flushed.
+     *
+     * @param session - the active database session
+     * @param batchID - the batch which has changed
+     * @return - this {@link JobSummaryChange}
+     */
+    JobSummaryChange addBatch(Session session, UUID batchID) {
+        final Object[] progress = readProgress(session, batchID);
+        return add(statusOf(progress), processedPatients(progress));
+    }
+
+    /**
+     * Remove the batch from the summary, in its current state
+     *
+     * @param batch - the batch which is about to change
+     * @return - this {@link JobSummaryChange}
+     */
+    JobSummaryChange removeBatch(JobQueueBatch batch) {
+        return remove(batch.getStatus(), processedPatients(batch.getStatus(), batch.getPatientCount(), batch.getPatientIndex().orElse(null)));
+    }
+
+    /**
+     * Add the batch back to the summary, in its current state
+     *
+     * @param batch - the batch which has changed
+     * @return - this {@link JobSummaryChange}
+     */
+    JobSummaryChange addBatch(JobQueueBatch batch) {
+        return add(batch.getStatus(), processedPatients(batch.getStatus(), batch.getPatientCount(), batch.getPatientIndex().orElse(null)));
+    }
+
+    /**
+     * Move batches from one status to another, without changing their progress
+     *
+     * @param from       - the previous {@link JobStatus} of the batches
+     * @param to         - the new {@link JobStatus} of the batches
+     * @param batchCount - the number of batches which moved
+     * @return - this {@link JobSummaryChange}
+     */
+    JobSummaryChange moveBatches(JobStatus from, JobStatus to, int batchCount) {
+        batchCounts[from.ordinal()] -= batchCount;
+        batchCounts[to.ordinal()] += batchCount;
+        return this;
+    }
+
+    /**
+     * Add another change to the same job to this one
+     *
+     * @param other - the {@link JobSummaryChange} to add
+     * @return - this {@link JobSummaryChange}
+     */
+    JobSummaryChange merge(JobSummaryChange other) {
+        for (int i = 0; i < batchCounts.length; i++) {
+            batchCounts[i] += other.batchCounts[i];
+        }
+        processedPatientCount += other.processedPatientCount;
+        return this;
+    }
+
+    /**
+     * Apply the change to the summary of the job
+     *
+     * @param session - the active database session
+     * @param jobID   - the job the changed batches belong to
+     */
+    void apply(Session session, UUID jobID) {
+        session.createQuery(UPDATE_QUERY)
+                .setParameter("queued", batchCounts[JobStatus.QUEUED.ordinal()])
+                .setParameter("running", batchCounts[JobStatus.RUNNING.ordinal()])
+                .setParameter("completed", batchCounts[JobStatus.COMPLETED.ordinal()])
+                .setParameter("failed", batchCounts[JobStatus.FAILED.ordinal()])
+                .setParameter("processed", processedPatientCount)
+                .setParameter("jobID", jobID)
+                .executeUpdate();
+    }
+
+    /**
+     * Record the start of the job in its summary, unless an earlier batch has already started it
+     *
+     * @param session   - the active database session
+     * @param jobID     - the job which has a batch claimed
+     * @param startTime - the time the batch was claimed
+     */
+    static void markStarted(Session session, UUID jobID, OffsetDateTime startTime) {
+        session.createQuery(START_QUERY)
+                .setParameter("startTime", startTime)
+                .setParameter("jobID", jobID)
+                .executeUpdate();
+    }
+
+    private JobSummaryChange remove(JobStatus status, int processedPatients) {
+        batchCounts[status.ordinal()]--;
+        processedPatientCount -= processedPatients;
+        return this;
+    }
+
+    private JobSummaryChange add(JobStatus status, int processedPatients) {
+        batchCounts[status.ordinal()]++;
+        processedPatientCount += processedPatients;
+        return this;
+    }
+
+    private static Object[] readProgress(Session session, UUID batchID) {
+        return (Object[]) session.createNativeQuery(PROGRESS_QUERY)
+                .setParameter("batchID", batchID)
+                .getSingleResult();
+    }
+
+    private static JobStatus statusOf(Object[] progress) {
+        return JobStatus.values()[((Number) progress[0]).intValue()];
+    }
+
+    private static int processedPatients(Object[] progress) {
+        final Integer patientIndex = progress[2] == null ? null : ((Number) progress[2]).intValue();
+        return processedPatients(statusOf(progress), ((Number) progress[1]).intValue(), patientIndex);
+    }
+
+    private static int processedPatients(JobStatus status, int patientCount, Integer patientIndex) {
+        // Completed batches no longer track their patient index, but have processed all their patients
+        return status == JobStatus.COMPLETED ? patientCount : (patientIndex == null ? -1 : patientIndex) + 1;
+    }
+}
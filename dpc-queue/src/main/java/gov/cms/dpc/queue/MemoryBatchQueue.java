@@ -3,10 +3,12 @@ package gov.cms.dpc.queue;
 import gov.cms.dpc.queue.exceptions.JobQueueFailure;
 import gov.cms.dpc.queue.models.JobQueueBatch;
 import gov.cms.dpc.queue.models.JobQueueBatchFile;
+import gov.cms.dpc.queue.models.JobSummary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -17,6 +19,7 @@ public class MemoryBatchQueue extends JobQueueCommon {
     private static Logger logger = LoggerFactory.getLogger(MemoryBatchQueue.class);
 
     private final Map<UUID, JobQueueBatch> queue;
+    private final BatchSignal batchSignal = new BatchSignal();
 
     public MemoryBatchQueue() {
         this(100);
@@ -28,12 +31,28 @@ public class MemoryBatchQueue extends JobQueueCommon {
     }
 
     @Override
-    public synchronized void submitJobBatches(List<JobQueueBatch> jobBatches) {
-        jobBatches.forEach(batch -> {
-            logger.debug("Submitting batch {}", batch.getBatchID());
-            this.queue.put(batch.getBatchID(), batch);
-            batch.setUpdateTime();
-        });
+    public void submitJobBatches(Iterator<JobQueueBatch> jobBatches) {
+        // Stage each batch as it is read, without holding the queue while the next one is read, and release the job once all of them are in
+        final List<UUID> staged = new ArrayList<>();
+        try {
+            jobBatches.forEachRemaining(batch -> {
+                batch.setStagedStatus();
+                synchronized (this) {
+                    logger.debug("Submitting batch {}", batch.getBatchID());
+                    this.queue.put(batch.getBatchID(), batch);
+                }
+                staged.add(batch.getBatchID());
+            });
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                staged.forEach(this.queue::remove);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            staged.forEach(batchID -> this.queue.get(batchID).setQueuedStatus());
+            batchSignal.signal();
+        }
     }
 
     @Override
@@ -50,6 +69,34 @@ public class MemoryBatchQueue extends JobQueueCommon {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public synchronized Optional<JobSummary> getJobSummary(UUID jobID) {
+        // A job is not summarized until all of its batches have been submitted
+        final List<JobQueueBatch> batches = getJobBatches(jobID).stream()
+                .filter(batch -> batch.getStatus() != JobStatus.STAGED)
+                .collect(Collectors.toList());
+        if (batches.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final JobQueueBatch first = batches.get(0);
+        final JobSummary summary = new JobSummary(jobID, first.getOrgID(), first.getProviderID(), first.getResourceTypes());
+        batches.forEach(batch -> summary.addBatches(batch.getOrgID(),
+                batch.getStatus(),
+                1,
+                batch.getPatientCount(),
+                batch.getPatientIndex().orElse(-1) + 1,
+                batch.getStartTime().orElse(null)));
+        return Optional.of(summary);
+    }
+
+    @Override
+    public synchronized List<JobQueueBatchFile> getJobBatchFiles(UUID jobID) {
+        return getJobBatches(jobID).stream()
+                .flatMap(batch -> batch.getJobQueueBatchFiles().stream())
+                .collect(Collectors.toList());
+    }
+
     @Override
     public synchronized Optional<JobQueueBatchFile> getJobBatchFile(UUID organizationID, String fileID) {
         return this.queue.values().stream()
@@ -61,34 +108,72 @@ public class MemoryBatchQueue extends JobQueueCommon {
 
     @Override
     public synchronized Optional<JobQueueBatch> claimBatch(UUID aggregatorID) {
-        logger.debug("Pulling first QUEUED job");
-        final Optional<JobQueueBatch> first = this.queue.values()
+        return claimBatches(aggregatorID, 1).stream().findFirst();
+    }
+
+    @Override
+    public synchronized List<JobQueueBatch> claimBatches(UUID aggregatorID, int limit) {
+        logger.debug("Pulling first {} QUEUED jobs", limit);
+        final List<JobQueueBatch> queued = this.queue.values()
                 .stream()
                 .filter(jobQueueBatch -> jobQueueBatch.getStatus().equals(JobStatus.QUEUED))
-                .findFirst();
+                .limit(limit)
+                .collect(Collectors.toList());
 
-        if (first.isPresent()) {
+        final List<JobQueueBatch> claimed = new ArrayList<>();
+        for (JobQueueBatch batch : queued) {
             try {
-                first.get().setRunningStatus(aggregatorID);
+                batch.setRunningStatus(aggregatorID);
+                claimed.add(batch);
             } catch (Exception e) {
                 logger.error("Failed to mark job as running. Marking the job as failed", e);
-                first.get().setFailedStatus(aggregatorID);
-                return Optional.empty();
+                batch.setFailedStatus(aggregatorID);
             }
         }
+        return claimed;
+    }
 
-        return first;
+    @Override
+    public boolean awaitBatch(long timeout, TimeUnit unit) throws InterruptedException {
+        // Not synchronized, so that the queue can be used while waiting
+        return batchSignal.await(timeout, unit);
+    }
+
+    @Override
+    public synchronized boolean renewLease(JobQueueBatch job, UUID aggregatorID) {
+        if (job.getStatus() != JobStatus.RUNNING || !job.getAggregatorID().map(aggregatorID::equals).orElse(false)) {
+            return false;
+        }
+        job.renewLease(aggregatorID);
+        return true;
+    }
+
+    @Override
+    public synchronized int reclaimExpiredBatches() {
+        final List<JobQueueBatch> expired = this.queue.values().stream()
+                .filter(JobQueueBatch::isLeaseExpired)
+                .collect(Collectors.toList());
+        expired.forEach(batch -> {
+            logger.warn("Reclaiming batch with an expired lease... batchID={}", batch.getBatchID());
+            batch.releaseExpiredLease();
+        });
+        if (!expired.isEmpty()) {
+            batchSignal.signal();
+        }
+        return expired.size();
     }
 
     @Override
     public synchronized void pauseBatch(JobQueueBatch job, UUID aggregatorID) {
         job.setPausedStatus(aggregatorID);
         job.setUpdateTime();
+        batchSignal.signal();
     }
 
     @Override
     public synchronized void completePartialBatch(JobQueueBatch job, UUID aggregatorID) {
         job.setUpdateTime();
+        job.renewLease(aggregatorID);
     }
 
     @Override
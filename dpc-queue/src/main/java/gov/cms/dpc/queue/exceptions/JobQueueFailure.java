@@ -10,6 +10,10 @@ public class JobQueueFailure extends RuntimeException {
         super(message);
     }
 
+    public JobQueueFailure(String message, Throwable throwable) {
+        super(message, throwable);
+    }
+
     public JobQueueFailure(UUID jobID, UUID batchID, String message) {
         super(String.format("Operation on Job(%s) Batch(%s) failed for reason: %s", jobID, batchID, message));
     }
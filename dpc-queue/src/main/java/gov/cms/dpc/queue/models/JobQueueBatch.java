@@ -1,6 +1,5 @@
 package gov.cms.dpc.queue.models;
 
-import gov.cms.dpc.common.converters.hibernate.StringListConverter;
 import gov.cms.dpc.queue.JobStatus;
 import gov.cms.dpc.queue.converters.ResourceTypeListConverter;
 import gov.cms.dpc.queue.exceptions.JobQueueFailure;
@@ -10,6 +9,7 @@ import org.hl7.fhir.dstu3.model.ResourceType;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
@@ -25,6 +25,12 @@ public class JobQueueBatch implements Serializable {
 
     private static final long serialVersionUID = -578824686165779398L;
 
+    /**
+     * How long an aggregator owns a running batch without renewing its lease.
+     * Once the lease expires, the batch is returned to the queue so another aggregator can continue it.
+     */
+    public static final Duration LEASE_DURATION = Duration.ofSeconds(30);
+
     /**
      * The list of resource type supported by DCP
      */
@@ -80,12 +86,23 @@ public class JobQueueBatch implements Serializable {
     private Integer priority;
 
     /**
-     * The list of patient-ids for the specified provider from the attribution server
+     * The list of patient-ids for the specified provider from the attribution server.
+     * <p>
+     * Stored as a row per patient, keyed by its ordinal in the batch. The list is only loaded when the batch is claimed,
+     * so reading the status of a batch, or checkpointing it, does not pay for the patients.
      */
-    @Convert(converter = StringListConverter.class)
-    @Column(name = "patients", columnDefinition = "text")
+    @ElementCollection(fetch = FetchType.LAZY)
+    @CollectionTable(name = "job_queue_batch_patient", joinColumns = @JoinColumn(name = "batch_id"))
+    @OrderColumn(name = "ordinal")
+    @Column(name = "patient_id", nullable = false)
     List<String> patients;
 
+    /**
+     * The number of patients in the batch, so the progress of the batch can be computed without loading the patients.
+     */
+    @Column(name = "patient_count", nullable = false)
+    int patientCount;
+
     /**
      * The last processed patient index. Null indicates no patients have been processed yet.
      */
@@ -99,12 +116,24 @@ public class JobQueueBatch implements Serializable {
     @Column(name = "resource_types")
     private List<ResourceType> resourceTypes;
 
+    /**
+     * Only export resources last updated at or after this time. Null indicates the full history is exported.
+     */
+    @Column(name = "since", nullable = true)
+    private OffsetDateTime since;
+
     /**
      * The current aggregator processing the batch. Null indicates no aggregator is processing the batch.
      */
     @Column(name = "aggregator_id")
     protected UUID aggregatorID;
 
+    /**
+     * The time the lease of the current aggregator expires, unless renewed. Null indicates no aggregator holds a lease on the batch.
+     */
+    @Column(name = "lease_expiry", nullable = true)
+    protected OffsetDateTime leaseExpiry;
+
     /**
      * The time the job was last processed
      */
@@ -138,16 +167,28 @@ public class JobQueueBatch implements Serializable {
     @JoinColumn(name = "batch_id")
     private List<JobQueueBatchFile> jobQueueBatchFiles;
 
+    /**
+     * The job results added or appended to since the last checkpoint. Not persisted.
+     */
+    @Transient
+    private transient Set<JobQueueBatchFile> changedJobQueueBatchFiles;
+
     public JobQueueBatch() {
     }
 
     public JobQueueBatch(UUID jobID, UUID orgID, String providerID, List<String> patients, List<ResourceType> resourceTypes) {
+        this(jobID, orgID, providerID, patients, resourceTypes, null);
+    }
+
+    public JobQueueBatch(UUID jobID, UUID orgID, String providerID, List<String> patients, List<ResourceType> resourceTypes, OffsetDateTime since) {
         this.batchID = UUID.randomUUID();
         this.jobID = jobID;
         this.orgID = orgID;
         this.providerID = providerID;
         this.patients = patients;
+        this.patientCount = patients.size();
         this.resourceTypes = resourceTypes;
+        this.since = since;
         this.status = JobStatus.QUEUED;
         this.submitTime = OffsetDateTime.now(ZoneOffset.UTC);
         this.jobQueueBatchFiles = new ArrayList<>();
@@ -161,6 +202,7 @@ public class JobQueueBatch implements Serializable {
     public Boolean isValid() {
         switch (status) {
             case QUEUED:
+            case STAGED:
                 return submitTime != null && aggregatorID == null;
             case RUNNING:
                 return submitTime != null && startTime != null && updateTime != null && aggregatorID != null;
@@ -196,10 +238,19 @@ public class JobQueueBatch implements Serializable {
         return priority;
     }
 
+    /**
+     * The patients of the batch, in the order they are processed. Loaded lazily, batches are only guaranteed to have their patients once claimed.
+     *
+     * @return - {@link List} of the patient MBIs
+     */
     public List<String> getPatients() {
         return patients;
     }
 
+    public int getPatientCount() {
+        return patientCount;
+    }
+
     public Optional<Integer> getPatientIndex() {
         return Optional.ofNullable(patientIndex);
     }
@@ -208,6 +259,10 @@ public class JobQueueBatch implements Serializable {
         return resourceTypes;
     }
 
+    public Optional<OffsetDateTime> getSince() {
+        return Optional.ofNullable(since);
+    }
+
     public Optional<UUID> getAggregatorID() {
         return Optional.ofNullable(aggregatorID);
     }
@@ -216,6 +271,10 @@ public class JobQueueBatch implements Serializable {
         this.aggregatorID = aggregatorID;
     }
 
+    public Optional<OffsetDateTime> getLeaseExpiry() {
+        return Optional.ofNullable(leaseExpiry);
+    }
+
     public Optional<OffsetDateTime> getUpdateTime() {
         return Optional.ofNullable(updateTime);
     }
@@ -253,14 +312,61 @@ public class JobQueueBatch implements Serializable {
     public synchronized JobQueueBatchFile addJobQueueFile(ResourceType resourceType, int sequence, int batchSize) {
         Optional<JobQueueBatchFile> existingFile = this.getJobQueueFile(JobQueueBatchFile.formOutputFileName(batchID, resourceType, sequence));
 
+        final JobQueueBatchFile file;
         if (existingFile.isPresent()) {
-            existingFile.get().appendCount(batchSize);
-            return existingFile.get();
+            file = existingFile.get();
+            file.appendCount(batchSize);
         } else {
-            JobQueueBatchFile file = new JobQueueBatchFile(jobID, batchID, resourceType, sequence, batchSize);
+            file = new JobQueueBatchFile(jobID, batchID, resourceType, sequence, batchSize);
             this.jobQueueBatchFiles.add(file);
-            return file;
         }
+        changedJobQueueFiles().add(file);
+        return file;
+    }
+
+    /**
+     * The job results which have been added or appended to since the last checkpoint, and have to be written with it.
+     *
+     * @return - {@link List} of the changed {@link JobQueueBatchFile}
+     */
+    public synchronized List<JobQueueBatchFile> getChangedJobQueueFiles() {
+        return new ArrayList<>(changedJobQueueFiles());
+    }
+
+    /**
+     * Forget the changed job results, once they have been checkpointed.
+     */
+    public synchronized void clearChangedJobQueueFiles() {
+        changedJobQueueFiles().clear();
+    }
+
+    private Set<JobQueueBatchFile> changedJobQueueFiles() {
+        // Not set by Hibernate or deserialization
+        if (changedJobQueueBatchFiles == null) {
+            changedJobQueueBatchFiles = new HashSet<>();
+        }
+        return changedJobQueueBatchFiles;
+    }
+
+    /**
+     * Hold this batch back from the queue, while the rest of its job is submitted. This job should be in the QUEUED state.
+     */
+    public void setStagedStatus() {
+        if (this.status != JobStatus.QUEUED) {
+            throw new JobQueueFailure(jobID, batchID, String.format("Cannot stage job. JobStatus: %s", this.status));
+        }
+        this.status = JobStatus.STAGED;
+    }
+
+    /**
+     * Release this batch to the queue, once every batch of its job has been submitted. This job should be in the STAGED state.
+     */
+    public void setQueuedStatus() {
+        if (this.status != JobStatus.STAGED) {
+            throw new JobQueueFailure(jobID, batchID, String.format("Cannot queue job. JobStatus: %s", this.status));
+        }
+        this.status = JobStatus.QUEUED;
+        this.setUpdateTime();
     }
 
     /**
@@ -277,11 +383,48 @@ public class JobQueueBatch implements Serializable {
         this.aggregatorID = aggregatorID;
         startTime = OffsetDateTime.now(ZoneOffset.UTC);
         this.setUpdateTime();
+        this.leaseExpiry = formLeaseExpiry();
+    }
+
+    /**
+     * Renew the lease of the aggregator on this running batch.
+     *
+     * @param aggregatorID - the current aggregator working the job
+     */
+    public void renewLease(UUID aggregatorID) {
+        if (this.status != JobStatus.RUNNING) {
+            throw new JobQueueFailure(jobID, batchID, String.format("Cannot renew lease. JobStatus: %s", this.status));
+        }
+        this.verifyAggregatorID(aggregatorID);
+        this.leaseExpiry = formLeaseExpiry();
+    }
+
+    /**
+     * Has the aggregator working this batch stopped renewing its lease
+     *
+     * @return - {@code true} the batch is running and its lease has expired
+     */
+    public boolean isLeaseExpired() {
+        return this.status == JobStatus.RUNNING && this.leaseExpiry != null && this.leaseExpiry.isBefore(OffsetDateTime.now(ZoneOffset.UTC));
+    }
+
+    /**
+     * Returns the batch to the queue after its aggregator stopped renewing its lease.
+     * Unlike {@link #restartBatch()}, the progress up to the last checkpoint is kept, so another aggregator continues where the batch was left off.
+     */
+    public void releaseExpiredLease() {
+        this.status = JobStatus.QUEUED;
+        this.aggregatorID = null;
+        this.leaseExpiry = null;
+
+        this.setUpdateTime();
     }
 
     /**
      * Fetch the next patient in the batch and increment the patient index.
      * Returns null if at the end of the list.
+     * <p>
+     * The patient is read from the list loaded when the batch was claimed, not from the database, so it must only be called on claimed batches.
      *
      * @param aggregatorID - the current aggregator working the job
      * @return - Next patient to process, if one exists
@@ -293,7 +436,7 @@ public class JobQueueBatch implements Serializable {
         this.verifyAggregatorID(aggregatorID);
         this.setUpdateTime();
         int index = this.getPatientIndex().orElse(-1) + 1;
-        if (index < this.patients.size()) {
+        if (index < this.patientCount) {
             // Patient index should be set to the last successful fetched result
             this.patientIndex = index;
             return Optional.of(this.patients.get(this.patientIndex));
@@ -313,6 +456,7 @@ public class JobQueueBatch implements Serializable {
         this.verifyAggregatorID(aggregatorID);
         this.status = JobStatus.QUEUED;
         this.aggregatorID = null;
+        this.leaseExpiry = null;
 
         this.setUpdateTime();
     }
@@ -326,12 +470,13 @@ public class JobQueueBatch implements Serializable {
         if (this.status != JobStatus.RUNNING) {
             throw new JobQueueFailure(jobID, batchID, String.format("Cannot complete. JobStatus: %s", this.status));
         }
-        if (!this.patients.isEmpty() && (this.patientIndex == null || this.getPatients().size() != this.patientIndex + 1)) {
-            throw new JobQueueFailure(jobID, batchID, String.format("Cannot complete. Job processing not finished. Only on patient %d of %d", this.getPatientIndex().orElse(-1) + 1, patients.size()));
+        if (this.patientCount > 0 && (this.patientIndex == null || this.patientCount != this.patientIndex + 1)) {
+            throw new JobQueueFailure(jobID, batchID, String.format("Cannot complete. Job processing not finished. Only on patient %d of %d", this.getPatientIndex().orElse(-1) + 1, patientCount));
         }
         this.verifyAggregatorID(aggregatorID);
         this.status = JobStatus.COMPLETED;
         this.aggregatorID = null;
+        this.leaseExpiry = null;
         this.patientIndex = null;
         completeTime = OffsetDateTime.now(ZoneOffset.UTC);
 
@@ -346,8 +491,10 @@ public class JobQueueBatch implements Serializable {
     public void setFailedStatus(UUID aggregatorID) {
         this.status = JobStatus.FAILED;
         this.aggregatorID = null;
+        this.leaseExpiry = null;
         completeTime = OffsetDateTime.now(ZoneOffset.UTC);
         this.getJobQueueBatchFiles().clear();
+        this.clearChangedJobQueueFiles();
 
         this.setUpdateTime();
     }
@@ -361,7 +508,9 @@ public class JobQueueBatch implements Serializable {
         this.startTime = null;
         this.completeTime = null;
         this.aggregatorID = null;
+        this.leaseExpiry = null;
         this.getJobQueueBatchFiles().clear();
+        this.clearChangedJobQueueFiles();
 
         this.setUpdateTime();
     }
@@ -386,6 +535,10 @@ public class JobQueueBatch implements Serializable {
         }
     }
 
+    private static OffsetDateTime formLeaseExpiry() {
+        return OffsetDateTime.now(ZoneOffset.UTC).plus(LEASE_DURATION);
+    }
+
     /**
      * Keep the update time in sync whenever a change occurs after the start time
      */
@@ -410,10 +563,12 @@ public class JobQueueBatch implements Serializable {
                 .append(providerID, that.providerID)
                 .append(status, that.status)
                 .append(priority, that.priority)
-                .append(patients, that.patients)
+                .append(patientCount, that.patientCount)
                 .append(patientIndex, that.patientIndex)
                 .append(resourceTypes, that.resourceTypes)
+                .append(since, that.since)
                 .append(aggregatorID, that.aggregatorID)
+                .append(leaseExpiry, that.leaseExpiry)
                 .append(updateTime, that.updateTime)
                 .append(submitTime, that.submitTime)
                 .append(startTime, that.startTime)
@@ -431,10 +586,12 @@ public class JobQueueBatch implements Serializable {
                 .append(providerID)
                 .append(status)
                 .append(priority)
-                .append(patients)
+                .append(patientCount)
                 .append(patientIndex)
                 .append(resourceTypes)
+                .append(since)
                 .append(aggregatorID)
+                .append(leaseExpiry)
                 .append(updateTime)
                 .append(submitTime)
                 .append(startTime)
@@ -451,10 +608,12 @@ public class JobQueueBatch implements Serializable {
                 ", providerID='" + providerID + '\'' +
                 ", status=" + status +
                 ", priority=" + priority +
-                ", patients=" + patients +
+                ", patientCount=" + patientCount +
                 ", patientIndex=" + patientIndex +
                 ", resourceTypes=" + resourceTypes +
+                ", since=" + since +
                 ", aggregatorID=" + aggregatorID +
+                ", leaseExpiry=" + leaseExpiry +
                 ", updateTime=" + updateTime +
                 ", submitTime=" + submitTime +
                 ", startTime=" + startTime +
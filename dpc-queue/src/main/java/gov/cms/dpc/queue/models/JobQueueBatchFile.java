@@ -107,6 +107,18 @@ public class JobQueueBatchFile implements Serializable {
     @Column(name = "file_length")
     private long fileLength;
 
+    @Column(name = "digest_state")
+    private byte[] digestState;
+
+    @Column(name = "compressed_checksum")
+    private byte[] compressedChecksum;
+
+    @Column(name = "compressed_file_length")
+    private long compressedFileLength;
+
+    @Column(name = "compressed_digest_state")
+    private byte[] compressedDigestState;
+
     public JobQueueBatchFile() {
         // for hibernate
     }
@@ -166,6 +178,53 @@ public class JobQueueBatchFile implements Serializable {
         this.fileLength = fileLength;
     }
 
+    /**
+     * The encoded state of the running SHA-256 digest of the file, as of the last checkpoint
+     *
+     * @return the encoded digest state, or null if none has been recorded
+     */
+    public byte[] getDigestState() {
+        return digestState;
+    }
+
+    public void setDigestState(byte[] digestState) {
+        this.digestState = digestState;
+    }
+
+    /**
+     * The SHA-256 checksum of the gzip compressed copy of the file
+     *
+     * @return the checksum, or null if the file has no (completed) compressed copy
+     */
+    public byte[] getCompressedChecksum() {
+        return compressedChecksum;
+    }
+
+    public void setCompressedChecksum(byte[] compressedChecksum) {
+        this.compressedChecksum = compressedChecksum;
+    }
+
+    public long getCompressedFileLength() {
+        return compressedFileLength;
+    }
+
+    public void setCompressedFileLength(long compressedFileLength) {
+        this.compressedFileLength = compressedFileLength;
+    }
+
+    /**
+     * The encoded state of the running SHA-256 digest of the gzip compressed copy of the file, as of the last checkpoint
+     *
+     * @return the encoded digest state, or null if the file is not being compressed
+     */
+    public byte[] getCompressedDigestState() {
+        return compressedDigestState;
+    }
+
+    public void setCompressedDigestState(byte[] compressedDigestState) {
+        this.compressedDigestState = compressedDigestState;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,213 @@
+package gov.cms.dpc.queue.models;
+
+import gov.cms.dpc.queue.JobStatus;
+import gov.cms.dpc.queue.converters.ResourceTypeListConverter;
+import gov.cms.dpc.queue.exceptions.JobQueueFailure;
+import org.hl7.fhir.dstu3.model.ResourceType;
+
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The status of an export job as a whole, summarized from its {@link JobQueueBatch}es.
+ * Holds the number of batches in each {@link JobStatus} and the progress through the patients of the job,
+ * so the status of a job can be reported without loading its batches.
+ * <p>
+ * The distributed queue keeps a row per job, which is written when the job is submitted and updated in the same transaction as each change to them.
+ */
+@Entity(name = "job_queue_job_summary")
+public class JobSummary implements Serializable {
+
+    private static final long serialVersionUID = 42L;
+
+    @Id
+    @Column(name = "job_id")
+    private UUID jobID;
+
+    @Column(name = "organization_id", nullable = false)
+    private UUID orgID;
+
+    @Column(name = "provider_id")
+    private String providerID;
+
+    @Convert(converter = ResourceTypeListConverter.class)
+    @Column(name = "resource_types")
+    private List<ResourceType> resourceTypes;
+
+    @Column(name = "queued_count", nullable = false)
+    private int queuedCount;
+
+    @Column(name = "running_count", nullable = false)
+    private int runningCount;
+
+    @Column(name = "completed_count", nullable = false)
+    private int completedCount;
+
+    @Column(name = "failed_count", nullable = false)
+    private int failedCount;
+
+    @Column(name = "patient_count", nullable = false)
+    private int patientCount;
+
+    /**
+     * The patients processed by the batches, up to their last checkpoint. Completed batches count all their patients.
+     */
+    @Column(name = "processed_patient_count", nullable = false)
+    private int processedPatientCount;
+
+    /**
+     * The time the first batch of the job was claimed. Null indicates no batch has started.
+     */
+    @Column(name = "start_time", nullable = true)
+    private OffsetDateTime startTime;
+
+    public JobSummary() {
+        // Hibernate required
+    }
+
+    public JobSummary(UUID jobID, UUID orgID, String providerID, List<ResourceType> resourceTypes) {
+        this.jobID = jobID;
+        this.orgID = orgID;
+        this.providerID = providerID;
+        this.resourceTypes = resourceTypes;
+    }
+
+    /**
+     * Add a group of batches of the job to the summary
+     *
+     * @param orgID                 - the organization the batches belong to
+     * @param status                - the {@link JobStatus} of the batches
+     * @param batchCount            - the number of batches
+     * @param patientCount          - the number of patients in the batches
+     * @param processedPatientCount - the number of patients processed by the batches, up to their last checkpoint
+     * @param startTime             - the earliest start time of the batches, null if none have started
+     */
+    public void addBatches(UUID orgID, JobStatus status, int batchCount, int patientCount, int processedPatientCount, OffsetDateTime startTime) {
+        if (!this.orgID.equals(orgID)) {
+            throw new JobQueueFailure(jobID, null, "The batches of the job belong to different organizations");
+        }
+        switch (status) {
+            case QUEUED:
+                this.queuedCount += batchCount;
+                break;
+            case RUNNING:
+                this.runningCount += batchCount;
+                break;
+            case COMPLETED:
+                this.completedCount += batchCount;
+                break;
+            case FAILED:
+                this.failedCount += batchCount;
+                break;
+            default:
+                throw new JobQueueFailure(jobID, null, String.format("Cannot summarize batches with status %s", status));
+        }
+        this.patientCount += patientCount;
+        // Completed batches no longer track their patient index, but have processed all their patients
+        this.processedPatientCount += status == JobStatus.COMPLETED ? patientCount : processedPatientCount;
+        if (startTime != null && (this.startTime == null || startTime.isBefore(this.startTime))) {
+            this.startTime = startTime;
+        }
+    }
+
+    public UUID getJobID() {
+        return jobID;
+    }
+
+    public UUID getOrgID() {
+        return orgID;
+    }
+
+    public String getProviderID() {
+        return providerID;
+    }
+
+    public List<ResourceType> getResourceTypes() {
+        return resourceTypes;
+    }
+
+    /**
+     * The statuses of the batches of the job
+     *
+     * @return - {@link Set} of the {@link JobStatus} of at least one batch
+     */
+    public Set<JobStatus> getStatuses() {
+        final Set<JobStatus> statuses = EnumSet.noneOf(JobStatus.class);
+        for (JobStatus status : JobStatus.values()) {
+            if (getBatchCount(status) > 0) {
+                statuses.add(status);
+            }
+        }
+        return statuses;
+    }
+
+    public int getBatchCount(JobStatus status) {
+        switch (status) {
+            case QUEUED:
+                return queuedCount;
+            case RUNNING:
+                return runningCount;
+            case COMPLETED:
+                return completedCount;
+            case FAILED:
+                return failedCount;
+            default:
+                return 0;
+        }
+    }
+
+    public int getPatientCount() {
+        return patientCount;
+    }
+
+    public int getProcessedPatientCount() {
+        return processedPatientCount;
+    }
+
+    public Optional<OffsetDateTime> getStartTime() {
+        return Optional.ofNullable(startTime);
+    }
+
+    /**
+     * Are the counts of the summary consistent with each other, and with the statuses of the batches.
+     *
+     * @return True if the summary describes a valid job
+     */
+    public boolean isValid() {
+        final int batchCount = queuedCount + runningCount + completedCount + failedCount;
+        if (queuedCount < 0 || runningCount < 0 || completedCount < 0 || failedCount < 0 || batchCount == 0) {
+            return false;
+        }
+        if (processedPatientCount < 0 || processedPatientCount > patientCount) {
+            return false;
+        }
+        // Batches which have been claimed have a start time
+        return startTime != null || runningCount + completedCount + failedCount == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "JobSummary{" +
+                "jobID=" + jobID +
+                ", orgID=" + orgID +
+                ", providerID='" + providerID + '\'' +
+                ", resourceTypes=" + resourceTypes +
+                ", queuedCount=" + queuedCount +
+                ", runningCount=" + runningCount +
+                ", completedCount=" + completedCount +
+                ", failedCount=" + failedCount +
+                ", patientCount=" + patientCount +
+                ", processedPatientCount=" + processedPatientCount +
+                ", startTime=" + startTime +
+                '}';
+    }
+}
@@ -18,6 +18,7 @@ import org.junit.jupiter.api.TestFactory;
 import org.junit.jupiter.api.extension.ExtendWith;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.BiFunction;
 import java.util.stream.Stream;
 
@@ -46,7 +47,8 @@ class QueueTest {
                         // Create the session factory
                         final Configuration conf = new Configuration();
                         sessionFactory = conf.configure().buildSessionFactory();
-                        return new DistributedBatchQueue(new DPCQueueManagedSessionFactory(sessionFactory), 100, new MetricRegistry());
+                        // Write the batches two at a time, so submitting a job takes several round trips
+                        return new DistributedBatchQueue(new DPCQueueManagedSessionFactory(sessionFactory), 100, 2, new MetricRegistry());
                     } else {
                         throw new IllegalArgumentException("I'm not that kind of queue");
                     }
@@ -56,7 +58,13 @@ class QueueTest {
                     final DynamicTest second = DynamicTest.dynamicTest(nameGenerator.apply(queue, "Missing Job"), () -> testMissingJob(queue));
                     final DynamicTest third = DynamicTest.dynamicTest(nameGenerator.apply(queue, "EOB Submission"), () -> testPatientAndEOBSubmission(queue));
                     final DynamicTest fourth = DynamicTest.dynamicTest(nameGenerator.apply(queue, "Invalid batch on queue"), () -> testInvalidJobBatch(queue));
-                    return List.of(first, second, third, fourth);
+                    final DynamicTest fifth = DynamicTest.dynamicTest(nameGenerator.apply(queue, "Batch wakeup"), () -> testBatchWakeup(queue));
+                    final DynamicTest sixth = DynamicTest.dynamicTest(nameGenerator.apply(queue, "Partial checkpoint"), () -> testPartialCheckpoint(queue));
+                    final DynamicTest seventh = DynamicTest.dynamicTest(nameGenerator.apply(queue, "Claim several batches"), () -> testClaimBatches(queue));
+                    final DynamicTest eighth = DynamicTest.dynamicTest(nameGenerator.apply(queue, "Job summary"), () -> testJobSummary(queue));
+                    final DynamicTest ninth = DynamicTest.dynamicTest(nameGenerator.apply(queue, "Streamed submission"), () -> testStreamedSubmission(queue));
+                    final DynamicTest tenth = DynamicTest.dynamicTest(nameGenerator.apply(queue, "Failed submission"), () -> testFailedSubmission(queue));
+                    return List.of(first, second, third, fourth, fifth, sixth, seventh, eighth, ninth, tenth);
                 })
                 .flatMap(Collection::stream);
     }
@@ -73,7 +81,9 @@ class QueueTest {
             final Transaction tx = session.beginTransaction();
             try {
                 session.createQuery("delete from job_queue_batch_file").executeUpdate();
+                session.createNativeQuery("delete from job_queue_batch_patient").executeUpdate();
                 session.createQuery("delete from job_queue_batch").executeUpdate();
+                session.createQuery("delete from job_queue_job_summary").executeUpdate();
             } finally {
                 tx.commit();
             }
@@ -104,7 +114,8 @@ class QueueTest {
         // Check that the persisted job is RUNNING
         final Optional<JobQueueBatch> runningJob = queue.getBatch(firstBatchID);
         assertAll(() -> assertTrue(runningJob.isPresent(), "Should have a status"),
-                () -> assertEquals(JobStatus.RUNNING, runningJob.orElseThrow().getStatus(), "Job should be running"));
+                () -> assertEquals(JobStatus.RUNNING, runningJob.orElseThrow().getStatus(), "Job should be running"),
+                () -> assertEquals(2, runningJob.orElseThrow().getPatientCount(), "Should count the patients"));
 
         // Complete the job
         while (workBatch.get().fetchNextPatient(aggregatorID).isPresent()) {
@@ -181,6 +192,195 @@ class QueueTest {
         });
     }
 
+    void testPartialCheckpoint(JobQueueCommon queue) {
+        final var orgID = UUID.randomUUID();
+        queue.createJob(orgID, "test-provider-1", List.of("test-patient-1", "test-patient-2"), Collections.singletonList(ResourceType.Patient));
+        final var workBatch = queue.claimBatch(aggregatorID).get();
+
+        // Checkpoint the first patient along with its file
+        workBatch.fetchNextPatient(aggregatorID);
+        workBatch.addJobQueueFile(ResourceType.Patient, 0, 1).setFileLength(10);
+        queue.completePartialBatch(workBatch, aggregatorID);
+        assertTrue(workBatch.getChangedJobQueueFiles().isEmpty(), "Checkpointed files should no longer be changed");
+
+        final var checkpointed = queue.getBatch(workBatch.getBatchID()).orElseThrow();
+        assertAll(() -> assertEquals(JobStatus.RUNNING, checkpointed.getStatus(), "Should still be running"),
+                () -> assertEquals(0, checkpointed.getPatientIndex().orElseThrow(), "Should have checkpointed the first patient"),
+                () -> assertEquals(1, checkpointed.getJobQueueFile(ResourceType.Patient).orElseThrow().getCount(), "Should have checkpointed the file"),
+                () -> assertEquals(10, checkpointed.getJobQueueFile(ResourceType.Patient).orElseThrow().getFileLength(), "Should have checkpointed the file length"));
+
+        // Append to the same file with the second patient
+        workBatch.fetchNextPatient(aggregatorID);
+        workBatch.addJobQueueFile(ResourceType.Patient, 0, 1).setFileLength(20);
+        queue.completePartialBatch(workBatch, aggregatorID);
+
+        final var appended = queue.getBatch(workBatch.getBatchID()).orElseThrow();
+        assertAll(() -> assertEquals(1, appended.getPatientIndex().orElseThrow(), "Should have checkpointed the second patient"),
+                () -> assertEquals(1, appended.getJobQueueBatchFiles().size(), "Should have updated the existing file"),
+                () -> assertEquals(2, appended.getJobQueueFile(ResourceType.Patient).orElseThrow().getCount(), "Should have checkpointed the appended count"));
+
+        queue.completeBatch(workBatch, aggregatorID);
+    }
+
+    void testClaimBatches(JobQueueCommon queue) {
+        final var orgID = UUID.randomUUID();
+        for (int i = 0; i < 3; i++) {
+            queue.createJob(orgID, "test-provider-1", List.of("test-patient-1"), Collections.singletonList(ResourceType.Patient));
+        }
+        final long queued = queue.queueSize();
+
+        final List<JobQueueBatch> claimed = queue.claimBatches(aggregatorID, 2);
+        assertAll(() -> assertEquals(2, claimed.size(), "Should claim up to the limit"),
+                () -> assertEquals(queued - 2, queue.queueSize(), "Claimed batches should no longer be queued"),
+                () -> assertTrue(claimed.stream().allMatch(batch -> batch.getStatus() == JobStatus.RUNNING), "Claimed batches should be running"),
+                () -> assertTrue(claimed.stream().allMatch(batch -> batch.getLeaseExpiry().isPresent()), "Claimed batches should be leased"));
+
+        // Only the owner can renew the lease
+        assertTrue(queue.renewLease(claimed.get(1), aggregatorID), "Should renew the lease of the owner");
+        assertFalse(queue.renewLease(claimed.get(1), UUID.randomUUID()), "Should not renew the lease of another aggregator");
+
+        // Release the unstarted batch
+        queue.pauseBatch(claimed.get(1), aggregatorID);
+        assertEquals(queued - 1, queue.queueSize(), "Released batch should be queued again");
+        assertFalse(queue.renewLease(claimed.get(1), aggregatorID), "Should not renew the lease of a released batch");
+
+        queue.failBatch(claimed.get(0), aggregatorID);
+    }
+
+    void testJobSummary(JobQueueCommon queue) {
+        final var orgID = UUID.randomUUID();
+        final List<String> patients = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            patients.add(String.format("test-patient-%d", i));
+        }
+        final var jobID = queue.createJob(orgID, "test-provider-1", patients, Collections.singletonList(ResourceType.Patient));
+
+        final var summary = queue.getJobSummary(jobID).orElseThrow();
+        assertAll(() -> assertEquals(orgID, summary.getOrgID(), "Should have the organization of the job"),
+                () -> assertEquals("test-provider-1", summary.getProviderID(), "Should have the provider of the job"),
+                () -> assertEquals(List.of(ResourceType.Patient), summary.getResourceTypes(), "Should have the resource types of the job"),
+                () -> assertEquals(Set.of(JobStatus.QUEUED), summary.getStatuses(), "Should only have queued batches"),
+                () -> assertEquals(2, summary.getBatchCount(JobStatus.QUEUED), "Should count the batches"),
+                () -> assertEquals(150, summary.getPatientCount(), "Should count the patients of all the batches"),
+                () -> assertEquals(0, summary.getProcessedPatientCount(), "Should not have processed any patients"),
+                () -> assertTrue(summary.getStartTime().isEmpty(), "Should not have started"),
+                () -> assertTrue(summary.isValid(), "Should be valid"));
+
+        // Checkpoint part of the first batch
+        final JobQueueBatch firstBatch = queue.claimBatch(aggregatorID).orElseThrow();
+        for (int i = 0; i < 10; i++) {
+            firstBatch.fetchNextPatient(aggregatorID);
+            queue.completePartialBatch(firstBatch, aggregatorID);
+        }
+        final var runningSummary = queue.getJobSummary(jobID).orElseThrow();
+        assertAll(() -> assertEquals(Set.of(JobStatus.QUEUED, JobStatus.RUNNING), runningSummary.getStatuses(), "Should have a running batch"),
+                () -> assertEquals(10, runningSummary.getProcessedPatientCount(), "Should count the checkpointed patients"),
+                () -> assertTrue(runningSummary.getStartTime().isPresent(), "Should have started"),
+                () -> assertTrue(runningSummary.isValid(), "Should be valid"));
+
+        // Complete the first batch, and fail the second
+        while (firstBatch.fetchNextPatient(aggregatorID).isPresent()) {
+            queue.completePartialBatch(firstBatch, aggregatorID);
+        }
+        queue.completeBatch(firstBatch, aggregatorID);
+        final JobQueueBatch secondBatch = queue.claimBatch(aggregatorID).orElseThrow();
+        secondBatch.fetchNextPatient(aggregatorID);
+        queue.completePartialBatch(secondBatch, aggregatorID);
+        queue.failBatch(secondBatch, aggregatorID);
+
+        final var finishedSummary = queue.getJobSummary(jobID).orElseThrow();
+        assertAll(() -> assertEquals(Set.of(JobStatus.COMPLETED, JobStatus.FAILED), finishedSummary.getStatuses(), "Should have finished every batch"),
+                () -> assertEquals(1, finishedSummary.getBatchCount(JobStatus.COMPLETED), "Should count the completed batch"),
+                () -> assertEquals(1, finishedSummary.getBatchCount(JobStatus.FAILED), "Should count the failed batch"),
+                () -> assertEquals(firstBatch.getPatientCount() + 1, finishedSummary.getProcessedPatientCount(), "Should count the patients up to the failure"),
+                () -> assertTrue(finishedSummary.isValid(), "Should be valid"));
+
+        assertTrue(queue.getJobBatchFiles(jobID).isEmpty(), "Should not have any results");
+        assertTrue(queue.getJobSummary(UUID.randomUUID()).isEmpty(), "Should not summarize a missing job");
+    }
+
+    void testStreamedSubmission(JobQueueCommon queue) {
+        final var orgID = UUID.randomUUID();
+        final List<String> patients = new ArrayList<>();
+        for (int i = 0; i < 550; i++) {
+            patients.add(String.format("test-patient-%03d", i));
+        }
+        final var jobID = queue.createJob(orgID, "test-provider-1", patients.iterator(), Collections.singletonList(ResourceType.Patient), null);
+
+        final var summary = queue.getJobSummary(jobID).orElseThrow();
+        assertAll(() -> assertEquals(6, summary.getBatchCount(JobStatus.QUEUED), "Should split the patients into batches"),
+                () -> assertEquals(550, summary.getPatientCount(), "Should have all the patients"));
+
+        // Claim everything left in the queue, and check the batches of the job have every patient once
+        final List<String> claimedPatients = new ArrayList<>();
+        final List<JobQueueBatch> claimed = queue.claimBatches(aggregatorID, 100);
+        claimed.forEach(batch -> {
+            if (batch.getJobID().equals(jobID)) {
+                assertEquals(5000, batch.getPriority().intValue(), "Should have the priority of a multi-patient job");
+                claimedPatients.addAll(batch.getPatients());
+            }
+            queue.completeBatch(batch, aggregatorID);
+        });
+        claimedPatients.sort(Comparator.naturalOrder());
+        assertEquals(patients, claimedPatients, "Should have submitted every patient once");
+
+        // A single patient is prioritized
+        final var singleJobID = queue.createJob(orgID, "test-provider-1", List.of("test-patient-1").iterator(), Collections.singletonList(ResourceType.Patient), null);
+        final var singleBatch = queue.getJobBatches(singleJobID);
+        assertAll(() -> assertEquals(1, singleBatch.size(), "Should have a single batch"),
+                () -> assertEquals(1000, singleBatch.get(0).getPriority().intValue(), "Should have the priority of a single patient job"));
+        queue.claimBatch(aggregatorID).ifPresent(batch -> queue.completeBatch(batch, aggregatorID));
+    }
+
+    void testFailedSubmission(JobQueueCommon queue) {
+        final var orgID = UUID.randomUUID();
+        final var queueSize = queue.queueSize();
+        // Fail after a few batches worth of patients, like a roster whose later page cannot be fetched
+        final Iterator<String> patients = new Iterator<>() {
+            private int count = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (count == 250) {
+                    throw new IllegalStateException("Cannot fetch the next page");
+                }
+                return String.format("test-patient-%03d", count++);
+            }
+        };
+
+        final IllegalStateException exception = assertThrows(IllegalStateException.class, () -> queue.createJob(orgID, "test-provider-1", patients, Collections.singletonList(ResourceType.Patient), null));
+        assertAll(() -> assertEquals("Cannot fetch the next page", exception.getMessage(), "Should throw the failure of the iterator as is"),
+                () -> assertEquals(queueSize, queue.queueSize(), "Should not submit any batches of the job"));
+    }
+
+    void testBatchWakeup(JobQueueCommon queue) throws InterruptedException, ExecutionException, TimeoutException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Nothing has been submitted, so waiting should time out
+            final Future<Boolean> idle = executor.submit(() -> {
+                // Clear any earlier signals, then wait
+                //noinspection StatementWithEmptyBody
+                while (queue.awaitBatch(1, TimeUnit.SECONDS)) {
+                }
+                return queue.awaitBatch(200, TimeUnit.MILLISECONDS);
+            });
+            assertFalse(idle.get(5, TimeUnit.SECONDS), "Should time out without a submission");
+
+            // A submission should wake up the waiting thread well before the timeout
+            final Future<Boolean> waiting = executor.submit(() -> queue.awaitBatch(30, TimeUnit.SECONDS));
+            Thread.sleep(500);
+            queue.createJob(UUID.randomUUID(), "test-provider-1", List.of("test-patient-1"), Collections.singletonList(ResourceType.Patient));
+            assertTrue(waiting.get(10, TimeUnit.SECONDS), "Should be woken up by the submission");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     void testMissingJob(JobQueueCommon queue) {
         UUID batchID = UUID.randomUUID();
 
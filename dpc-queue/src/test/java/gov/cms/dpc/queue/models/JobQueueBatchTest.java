@@ -161,6 +161,7 @@ public class JobQueueBatchTest {
         job.status = JobStatus.RUNNING;
         job.patientIndex = null;
         job.patients = Collections.emptyList();
+        job.patientCount = 0;
 
         job.setCompletedStatus(aggregatorID);
 
@@ -266,6 +267,40 @@ public class JobQueueBatchTest {
         assertTrue(job.getJobQueueBatchFiles().isEmpty());
     }
 
+    @Test
+    void testRenewLease() {
+        final var job = createJobQueueBatch();
+        job.setRunningStatus(aggregatorID);
+        assertNotNull(job.leaseExpiry);
+        assertFalse(job.isLeaseExpired());
+
+        job.leaseExpiry = OffsetDateTime.now(ZoneOffset.UTC).minusSeconds(1);
+        assertTrue(job.isLeaseExpired());
+
+        job.renewLease(aggregatorID);
+        assertFalse(job.isLeaseExpired());
+        assertThrows(JobQueueFailure.class, () -> job.renewLease(UUID.randomUUID()), "Should not renew the lease of another aggregator");
+    }
+
+    @Test
+    void testReleaseExpiredLease() {
+        final var job = createJobQueueBatch();
+        job.setRunningStatus(aggregatorID);
+        job.fetchNextPatient(aggregatorID);
+        job.addJobQueueFile(ResourceType.Patient, 0, 1);
+        job.leaseExpiry = OffsetDateTime.now(ZoneOffset.UTC).minusSeconds(1);
+
+        job.releaseExpiredLease();
+
+        assertEquals(JobStatus.QUEUED, job.getStatus());
+        assertNull(job.aggregatorID);
+        assertNull(job.leaseExpiry);
+        assertFalse(job.isLeaseExpired());
+        assertEquals(Optional.of(0), job.getPatientIndex(), "Should keep the checkpointed progress");
+        assertEquals(1, job.getJobQueueBatchFiles().size(), "Should keep the checkpointed results");
+        assertTrue(job.isValid());
+    }
+
     @Test
     void testVerifyAggregatorID_NoneSet() throws Exception {
         final var job = createJobQueueBatch();